@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.benchmarks;
+
+import java.util.*;
+import org.eclipse.osgi.container.*;
+import org.eclipse.osgi.container.Module.Settings;
+import org.eclipse.osgi.container.ModuleContainerAdaptor.ContainerEvent;
+import org.eclipse.osgi.container.ModuleContainerAdaptor.ModuleEvent;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.wiring.*;
+
+/**
+ * A container adaptor which keeps its module database in memory only.  Modules
+ * have no bundle objects and cannot be started.  The adaptor is only intended for
+ * resolving the modules of a benchmark.
+ */
+final class BenchmarkContainerAdaptor extends ModuleContainerAdaptor {
+	static final class BenchmarkModule extends Module {
+		BenchmarkModule(Long id, String location, ModuleContainer container, EnumSet<Settings> settings, int startlevel) {
+			super(id, location, container, settings, startlevel);
+		}
+
+		@Override
+		public Bundle getBundle() {
+			return null;
+		}
+
+		@Override
+		protected void cleanup(ModuleRevision revision) {
+			// nothing to clean up
+		}
+	}
+
+	static final class BenchmarkSystemModule extends SystemModule {
+		BenchmarkSystemModule(ModuleContainer container) {
+			super(container);
+		}
+
+		@Override
+		public Bundle getBundle() {
+			return null;
+		}
+
+		@Override
+		protected void cleanup(ModuleRevision revision) {
+			// nothing to clean up
+		}
+	}
+
+	private static final ModuleCollisionHook COLLISION_HOOK = new ModuleCollisionHook() {
+		public void filterCollisions(int operationType, Module target, Collection<Module> collisionCandidates) {
+			// allow all collisions
+		}
+	};
+
+	private static final ResolverHookFactory RESOLVER_HOOK_FACTORY = new ResolverHookFactory() {
+		public ResolverHook begin(Collection<BundleRevision> triggers) {
+			return new ResolverHook() {
+				public void filterResolvable(Collection<BundleRevision> candidates) {
+					// all candidates are resolvable
+				}
+
+				public void filterSingletonCollisions(BundleCapability singleton, Collection<BundleCapability> collisionCandidates) {
+					// all collisions apply
+				}
+
+				public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+					// all candidates match
+				}
+
+				public void end() {
+					// nothing to clean up
+				}
+			};
+		}
+	};
+
+	private final Map<String, String> properties;
+	private final ResolverStatistics statistics;
+	private final ModuleDatabase moduleDatabase;
+	private final ModuleContainer container;
+
+	/**
+	 * Creates a new adaptor with an empty container.
+	 * @param properties the configuration properties of the container
+	 * @param statistics the statistics to record the resolve processes of the container in
+	 */
+	BenchmarkContainerAdaptor(Map<String, String> properties, ResolverStatistics statistics) {
+		this.properties = properties;
+		this.statistics = statistics;
+		this.moduleDatabase = new ModuleDatabase(this);
+		this.container = new ModuleContainer(this, moduleDatabase);
+	}
+
+	ModuleContainer getContainer() {
+		return container;
+	}
+
+	@Override
+	public ModuleCollisionHook getModuleCollisionHook() {
+		return COLLISION_HOOK;
+	}
+
+	@Override
+	public ResolverHookFactory getResolverHookFactory() {
+		return RESOLVER_HOOK_FACTORY;
+	}
+
+	@Override
+	public void publishContainerEvent(ContainerEvent type, Module module, Throwable error, FrameworkListener... listeners) {
+		if (error != null) {
+			error.printStackTrace();
+		}
+	}
+
+	@Override
+	public void publishModuleEvent(ModuleEvent type, Module module, Module origin) {
+		// no listeners
+	}
+
+	@Override
+	public String getProperty(String key) {
+		return properties.get(key);
+	}
+
+	@Override
+	public void resolveProcessCompleted(int unresolved, int resolved, int permutations) {
+		statistics.record(resolved, permutations);
+	}
+
+	@Override
+	public Module createModule(String location, long id, EnumSet<Settings> settings, int startlevel) {
+		return new BenchmarkModule(id, location, container, settings, startlevel);
+	}
+
+	@Override
+	public SystemModule createSystemModule() {
+		return new BenchmarkSystemModule(container);
+	}
+}
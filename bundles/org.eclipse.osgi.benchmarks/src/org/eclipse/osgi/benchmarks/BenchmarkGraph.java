@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.benchmarks;
+
+import java.util.*;
+import org.eclipse.osgi.container.*;
+import org.eclipse.osgi.report.resolution.ResolutionReport;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * The modules of a benchmark.  The first module is the system module.  A graph
+ * can be installed into any number of containers.
+ */
+final class BenchmarkGraph {
+	private final List<String> locations = new ArrayList<String>();
+	private final List<ModuleRevisionBuilder> builders = new ArrayList<ModuleRevisionBuilder>();
+
+	/**
+	 * Adds a module to the graph.  The system module must be added first using
+	 * the {@link Constants#SYSTEM_BUNDLE_LOCATION system bundle location}.
+	 * @param location the location of the module
+	 * @param builder the builder of the module revision
+	 */
+	void add(String location, ModuleRevisionBuilder builder) {
+		if (locations.isEmpty() != Constants.SYSTEM_BUNDLE_LOCATION.equals(location)) {
+			throw new IllegalArgumentException("The system module must be added first: " + location); //$NON-NLS-1$
+		}
+		locations.add(location);
+		builders.add(builder);
+	}
+
+	/**
+	 * Returns the number of modules in the graph, including the system module.
+	 * @return the number of modules
+	 */
+	int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Installs the modules of this graph into the specified empty container.  The
+	 * system module is resolved; all other modules are left unresolved.
+	 * @param container the container to install the modules into
+	 * @throws BundleException if a module could not be installed or the system module
+	 * could not be resolved
+	 */
+	void install(ModuleContainer container) throws BundleException {
+		if (locations.isEmpty()) {
+			throw new IllegalStateException("The graph has no system module."); //$NON-NLS-1$
+		}
+		Module systemModule = container.install(null, locations.get(0), builders.get(0), null);
+		ResolutionReport report = container.resolve(Collections.singleton(systemModule), true);
+		if (report.getResolutionException() != null) {
+			throw new BundleException("Unable to resolve the system module.", BundleException.RESOLVE_ERROR, report.getResolutionException()); //$NON-NLS-1$
+		}
+		for (int i = 1; i < locations.size(); i++) {
+			container.install(null, locations.get(i), builders.get(i), null);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.*;
+import org.eclipse.osgi.container.*;
+import org.eclipse.osgi.launch.EquinoxFactory;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Replays the modules persisted in the <code>framework.info</code> of a configuration
+ * area.  The configuration area is opened read-only by a framework which is only
+ * initialized, so no bundle is started and the configuration area is not modified.
+ * The current revisions of the installed modules are copied into a graph which can
+ * be resolved by a benchmark container.
+ */
+final class FrameworkInfoReplay {
+	private static final String PROP_CONFIG_AREA = "osgi.configuration.area"; //$NON-NLS-1$
+	private static final String PROP_CONFIG_AREA_READONLY = PROP_CONFIG_AREA + ".readOnly"; //$NON-NLS-1$
+	private static final String PROP_USE_SYSTEM_PROPERTIES = "osgi.framework.useSystemProperties"; //$NON-NLS-1$
+	private static final String FRAMEWORK_AREA = "org.eclipse.osgi"; //$NON-NLS-1$
+	private static final String FRAMEWORK_INFO = "framework.info"; //$NON-NLS-1$
+
+	private FrameworkInfoReplay() {
+		// no instances
+	}
+
+	/**
+	 * Loads the modules persisted in the specified configuration area.
+	 * @param configurationArea the configuration area which contains <code>org.eclipse.osgi/framework.info</code>
+	 * @return the graph of the persisted modules
+	 * @throws FileNotFoundException if the configuration area has no framework.info.  The
+	 * framework.info is versioned by the storage manager, e.g. <code>framework.info.1</code>
+	 * @throws BundleException if the framework could not be initialized
+	 * @throws InterruptedException if interrupted while waiting for the framework to stop
+	 */
+	static BenchmarkGraph load(File configurationArea) throws FileNotFoundException, BundleException, InterruptedException {
+		File frameworkArea = new File(configurationArea, FRAMEWORK_AREA);
+		String[] names = frameworkArea.list();
+		boolean found = false;
+		for (int i = 0; names != null && i < names.length && !found; i++) {
+			found = names[i].startsWith(FRAMEWORK_INFO);
+		}
+		if (!found) {
+			throw new FileNotFoundException(new File(frameworkArea, FRAMEWORK_INFO).getPath());
+		}
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(PROP_CONFIG_AREA, configurationArea.getAbsolutePath());
+		configuration.put(PROP_CONFIG_AREA_READONLY, Boolean.TRUE.toString());
+		configuration.put(PROP_USE_SYSTEM_PROPERTIES, Boolean.FALSE.toString());
+		Framework framework = new EquinoxFactory().newFramework(configuration);
+		framework.init();
+		try {
+			BenchmarkGraph graph = new BenchmarkGraph();
+			Module systemModule = framework.adapt(Module.class);
+			List<Module> modules = systemModule.getContainer().getModules();
+			for (Module module : modules) {
+				ModuleRevision revision = module.getCurrentRevision();
+				if (revision != null) {
+					graph.add(module.getLocation(), getBuilder(revision));
+				}
+			}
+			return graph;
+		} finally {
+			framework.stop();
+			framework.waitForStop(10000);
+		}
+	}
+
+	private static ModuleRevisionBuilder getBuilder(ModuleRevision revision) {
+		ModuleRevisionBuilder builder = new ModuleRevisionBuilder();
+		builder.setSymbolicName(revision.getSymbolicName());
+		builder.setVersion(revision.getVersion());
+		builder.setTypes(revision.getTypes());
+		for (ModuleCapability capability : revision.getModuleCapabilities(null)) {
+			builder.addCapability(capability.getNamespace(), new HashMap<String, String>(capability.getDirectives()), new HashMap<String, Object>(capability.getAttributes()));
+		}
+		for (ModuleRequirement requirement : revision.getModuleRequirements(null)) {
+			builder.addRequirement(requirement.getNamespace(), new HashMap<String, String>(requirement.getDirectives()), new HashMap<String, Object>(requirement.getAttributes()));
+		}
+		return builder;
+	}
+}
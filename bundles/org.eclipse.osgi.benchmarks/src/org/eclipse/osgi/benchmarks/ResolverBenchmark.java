@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.*;
+import org.eclipse.osgi.container.ModuleContainer;
+
+/**
+ * Measures the time and memory needed to resolve all the modules of a graph.
+ * The graph is either generated by {@link SyntheticGraph} or replayed from the
+ * <code>framework.info</code> of a configuration area by {@link FrameworkInfoReplay}.
+ * <p>
+ * Each iteration installs the graph into a new in-memory container and then resolves
+ * all the modules with one resolve operation.  For each measured iteration the resolve
+ * latency, the bytes allocated by the resolving thread, the allocation rate and the
+ * number of candidate permutations checked by the resolver are reported.  The
+ * allocated bytes are only reported on VMs which support measuring thread allocations.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp org.eclipse.osgi.jar:org.eclipse.osgi.benchmarks.jar org.eclipse.osgi.benchmarks.ResolverBenchmark [options]
+ *   -bundles &lt;n&gt;        number of generated bundles (1000)
+ *   -fanout &lt;n&gt;         packages imported by each generated bundle (5)
+ *   -uses &lt;p&gt;           probability an import is in the uses directive of the export (0.2)
+ *   -fragments &lt;p&gt;      probability a bundle has a fragment (0.1)
+ *   -singletons &lt;p&gt;     probability a bundle is a singleton installed in two versions (0.05)
+ *   -duplicates &lt;p&gt;     probability a bundle is installed in two versions (0.05)
+ *   -optional &lt;p&gt;       probability an import is optional (0.1)
+ *   -seed &lt;n&gt;           seed of the generated graph (1)
+ *   -replay &lt;dir&gt;       replay the framework.info of a configuration area instead
+ *   -warmup &lt;n&gt;         iterations run before measuring (5)
+ *   -iterations &lt;n&gt;     measured iterations (10)
+ *   -D&lt;key&gt;=&lt;value&gt;    container configuration property, e.g. -Dequinox.resolver.thead.count=1
+ * </pre>
+ * Resolver threads other than the thread calling the resolve operation are not
+ * included in the allocated bytes; use <code>-Dequinox.resolver.thead.count=1</code>
+ * to measure all allocations.
+ */
+public final class ResolverBenchmark {
+	private static final Method GET_THREAD_ALLOCATED_BYTES;
+	static {
+		Method getThreadAllocatedBytes = null;
+		try {
+			Class<?> sunThreadMXBean = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+			if (sunThreadMXBean.isInstance(ManagementFactory.getThreadMXBean())) {
+				getThreadAllocatedBytes = sunThreadMXBean.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+			}
+		} catch (Exception e) {
+			// allocations cannot be measured on this VM
+		}
+		GET_THREAD_ALLOCATED_BYTES = getThreadAllocatedBytes;
+	}
+
+	private static final class Result {
+		final long nanos;
+		final long allocated;
+		final int resolved;
+		final int permutations;
+
+		Result(long nanos, long allocated, int resolved, int permutations) {
+			this.nanos = nanos;
+			this.allocated = allocated;
+			this.resolved = resolved;
+			this.permutations = permutations;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			result.append(formatMillis(nanos)).append(" ms"); //$NON-NLS-1$
+			if (allocated >= 0) {
+				result.append(", ").append(formatMegabytes(allocated)).append(" MB allocated, "); //$NON-NLS-1$ //$NON-NLS-2$
+				result.append(formatMegabytes(allocated * 1000000000L / Math.max(nanos, 1))).append(" MB/s"); //$NON-NLS-1$
+			}
+			result.append(", ").append(resolved).append(" resolved, ").append(permutations).append(" permutations"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return result.toString();
+		}
+	}
+
+	private final BenchmarkGraph graph;
+	private final Map<String, String> properties;
+
+	ResolverBenchmark(BenchmarkGraph graph, Map<String, String> properties) {
+		this.graph = graph;
+		this.properties = properties;
+	}
+
+	/**
+	 * Installs the graph into a new container and resolves it.
+	 * @return the result of the resolve operation
+	 * @throws Exception if the graph could not be installed
+	 */
+	Result run() throws Exception {
+		ResolverStatistics statistics = new ResolverStatistics();
+		BenchmarkContainerAdaptor adaptor = new BenchmarkContainerAdaptor(properties, statistics);
+		ModuleContainer container = adaptor.getContainer();
+		graph.install(container);
+		System.gc();
+		// only the statistics of the measured resolve operation are reported
+		statistics.reset();
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		container.resolve(null, false);
+		long nanos = System.nanoTime() - start;
+		long allocatedAfter = getAllocatedBytes();
+		long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+		return new Result(nanos, allocated, statistics.getResolved(), statistics.getPermutations());
+	}
+
+	private static long getAllocatedBytes() {
+		if (GET_THREAD_ALLOCATED_BYTES == null) {
+			return -1;
+		}
+		try {
+			return ((Long) GET_THREAD_ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(), Long.valueOf(Thread.currentThread().getId()))).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	static String formatMillis(long nanos) {
+		return String.format("%.1f", Double.valueOf(nanos / 1000000.0)); //$NON-NLS-1$
+	}
+
+	static String formatMegabytes(long bytes) {
+		return String.format("%.1f", Double.valueOf(bytes / (1024.0 * 1024.0))); //$NON-NLS-1$
+	}
+
+	public static void main(String[] args) throws Exception {
+		SyntheticGraph synthetic = new SyntheticGraph();
+		File replay = null;
+		int warmup = 5;
+		int iterations = 10;
+		Map<String, String> properties = new HashMap<String, String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.startsWith("-D")) { //$NON-NLS-1$
+					int equals = arg.indexOf('=');
+					if (equals < 0) {
+						throw new IllegalArgumentException(arg);
+					}
+					properties.put(arg.substring(2, equals), arg.substring(equals + 1));
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException(arg);
+				}
+				String value = args[++i];
+				if ("-bundles".equals(arg)) { //$NON-NLS-1$
+					synthetic.bundles = Integer.parseInt(value);
+				} else if ("-fanout".equals(arg)) { //$NON-NLS-1$
+					synthetic.fanOut = Integer.parseInt(value);
+				} else if ("-uses".equals(arg)) { //$NON-NLS-1$
+					synthetic.usesDensity = Double.parseDouble(value);
+				} else if ("-fragments".equals(arg)) { //$NON-NLS-1$
+					synthetic.fragments = Double.parseDouble(value);
+				} else if ("-singletons".equals(arg)) { //$NON-NLS-1$
+					synthetic.singletons = Double.parseDouble(value);
+				} else if ("-duplicates".equals(arg)) { //$NON-NLS-1$
+					synthetic.duplicates = Double.parseDouble(value);
+				} else if ("-optional".equals(arg)) { //$NON-NLS-1$
+					synthetic.optionalImports = Double.parseDouble(value);
+				} else if ("-seed".equals(arg)) { //$NON-NLS-1$
+					synthetic.seed = Long.parseLong(value);
+				} else if ("-replay".equals(arg)) { //$NON-NLS-1$
+					replay = new File(value);
+				} else if ("-warmup".equals(arg)) { //$NON-NLS-1$
+					warmup = Integer.parseInt(value);
+				} else if ("-iterations".equals(arg)) { //$NON-NLS-1$
+					iterations = Integer.parseInt(value);
+				} else {
+					throw new IllegalArgumentException(arg);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("Invalid argument: " + e.getMessage()); //$NON-NLS-1$
+			System.err.println("See the documentation of " + ResolverBenchmark.class.getName() + " for the supported arguments."); //$NON-NLS-1$ //$NON-NLS-2$
+			System.exit(2);
+			return;
+		}
+
+		BenchmarkGraph graph;
+		if (replay != null) {
+			graph = FrameworkInfoReplay.load(replay);
+			System.out.println("Replaying " + replay + ": " + graph.size() + " modules"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} else {
+			graph = synthetic.generate();
+			System.out.println("Generated " + synthetic + ": " + graph.size() + " modules"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		if (!properties.isEmpty()) {
+			System.out.println("Properties: " + properties); //$NON-NLS-1$
+		}
+		if (GET_THREAD_ALLOCATED_BYTES == null) {
+			System.out.println("Thread allocations cannot be measured on this VM."); //$NON-NLS-1$
+		}
+
+		ResolverBenchmark benchmark = new ResolverBenchmark(graph, properties);
+		for (int i = 0; i < warmup; i++) {
+			System.out.println("warmup " + (i + 1) + ": " + benchmark.run()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		List<Result> results = new ArrayList<Result>(iterations);
+		for (int i = 0; i < iterations; i++) {
+			Result result = benchmark.run();
+			results.add(result);
+			System.out.println("iteration " + (i + 1) + ": " + result); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (results.isEmpty()) {
+			return;
+		}
+
+		long[] nanos = new long[results.size()];
+		long totalNanos = 0;
+		long totalAllocated = 0;
+		for (int i = 0; i < nanos.length; i++) {
+			Result result = results.get(i);
+			nanos[i] = result.nanos;
+			totalNanos += result.nanos;
+			totalAllocated += result.allocated;
+		}
+		Arrays.sort(nanos);
+		StringBuilder summary = new StringBuilder("latency ms: "); //$NON-NLS-1$
+		summary.append("min ").append(formatMillis(nanos[0])); //$NON-NLS-1$
+		summary.append(", median ").append(formatMillis(nanos[nanos.length / 2])); //$NON-NLS-1$
+		summary.append(", mean ").append(formatMillis(totalNanos / nanos.length)); //$NON-NLS-1$
+		summary.append(", max ").append(formatMillis(nanos[nanos.length - 1])); //$NON-NLS-1$
+		System.out.println(summary);
+		if (results.get(0).allocated >= 0) {
+			System.out.println("allocation: " + formatMegabytes(totalAllocated / results.size()) + " MB per resolve, " + formatMegabytes(totalAllocated * 1000000000L / Math.max(totalNanos, 1)) + " MB/s"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		System.out.println("resolved: " + results.get(0).resolved + " of " + (graph.size() - 1) + " revisions, permutations: " + results.get(0).permutations); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.benchmarks;
+
+import org.eclipse.osgi.container.ModuleContainerAdaptor;
+
+/**
+ * Collects the statistics of the resolve processes of a container.  The statistics
+ * are reported to the container adaptor by
+ * {@link ModuleContainerAdaptor#resolveProcessCompleted(int, int, int)}.
+ */
+final class ResolverStatistics {
+	private int resolved;
+	private int permutations;
+
+	/**
+	 * Records the statistics of a completed resolve process.
+	 * @param resolvedRevisions the number of revisions resolved by the resolve process
+	 * @param checkedPermutations the number of candidate permutations checked by the resolver
+	 */
+	synchronized void record(int resolvedRevisions, int checkedPermutations) {
+		resolved += resolvedRevisions;
+		permutations += checkedPermutations;
+	}
+
+	/**
+	 * Discards the statistics collected so far.
+	 */
+	synchronized void reset() {
+		resolved = 0;
+		permutations = 0;
+	}
+
+	/**
+	 * Returns the number of revisions resolved since the last reset.
+	 * @return the number of resolved revisions
+	 */
+	synchronized int getResolved() {
+		return resolved;
+	}
+
+	/**
+	 * Returns the number of candidate permutations checked since the last reset.
+	 * @return the number of permutations
+	 */
+	synchronized int getPermutations() {
+		return permutations;
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.benchmarks;
+
+import java.util.*;
+import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Generates a random graph of bundles from bundle manifests.  Each bundle
+ * <code>b&lt;n&gt;</code> exports the package <code>b&lt;n&gt;.api</code> and
+ * imports the API packages of bundles with a lower number, so the graph has no
+ * cycles.  The shape of the graph is controlled by the following settings:
+ * <ul>
+ * <li>bundles - the number of bundles.</li>
+ * <li>fan-out - the number of API packages imported by each bundle.  The first
+ * bundles import fewer packages.</li>
+ * <li>uses density - the probability that an imported package is listed in the
+ * <code>uses</code> directive of the exported package.</li>
+ * <li>fragments - the probability that a bundle has a fragment which exports
+ * and imports another package.</li>
+ * <li>singletons - the probability that a bundle is a singleton which is installed
+ * in two versions.  Only one of the versions can be resolved.</li>
+ * <li>duplicates - the probability that a bundle which is not a singleton is
+ * installed in two versions.  Both versions can be resolved and provide
+ * alternative candidates to the importers of their API package.  Half of the
+ * imports of a duplicated package only accept the lower version, which causes
+ * uses constraint violations the resolver has to repair by checking other
+ * candidate permutations.</li>
+ * <li>optional imports - the probability that an import is optional.  A bundle
+ * with optional imports also optionally imports a package that is never exported.</li>
+ * </ul>
+ * The same seed always generates the same graph.
+ */
+final class SyntheticGraph {
+	private static final String SYSTEM_MANIFEST_VERSION = "3.11.0"; //$NON-NLS-1$
+	private static final String SYSTEM_CAPABILITIES = "osgi.ee;osgi.ee=JavaSE;version:List<Version>=\"1.0,1.1,1.2,1.3,1.4,1.5,1.6\""; //$NON-NLS-1$
+	private static final String API_RANGE = "\"[1.0,3.0)\""; //$NON-NLS-1$
+	private static final String LOWER_API_RANGE = "\"[1.0,2.0)\""; //$NON-NLS-1$
+
+	int bundles = 1000;
+	int fanOut = 5;
+	double usesDensity = 0.2;
+	double fragments = 0.1;
+	double singletons = 0.05;
+	double duplicates = 0.05;
+	double optionalImports = 0.1;
+	long seed = 1;
+
+	/**
+	 * Generates the graph for the current settings.
+	 * @return the generated graph
+	 * @throws BundleException if a generated manifest is invalid
+	 */
+	BenchmarkGraph generate() throws BundleException {
+		if (bundles < 1 || fanOut < 0) {
+			throw new IllegalArgumentException("Invalid bundle count or fan-out: " + bundles + ", " + fanOut); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		Random random = new Random(seed);
+		BenchmarkGraph graph = new BenchmarkGraph();
+		graph.add(Constants.SYSTEM_BUNDLE_LOCATION, OSGiManifestBuilderFactory.createBuilder(getSystemManifest(), null, null, SYSTEM_CAPABILITIES));
+		boolean[] duplicated = new boolean[bundles];
+		for (int i = 0; i < bundles; i++) {
+			String name = "b" + i; //$NON-NLS-1$
+			int numImports = Math.min(fanOut, i);
+			List<String> imported = new ArrayList<String>(numImports);
+			List<Integer> providers = new ArrayList<Integer>(numImports);
+			while (providers.size() < numImports) {
+				int provider = random.nextInt(i);
+				if (!providers.contains(provider)) {
+					providers.add(provider);
+					imported.add("b" + provider + ".api"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+
+			StringBuilder imports = new StringBuilder("org.osgi.framework;version=\"[1.6,2.0)\""); //$NON-NLS-1$
+			boolean hasOptional = false;
+			for (int j = 0; j < numImports; j++) {
+				boolean lower = duplicated[providers.get(j)] && random.nextBoolean();
+				imports.append(',').append(imported.get(j)).append(";version=").append(lower ? LOWER_API_RANGE : API_RANGE); //$NON-NLS-1$
+				if (random.nextDouble() < optionalImports) {
+					imports.append(";resolution:=optional"); //$NON-NLS-1$
+					hasOptional = true;
+				}
+			}
+			if (hasOptional) {
+				imports.append(",missing.").append(name).append(";resolution:=optional"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			StringBuilder uses = new StringBuilder();
+			for (String pkg : imported) {
+				if (random.nextDouble() < usesDensity) {
+					uses.append(uses.length() == 0 ? "" : ",").append(pkg); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+
+			boolean singleton = random.nextDouble() < singletons;
+			boolean duplicate = !singleton && random.nextDouble() < duplicates;
+			duplicated[i] = duplicate;
+			for (int version = 1; version <= (singleton || duplicate ? 2 : 1); version++) {
+				Map<String, String> manifest = new HashMap<String, String>();
+				manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+				manifest.put(Constants.BUNDLE_SYMBOLICNAME, singleton ? name + ";singleton:=true" : name); //$NON-NLS-1$
+				manifest.put(Constants.BUNDLE_VERSION, version + ".0.0"); //$NON-NLS-1$
+				manifest.put(Constants.EXPORT_PACKAGE, name + ".api;version=" + version + ".0.0" + (uses.length() == 0 ? "" : ";uses:=\"" + uses + '"')); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				manifest.put(Constants.IMPORT_PACKAGE, imports.toString());
+				graph.add(getLocation(name, version), OSGiManifestBuilderFactory.createBuilder(manifest));
+			}
+
+			if (random.nextDouble() < fragments) {
+				String fragmentName = name + ".fragment"; //$NON-NLS-1$
+				Map<String, String> manifest = new HashMap<String, String>();
+				manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+				manifest.put(Constants.BUNDLE_SYMBOLICNAME, fragmentName);
+				manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+				manifest.put(Constants.FRAGMENT_HOST, name + ";bundle-version=" + API_RANGE); //$NON-NLS-1$
+				manifest.put(Constants.EXPORT_PACKAGE, fragmentName + ";version=1.0.0;uses:=\"" + name + ".api\""); //$NON-NLS-1$ //$NON-NLS-2$
+				if (!imported.isEmpty()) {
+					manifest.put(Constants.IMPORT_PACKAGE, imported.get(random.nextInt(imported.size())) + ";version=" + API_RANGE); //$NON-NLS-1$
+				}
+				graph.add(getLocation(fragmentName, 1), OSGiManifestBuilderFactory.createBuilder(manifest));
+			}
+		}
+		return graph;
+	}
+
+	private static Map<String, String> getSystemManifest() {
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "org.eclipse.osgi;singleton:=true"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, SYSTEM_MANIFEST_VERSION);
+		manifest.put(Constants.EXPORT_PACKAGE, "org.osgi.framework;version=1.8.0"); //$NON-NLS-1$
+		return manifest;
+	}
+
+	private static String getLocation(String name, int version) {
+		return "synthetic:" + name + '_' + version + ".0.0"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Override
+	public String toString() {
+		return "bundles=" + bundles + " fanOut=" + fanOut + " usesDensity=" + usesDensity + " fragments=" + fragments + " singletons=" + singletons + " duplicates=" + duplicates + " optionalImports=" + optionalImports + " seed=" + seed; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	}
+}
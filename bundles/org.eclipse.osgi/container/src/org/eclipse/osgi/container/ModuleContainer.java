@@ -13,7 +13,7 @@ package org.eclipse.osgi.container;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.eclipse.osgi.container.Module.*;
@@ -32,6 +32,7 @@ import org.eclipse.osgi.report.resolution.ResolutionReport;
 import org.eclipse.osgi.report.resolution.ResolutionReport.Entry;
 import org.eclipse.osgi.service.debug.DebugOptions;
 import org.eclipse.osgi.service.debug.DebugOptionsListener;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 import org.osgi.framework.namespace.*;
@@ -92,6 +93,8 @@ public final class ModuleContainer implements DebugOptionsListener {
 
 	private final boolean autoStartOnResolve;
 
+	private final boolean incrementalRefresh;
+
 	boolean DEBUG_MONITOR_LAZY = false;
 
 	/**
@@ -129,6 +132,7 @@ public final class ModuleContainer implements DebugOptionsListener {
 			autoStartOnResolveProp = Boolean.toString(true);
 		}
 		this.autoStartOnResolve = Boolean.parseBoolean(autoStartOnResolveProp);
+		this.incrementalRefresh = Boolean.parseBoolean(adaptor.getProperty(EquinoxConfiguration.PROP_MODULE_REFRESH_INCREMENTAL));
 	}
 
 	/**
@@ -506,12 +510,15 @@ public final class ModuleContainer implements DebugOptionsListener {
 	 */
 	public ModuleWire resolveDynamic(String dynamicPkgName, ModuleRevision revision) {
 		ModuleWire result;
-		Map<ModuleRevision, ModuleWiring> deltaWiring;
-		Collection<Module> modulesResolved;
+		Map<ModuleRevision, ModuleWiring> deltaWiring = null;
+		Collection<Module> modulesResolved = null;
 		long timestamp;
+		boolean retry;
 		do {
 			result = null;
+			retry = false;
 			Map<ModuleRevision, ModuleWiring> wiringClone = null;
+			boolean usesFree;
 			List<DynamicModuleRequirement> dynamicReqs = null;
 			Collection<ModuleRevision> unresolved = new ArrayList<ModuleRevision>();
 			moduleDatabase.readLock();
@@ -537,12 +544,17 @@ public final class ModuleContainer implements DebugOptionsListener {
 					return null;
 				}
 				timestamp = moduleDatabase.getRevisionsTimestamp();
-				wiringClone = moduleDatabase.getWiringsClone();
-				Collection<Module> allModules = moduleDatabase.getModules();
-				for (Module module : allModules) {
-					ModuleRevision current = module.getCurrentRevision();
-					if (current != null && !wiringClone.containsKey(current))
-						unresolved.add(current);
+				// avoid the snapshot of all wirings if the resolver is not needed
+				wiringClone = getUsesFreeDynamicWirings(dynamicPkgName, wiring, dynamicReqs);
+				usesFree = wiringClone != null;
+				if (!usesFree) {
+					wiringClone = moduleDatabase.getWiringsClone();
+					Collection<Module> allModules = moduleDatabase.getModules();
+					for (Module module : allModules) {
+						ModuleRevision current = module.getCurrentRevision();
+						if (current != null && !wiringClone.containsKey(current))
+							unresolved.add(current);
+					}
 				}
 			} finally {
 				moduleDatabase.readUnlock();
@@ -551,7 +563,12 @@ public final class ModuleContainer implements DebugOptionsListener {
 			deltaWiring = null;
 			boolean foundCandidates = false;
 			for (DynamicModuleRequirement dynamicReq : dynamicReqs) {
-				ModuleResolutionReport report = moduleResolver.resolveDynamicDelta(dynamicReq, unresolved, wiringClone, moduleDatabase);
+				ModuleResolutionReport report = usesFree ? moduleResolver.resolveUsesFreeDynamicDelta(dynamicReq, wiringClone, moduleDatabase) : moduleResolver.resolveDynamicDelta(dynamicReq, unresolved, wiringClone, moduleDatabase);
+				if (report == null) {
+					// the providers changed since they were checked; try again
+					retry = true;
+					break;
+				}
 				Map<Resource, List<Wire>> resolutionResult = report.getResolutionResult();
 				deltaWiring = resolutionResult == null ? Collections.<ModuleRevision, ModuleWiring> emptyMap() : moduleResolver.generateDelta(resolutionResult, wiringClone);
 				if (deltaWiring.get(revision) != null) {
@@ -572,6 +589,9 @@ public final class ModuleContainer implements DebugOptionsListener {
 					foundCandidates |= !isMissingCapability;
 				}
 			}
+			if (retry) {
+				continue;
+			}
 			if (deltaWiring == null || deltaWiring.get(revision) == null) {
 				if (!foundCandidates) {
 					ModuleWiring wiring = revision.getWiring();
@@ -592,11 +612,114 @@ public final class ModuleContainer implements DebugOptionsListener {
 			// Save the result
 			ModuleWiring wiring = deltaWiring.get(revision);
 			result = findExistingDynamicWire(wiring, dynamicPkgName);
-		} while (!applyDelta(deltaWiring, modulesResolved, Collections.<Module> emptyList(), timestamp, false));
+		} while (retry || !applyDelta(deltaWiring, modulesResolved, Collections.<Module> emptyList(), timestamp, false));
 
 		return result;
 	}
 
+	/**
+	 * Returns the wirings needed to resolve the dynamic requirements without running the
+	 * resolver.  This is only possible if all providers of the package are resolved host
+	 * revisions which do not specify uses constraints and the package is not used by any
+	 * package visible to the requiring wiring.  In that case the highest ranked provider
+	 * is always consistent with the class space of the requiring wiring.
+	 * <p>
+	 * Must be called while holding the database read lock.
+	 * @param dynamicPkgName the package name being dynamically imported
+	 * @param wiring the wiring of the requiring revision
+	 * @param dynamicReqs the dynamic requirements for the package
+	 * @return the wirings of the requiring revision and the providers or
+	 * <code>null</code> if the resolver must check uses constraints
+	 */
+	private Map<ModuleRevision, ModuleWiring> getUsesFreeDynamicWirings(String dynamicPkgName, ModuleWiring wiring, List<DynamicModuleRequirement> dynamicReqs) {
+		Map<ModuleRevision, ModuleWiring> result = new HashMap<ModuleRevision, ModuleWiring>();
+		result.put(wiring.getRevision(), wiring);
+		for (DynamicModuleRequirement dynamicReq : dynamicReqs) {
+			for (ModuleCapability provider : moduleDatabase.findCapabilities(dynamicReq)) {
+				ModuleRevision providerRevision = provider.getRevision();
+				if ((providerRevision.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0 || provider.getDirectives().containsKey(Namespace.CAPABILITY_USES_DIRECTIVE)) {
+					return null;
+				}
+				ModuleWiring providerWiring = providerRevision.getWiring();
+				if (providerWiring == null) {
+					// the resolver must decide if the provider can be resolved
+					return null;
+				}
+				result.put(providerRevision, providerWiring);
+			}
+		}
+		return isPackageUsed(dynamicPkgName, wiring) ? null : result;
+	}
+
+	/**
+	 * Returns true if the package may already be part of the class space of the wiring.
+	 * The uses constraints of the packages exported and imported by the wiring are followed
+	 * transitively to the wirings which provide the used packages.  The answer errs on
+	 * the side of true whenever packages are visible through required bundles.
+	 * <p>
+	 * Must be called while holding the database read lock.
+	 */
+	private static boolean isPackageUsed(String packageName, ModuleWiring wiring) {
+		List<ModuleWire> requiredBundles = wiring.getRequiredModuleWires(BundleNamespace.BUNDLE_NAMESPACE);
+		if (requiredBundles == null || !requiredBundles.isEmpty()) {
+			return true;
+		}
+		List<ModuleWiring> pendingWirings = new ArrayList<ModuleWiring>();
+		List<ModuleCapability> pendingCapabilities = new ArrayList<ModuleCapability>();
+		for (ModuleCapability capability : wiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE)) {
+			pendingWirings.add(wiring);
+			pendingCapabilities.add(capability);
+		}
+		for (ModuleWire wire : wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE)) {
+			if (packageName.equals(wire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+				return true;
+			}
+			pendingWirings.add(wire.getProviderWiring());
+			pendingCapabilities.add(wire.getCapability());
+		}
+		Set<ModuleCapability> visited = new HashSet<ModuleCapability>();
+		while (!pendingCapabilities.isEmpty()) {
+			ModuleWiring source = pendingWirings.remove(pendingWirings.size() - 1);
+			ModuleCapability capability = pendingCapabilities.remove(pendingCapabilities.size() - 1);
+			if (!visited.add(capability)) {
+				continue;
+			}
+			String uses = capability.getDirectives().get(Namespace.CAPABILITY_USES_DIRECTIVE);
+			if (uses == null) {
+				continue;
+			}
+			List<ModuleWire> sourceWires = source == null ? null : source.getRequiredModuleWires(null);
+			if (sourceWires == null) {
+				// the source wiring is no longer valid
+				return true;
+			}
+			for (String usedName : ManifestElement.getArrayFromList(uses, ",")) { //$NON-NLS-1$
+				if (packageName.equals(usedName)) {
+					return true;
+				}
+				// follow the used package to the wirings providing it to the source
+				for (ModuleCapability sourceCapability : source.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE)) {
+					if (usedName.equals(sourceCapability.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+						pendingWirings.add(source);
+						pendingCapabilities.add(sourceCapability);
+					}
+				}
+				for (ModuleWire sourceWire : sourceWires) {
+					String namespace = sourceWire.getCapability().getNamespace();
+					if (BundleNamespace.BUNDLE_NAMESPACE.equals(namespace)) {
+						// the used package may come from a required bundle
+						return true;
+					}
+					if (PackageNamespace.PACKAGE_NAMESPACE.equals(namespace) && usedName.equals(sourceWire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+						pendingWirings.add(sourceWire.getProviderWiring());
+						pendingCapabilities.add(sourceWire.getCapability());
+					}
+				}
+			}
+		}
+		return false;
+	}
+
 	private ModuleWire findExistingDynamicWire(ModuleWiring wiring, String dynamicPkgName) {
 		if (wiring == null) {
 			return null;
@@ -708,9 +831,21 @@ public final class ModuleContainer implements DebugOptionsListener {
 		// If there are any triggers re-start them now if requested
 		Set<Module> triggerSet = restartTriggers ? new HashSet<Module>(triggers) : Collections.<Module> emptySet();
 		if (restartTriggers) {
-			for (Module module : triggers) {
-				if (module.getId() != 0 && Module.RESOLVED_SET.contains(module.getState())) {
-					start(module, StartOptions.TRANSIENT_RESUME);
+			if (incrementalRefresh) {
+				// restart the triggers one dependency layer at a time
+				runByStartLevelAndDependencyLayers(new ArrayList<Module>(triggers), false, new ModuleTask() {
+					@Override
+					public void run(Module module) {
+						if (module.getId() != 0 && Module.RESOLVED_SET.contains(module.getState())) {
+							start(module, StartOptions.TRANSIENT_RESUME);
+						}
+					}
+				});
+			} else {
+				for (Module module : triggers) {
+					if (module.getId() != 0 && Module.RESOLVED_SET.contains(module.getState())) {
+						start(module, StartOptions.TRANSIENT_RESUME);
+					}
 				}
 			}
 		}
@@ -749,6 +884,114 @@ public final class ModuleContainer implements DebugOptionsListener {
 		}
 	}
 
+	/**
+	 * A task run for a module by {@link ModuleContainer#runByDependencyLayers(List, boolean, Executor, ModuleTask)}.
+	 */
+	private interface ModuleTask {
+		void run(Module module);
+	}
+
+	/**
+	 * Runs the task for each of the specified modules sorted by start level.
+	 * Each start level is processed separately, in ascending order or in the reverse
+	 * order, with {@link #runByDependencyLayers(List, boolean, Executor, ModuleTask)}
+	 * using the {@link ModuleContainerAdaptor#getStartLevelExecutor() start level executor}.
+	 */
+	private void runByStartLevelAndDependencyLayers(List<Module> sortedModules, boolean reverse, ModuleTask task) {
+		List<List<Module>> startLevels = new ArrayList<List<Module>>();
+		List<Module> current = null;
+		int currentSL = 0;
+		for (Module module : sortedModules) {
+			int moduleSL;
+			try {
+				moduleSL = module.getStartLevel();
+			} catch (IllegalStateException e) {
+				// been uninstalled; keep it with the current start level
+				moduleSL = currentSL;
+			}
+			if (current == null || moduleSL != currentSL) {
+				current = new ArrayList<Module>();
+				startLevels.add(current);
+				currentSL = moduleSL;
+			}
+			current.add(module);
+		}
+		if (reverse) {
+			Collections.reverse(startLevels);
+		}
+		Executor executor = adaptor.getStartLevelExecutor();
+		for (List<Module> modules : startLevels) {
+			runByDependencyLayers(modules, reverse, executor, task);
+		}
+	}
+
+	/**
+	 * Runs the task for each of the specified modules using the executor.
+	 * The modules are partitioned into layers of modules that do not depend on each other.
+	 * The task is run concurrently for all modules of a layer and a layer must
+	 * complete before the next layer is processed.  Layers are processed in dependency
+	 * order or in the reverse order.  A <code>null</code> executor runs the tasks
+	 * on the calling thread.
+	 */
+	private void runByDependencyLayers(List<Module> modules, boolean reverse, Executor executor, final ModuleTask task) {
+		if (modules.isEmpty()) {
+			return;
+		}
+		List<List<Module>> layers = moduleDatabase.getDependencyLayers(modules);
+		if (reverse) {
+			Collections.reverse(layers);
+		}
+		for (List<Module> layer : layers) {
+			if (!reverse && isRefreshingSystemModule()) {
+				return;
+			}
+			final CountDownLatch done = new CountDownLatch(layer.size());
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			for (final Module module : layer) {
+				Runnable runnable = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run(module);
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						} finally {
+							done.countDown();
+						}
+					}
+				};
+				if (executor == null || layer.size() == 1) {
+					runnable.run();
+					continue;
+				}
+				try {
+					executor.execute(runnable);
+				} catch (RejectedExecutionException e) {
+					// the executor is shutting down; run the task on the calling thread
+					runnable.run();
+				}
+			}
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			Throwable t = failure.get();
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+		}
+	}
+
 	private List<DynamicModuleRequirement> getDynamicRequirements(String dynamicPkgName, ModuleRevision revision) {
 		// TODO Will likely need to optimize this
 		if ((revision.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0) {
@@ -783,14 +1026,16 @@ public final class ModuleContainer implements DebugOptionsListener {
 	}
 
 	private Collection<Module> unresolve(Collection<Module> initial) {
+		// the modules stopped before the state change locks are acquired
+		Set<Module> stopped = Collections.newSetFromMap(new ConcurrentHashMap<Module, Boolean>());
 		Collection<Module> refreshTriggers = null;
 		while (refreshTriggers == null) {
-			refreshTriggers = unresolve0(initial);
+			refreshTriggers = unresolve0(initial, stopped);
 		}
 		return refreshTriggers;
 	}
 
-	private Collection<Module> unresolve0(Collection<Module> initial) {
+	private Collection<Module> unresolve0(Collection<Module> initial, final Set<Module> stopped) {
 		Map<ModuleRevision, ModuleWiring> wiringCopy;
 		List<Module> refreshTriggers;
 		Collection<ModuleRevision> toRemoveRevisions;
@@ -842,6 +1087,25 @@ public final class ModuleContainer implements DebugOptionsListener {
 			refreshSystemModule();
 			return Collections.emptyList();
 		}
+		if (incrementalRefresh) {
+			// Stop the active modules one dependency layer at a time before locking them;
+			// a module stopped by another thread is not restarted after the refresh
+			runByStartLevelAndDependencyLayers(refreshTriggers, true, new ModuleTask() {
+				@Override
+				public void run(Module module) {
+					if (Module.ACTIVE_SET.contains(module.getState())) {
+						try {
+							module.stop(StopOptions.TRANSIENT);
+						} catch (BundleException e) {
+							adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+						} catch (IllegalStateException e) {
+							// been uninstalled
+						}
+						stopped.add(module);
+					}
+				}
+			});
+		}
 		Collection<Module> modulesLocked = new ArrayList<Module>(refreshTriggers.size());
 		Collection<Module> modulesUnresolved = new ArrayList<Module>();
 		try {
@@ -875,7 +1139,7 @@ public final class ModuleContainer implements DebugOptionsListener {
 					} catch (BundleException e) {
 						adaptor.publishContainerEvent(ContainerEvent.ERROR, refreshModule, e);
 					}
-				} else {
+				} else if (!stopped.contains(refreshModule)) {
 					iTriggers.remove();
 				}
 			}
@@ -982,6 +1246,9 @@ public final class ModuleContainer implements DebugOptionsListener {
 	 */
 	public ResolutionReport refresh(Collection<Module> initial) {
 		initial = initial == null ? null : new ArrayList<Module>(initial);
+		if (incrementalRefresh && initial != null) {
+			removeUnchanged(initial);
+		}
 		Collection<Module> refreshTriggers = unresolve(initial);
 		if (!isRefreshingSystemModule()) {
 			return resolve(refreshTriggers, false, true);
@@ -989,6 +1256,143 @@ public final class ModuleContainer implements DebugOptionsListener {
 		return new ModuleResolutionReport(null, null, null);
 	}
 
+	/**
+	 * Replaces the modules to refresh with the modules of their refresh closure which
+	 * would not get the same wiring if they were refreshed.  A module is unchanged if it
+	 * has a single revision, if resolving the refresh closure gives its revision the same
+	 * required wires and attached fragments it currently has, and if it is not part of
+	 * the refresh closure of the changed modules.  Dynamic wires are ignored since they
+	 * are kept by the current wiring.
+	 * @param initial the modules to refresh
+	 */
+	private void removeUnchanged(Collection<Module> initial) {
+		if (moduleResolver.threadResolving()) {
+			return;
+		}
+		Collection<Module> candidates = new ArrayList<Module>();
+		Collection<Module> changed = new ArrayList<Module>();
+		Map<ModuleRevision, ModuleWiring> wiringCopy;
+		Map<ModuleRevision, ModuleWiring> wiringClone;
+		Collection<ModuleRevision> triggerRevisions = new ArrayList<ModuleRevision>();
+		Collection<ModuleRevision> unresolved = new ArrayList<ModuleRevision>();
+		moduleDatabase.readLock();
+		try {
+			wiringCopy = moduleDatabase.getWiringsCopy();
+			Set<Module> refreshClosure = getRefreshClosure(initial, wiringCopy);
+			for (Module module : refreshClosure) {
+				ModuleRevisions revisions = module.getRevisions();
+				if (module.getId() != 0 && !revisions.isUninstalled() && revisions.getModuleRevisions().size() == 1 && wiringCopy.containsKey(module.getCurrentRevision())) {
+					candidates.add(module);
+				} else {
+					changed.add(module);
+				}
+			}
+			if (candidates.isEmpty()) {
+				return;
+			}
+			// unresolve the refresh closure in a clone of the wirings
+			wiringClone = moduleDatabase.getWiringsClone();
+			for (Module module : refreshClosure) {
+				for (ModuleRevision revision : module.getRevisions().getModuleRevisions()) {
+					ModuleWiring removed = wiringClone.remove(revision);
+					if (removed != null) {
+						for (ModuleWire wire : removed.getRequiredModuleWires(null)) {
+							ModuleWiring providerWiring = wiringClone.get(wire.getProvider());
+							if (providerWiring != null) {
+								List<ModuleWire> provided = providerWiring.getProvidedModuleWires(null);
+								provided.remove(wire);
+								providerWiring.setProvidedWires(provided);
+							}
+						}
+					}
+				}
+				if (!State.UNINSTALLED.equals(module.getState())) {
+					triggerRevisions.add(module.getCurrentRevision());
+				}
+			}
+			for (Module module : moduleDatabase.getModules()) {
+				ModuleRevision revision = module.getCurrentRevision();
+				if (revision != null && !wiringClone.containsKey(revision))
+					unresolved.add(revision);
+			}
+		} finally {
+			moduleDatabase.readUnlock();
+		}
+
+		Map<Resource, List<Wire>> result = moduleResolver.resolveDelta(triggerRevisions, false, unresolved, wiringClone, moduleDatabase).getResolutionResult();
+		if (result == null) {
+			return;
+		}
+		Set<Module> unchanged = new HashSet<Module>();
+		for (Module candidate : candidates) {
+			ModuleRevision revision = candidate.getCurrentRevision();
+			if (isSameWiring(revision, wiringCopy.get(revision), result)) {
+				unchanged.add(candidate);
+			} else {
+				changed.add(candidate);
+			}
+		}
+		if (unchanged.isEmpty()) {
+			return;
+		}
+		// a module depending on a changed module must be refreshed
+		moduleDatabase.readLock();
+		try {
+			boolean done;
+			do {
+				done = true;
+				Set<Module> refreshClosure = getRefreshClosure(changed, wiringCopy);
+				for (Iterator<Module> iUnchanged = unchanged.iterator(); iUnchanged.hasNext();) {
+					Module module = iUnchanged.next();
+					if (refreshClosure.contains(module)) {
+						iUnchanged.remove();
+						changed.add(module);
+						done = false;
+					}
+				}
+			} while (!done);
+		} finally {
+			moduleDatabase.readUnlock();
+		}
+		initial.clear();
+		initial.addAll(changed);
+	}
+
+	private static boolean isSameWiring(ModuleRevision revision, ModuleWiring current, Map<Resource, List<Wire>> result) {
+		List<Wire> required = result.get(revision);
+		if (current == null || required == null) {
+			return false;
+		}
+		Set<List<Object>> currentWires = new HashSet<List<Object>>();
+		for (ModuleWire wire : current.getRequiredModuleWires(null)) {
+			ModuleRequirement req = wire.getRequirement();
+			if (PackageNamespace.PACKAGE_NAMESPACE.equals(req.getNamespace()) && PackageNamespace.RESOLUTION_DYNAMIC.equals(req.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE))) {
+				continue;
+			}
+			currentWires.add(Arrays.<Object> asList(wire.getCapability(), wire.getProvider(), req, wire.getRequirer()));
+		}
+		Set<List<Object>> resultWires = new HashSet<List<Object>>();
+		for (Wire wire : required) {
+			resultWires.add(Arrays.<Object> asList(wire.getCapability(), wire.getProvider(), wire.getRequirement(), wire.getRequirer()));
+		}
+		if (!currentWires.equals(resultWires)) {
+			return false;
+		}
+		Set<Resource> currentFragments = new HashSet<Resource>();
+		for (ModuleWire hostWire : current.getProvidedModuleWires(HostNamespace.HOST_NAMESPACE)) {
+			currentFragments.add(hostWire.getRequirer());
+		}
+		Set<Resource> resultFragments = new HashSet<Resource>();
+		for (List<Wire> wires : result.values()) {
+			for (Wire wire : wires) {
+				if (wire.getProvider() == revision && HostNamespace.HOST_NAMESPACE.equals(wire.getRequirement().getNamespace())) {
+					resultFragments.add(wire.getRequirer());
+				}
+			}
+		}
+		return currentFragments.equals(resultFragments);
+	}
+
 	/**
 	 * Returns the dependency closure of for the specified modules.
 	 * @param initial The initial modules for which to generate the dependency closure
@@ -1601,6 +2005,11 @@ public final class ModuleContainer implements DebugOptionsListener {
 		}
 
 		private void incStartLevel(int toStartLevel, List<Module> sortedModules, boolean lazyOnly) {
+			Executor executor = adaptor.getStartLevelExecutor();
+			if (executor != null) {
+				incStartLevel(toStartLevel, sortedModules, lazyOnly, executor);
+				return;
+			}
 			for (Module module : sortedModules) {
 				if (isRefreshingSystemModule()) {
 					return;
@@ -1613,17 +2022,7 @@ public final class ModuleContainer implements DebugOptionsListener {
 					} else if (moduleStartLevel == toStartLevel) {
 						boolean isLazyStart = module.isLazyActivate();
 						if (lazyOnly ? isLazyStart : !isLazyStart) {
-							if (debugStartLevel) {
-								Debug.println("StartLevel: resuming bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
-							}
-							try {
-								module.start(StartOptions.TRANSIENT_IF_AUTO_START, StartOptions.TRANSIENT_RESUME);
-							} catch (BundleException e) {
-								adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
-							} catch (IllegalStateException e) {
-								// been uninstalled
-								continue;
-							}
+							resumeModule(module, moduleStartLevel);
 						}
 					} else {
 						// can stop resuming since any remaining modules have a greater startlevel than the active startlevel
@@ -1636,7 +2035,50 @@ public final class ModuleContainer implements DebugOptionsListener {
 			}
 		}
 
+		private void incStartLevel(int toStartLevel, List<Module> sortedModules, boolean lazyOnly, Executor executor) {
+			List<Module> toStart = new ArrayList<Module>();
+			for (Module module : sortedModules) {
+				try {
+					int moduleStartLevel = module.getStartLevel();
+					if (moduleStartLevel < toStartLevel) {
+						// skip modules who should have already been started
+						continue;
+					} else if (moduleStartLevel == toStartLevel) {
+						boolean isLazyStart = module.isLazyActivate();
+						if (lazyOnly ? isLazyStart : !isLazyStart) {
+							toStart.add(module);
+						}
+					} else {
+						// can stop collecting since any remaining modules have a greater startlevel than the active startlevel
+						break;
+					}
+				} catch (IllegalStateException e) {
+					// been uninstalled
+					continue;
+				}
+			}
+			runByDependencyLayers(toStart, toStartLevel, true, executor);
+		}
+
+		private void resumeModule(Module module, int moduleStartLevel) {
+			if (debugStartLevel) {
+				Debug.println("StartLevel: resuming bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			try {
+				module.start(StartOptions.TRANSIENT_IF_AUTO_START, StartOptions.TRANSIENT_RESUME);
+			} catch (BundleException e) {
+				adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+			} catch (IllegalStateException e) {
+				// been uninstalled
+			}
+		}
+
 		private void decStartLevel(int toStartLevel, List<Module> sortedModules) {
+			Executor executor = adaptor.getStartLevelExecutor();
+			if (executor != null) {
+				decStartLevel(toStartLevel, sortedModules, executor);
+				return;
+			}
 			ListIterator<Module> iModules = sortedModules.listIterator(sortedModules.size());
 			while (iModules.hasPrevious()) {
 				Module module = iModules.previous();
@@ -1649,25 +2091,71 @@ public final class ModuleContainer implements DebugOptionsListener {
 						// stopped all modules we are going to for this start level
 						break;
 					}
-					try {
-						if (Module.ACTIVE_SET.contains(module.getState())) {
-							if (debugStartLevel) {
-								Debug.println("StartLevel: stopping bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
-							}
-							// Note that we don't need to hold the state change lock
-							// here when checking the active status because no other
-							// thread will successfully be able to start this bundle
-							// since the start-level is no longer met.
-							module.stop(StopOptions.TRANSIENT);
-						}
-					} catch (BundleException e) {
-						adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+					suspendModule(module, moduleStartLevel);
+				} catch (IllegalStateException e) {
+					// been uninstalled
+					continue;
+				}
+			}
+		}
+
+		private void decStartLevel(int toStartLevel, List<Module> sortedModules, Executor executor) {
+			List<Module> toStop = new ArrayList<Module>();
+			ListIterator<Module> iModules = sortedModules.listIterator(sortedModules.size());
+			while (iModules.hasPrevious()) {
+				Module module = iModules.previous();
+				try {
+					int moduleStartLevel = module.getStartLevel();
+					if (moduleStartLevel > toStartLevel + 1) {
+						// skip modules who should have already been stopped
+						continue;
+					} else if (moduleStartLevel <= toStartLevel) {
+						// collected all modules we are going to stop for this start level
+						break;
 					}
+					toStop.add(module);
 				} catch (IllegalStateException e) {
 					// been uninstalled
 					continue;
 				}
 			}
+			runByDependencyLayers(toStop, toStartLevel + 1, false, executor);
+		}
+
+		private void suspendModule(Module module, int moduleStartLevel) {
+			try {
+				if (Module.ACTIVE_SET.contains(module.getState())) {
+					if (debugStartLevel) {
+						Debug.println("StartLevel: stopping bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					// Note that we don't need to hold the state change lock
+					// here when checking the active status because no other
+					// thread will successfully be able to start this bundle
+					// since the start-level is no longer met.
+					module.stop(StopOptions.TRANSIENT);
+				}
+			} catch (BundleException e) {
+				adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+			} catch (IllegalStateException e) {
+				// been uninstalled
+			}
+		}
+
+		/**
+		 * Starts or stops the specified modules of a single start level using the executor.
+		 * Modules are started in dependency order and stopped in the reverse order.
+		 */
+		private void runByDependencyLayers(List<Module> modules, final int moduleStartLevel, final boolean start, Executor executor) {
+			ModuleContainer.this.runByDependencyLayers(modules, !start, executor, new ModuleTask() {
+				@Override
+				public void run(Module module) {
+					if (start) {
+						resumeModule(module, moduleStartLevel);
+					} else {
+						suspendModule(module, moduleStartLevel);
+					}
+				}
+			});
 		}
 
 		private EventManager getManager() {
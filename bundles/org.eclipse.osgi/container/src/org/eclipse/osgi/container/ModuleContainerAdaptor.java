@@ -294,4 +294,51 @@ public abstract class ModuleContainerAdaptor {
 			}
 		};
 	}
+
+	/**
+	 * Returns a description of the current configuration of the {@link #getResolverHookFactory()
+	 * resolver hook factory}.  The results of resolve operations are only reused from the
+	 * resolution cache of the module database while the configuration is unchanged, in which
+	 * case the resolver hooks are not called.  Two configurations with the same description
+	 * must filter the resolvable revisions, singletons and matches in the same way.
+	 * A <code>null</code> value indicates that the configuration cannot be described and
+	 * that resolve operations must not be reused from the resolution cache.
+	 * @return a description of the resolver hook configuration, or <code>null</code> if
+	 * the configuration cannot be described
+	 * @since 3.11
+	 */
+	public String getResolverHookConfiguration() {
+		// by default the behavior of the resolver hooks is unknown
+		return null;
+	}
+
+	/**
+	 * Returns the executor used to start and stop modules when the active start level
+	 * is changed.  Modules of a start level which do not depend on each other
+	 * are started and stopped concurrently using the executor.  A <code>null</code>
+	 * value indicates that modules are started and stopped one at a time on the
+	 * start level thread.
+	 * @return the executor used to start and stop modules for start level changes,
+	 * or <code>null</code> if modules are started and stopped sequentially
+	 * @since 3.11
+	 */
+	public Executor getStartLevelExecutor() {
+		// by default modules are started and stopped sequentially
+		return null;
+	}
+
+	/**
+	 * This is called when the resolver of the module container has completed a resolve
+	 * process.  A resolve operation uses one resolve process unless the module database
+	 * is modified while resolving, in which case the resolve process is repeated.
+	 * Resolve operations which reuse a result from the resolution cache do not
+	 * use the resolver and are not reported.
+	 * @param unresolved the number of unresolved revisions the resolve process attempted to resolve
+	 * @param resolved the number of revisions resolved by the resolve process
+	 * @param permutations the number of candidate permutations checked by the resolver
+	 * @since 3.11
+	 */
+	public void resolveProcessCompleted(int unresolved, int resolved, int permutations) {
+		// do nothing by default
+	}
 }
@@ -114,6 +114,25 @@ public class ModuleDatabase {
 	 */
 	private int initialModuleStartLevel = 1;
 
+	/**
+	 * The ids of modules with settings or start level changes which have not been
+	 * {@link #store(DataOutputStream, boolean) stored} or {@link #storeJournal(DataOutputStream) journaled}.
+	 */
+	/* @GuardedBy("journalModules") */
+	private final Set<Long> journalModules = new LinkedHashSet<Long>();
+
+	/**
+	 * Indicates that revisions or wirings changed since this database was last stored
+	 * and therefore the changes cannot be journaled.
+	 */
+	/* @GuardedBy("journalModules") */
+	private boolean journalRequiresStore = true;
+
+	/**
+	 * The cache of resolve operations which is stored with this database.
+	 */
+	final ResolutionCache resolutionCache;
+
 	/**
 	 * Monitors read and write access to this database
 	 */
@@ -151,6 +170,16 @@ public class ModuleDatabase {
 		this.allTimeStamp = new AtomicLong(constructionTime);
 		this.moduleSettings = new HashMap<Long, EnumSet<Settings>>();
 		this.capabilities = new Capabilities();
+		int resolutionCacheSize = 0;
+		String resolutionCacheSizeProp = adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_CACHE_SIZE);
+		if (resolutionCacheSizeProp != null) {
+			try {
+				resolutionCacheSize = Integer.parseInt(resolutionCacheSizeProp);
+			} catch (NumberFormatException e) {
+				// will default to no cache
+			}
+		}
+		this.resolutionCache = new ResolutionCache(resolutionCacheSize);
 	}
 
 	/**
@@ -592,23 +621,8 @@ public class ModuleDatabase {
 		// Build references so we can sort
 		List<Module[]> references = new ArrayList<Module[]>(toSort.size());
 		for (Module module : toSort) {
-			ModuleRevision current = module.getCurrentRevision();
-			if (current == null) {
-				continue;
-			}
-			ModuleWiring wiring = current.getWiring();
-			if (wiring == null) {
-				continue;
-			}
-			// No null check; we are holding the database lock here.
-			for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
-				ModuleRequirement req = wire.getRequirement();
-				// Add all requirements that are not package requirements.
-				// Only add package requirements that are not dynamic
-				// TODO may want to consider only adding package, bundle and host requirements, other generic requirement are not that interesting
-				if (!PackageNamespace.PACKAGE_NAMESPACE.equals(req.getNamespace()) || !PackageNamespace.RESOLUTION_DYNAMIC.equals(req.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE))) {
-					references.add(new Module[] {wire.getRequirer().getRevisions().getModule(), wire.getProvider().getRevisions().getModule()});
-				}
+			for (Module provider : getDependencies(module)) {
+				references.add(new Module[] {module, provider});
 			}
 		}
 
@@ -634,6 +648,76 @@ public class ModuleDatabase {
 		return moduleCycles;
 	}
 
+	/**
+	 * Returns the modules the specified module depends on according to its current wiring.
+	 * Dynamic package imports are not considered dependencies.
+	 * <p>
+	 * Must be called while holding the {@link #readLock() read} lock.
+	 * @param module the module to get the dependencies for
+	 * @return the modules the specified module depends on
+	 */
+	private static List<Module> getDependencies(Module module) {
+		ModuleRevision current = module.getCurrentRevision();
+		if (current == null) {
+			return Collections.emptyList();
+		}
+		ModuleWiring wiring = current.getWiring();
+		if (wiring == null) {
+			return Collections.emptyList();
+		}
+		List<Module> dependencies = new ArrayList<Module>();
+		// No null check; we are holding the database lock here.
+		for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+			ModuleRequirement req = wire.getRequirement();
+			// Add all requirements that are not package requirements.
+			// Only add package requirements that are not dynamic
+			// TODO may want to consider only adding package, bundle and host requirements, other generic requirement are not that interesting
+			if (!PackageNamespace.PACKAGE_NAMESPACE.equals(req.getNamespace()) || !PackageNamespace.RESOLUTION_DYNAMIC.equals(req.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE))) {
+				dependencies.add(wire.getProvider().getRevisions().getModule());
+			}
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Partitions the specified modules into layers ordered by dependency.
+	 * The modules of a layer do not depend on each other and only depend
+	 * on modules of previous layers.  Modules which are part of a dependency cycle
+	 * are placed in layers according to the order computed for the cycle.
+	 * <p>
+	 * A read operation protected by the {@link #readLock() read} lock.
+	 * @param modules the modules to partition
+	 * @return the dependency layers of the modules
+	 */
+	final List<List<Module>> getDependencyLayers(List<Module> modules) {
+		readLock();
+		try {
+			List<Module> sorted = new ArrayList<Module>(modules);
+			sortByDependencies(sorted);
+			Map<Module, Integer> layerIndexes = new HashMap<Module, Integer>();
+			List<List<Module>> layers = new ArrayList<List<Module>>();
+			for (Module module : sorted) {
+				int layerIndex = 0;
+				for (Module provider : getDependencies(module)) {
+					// providers which are not in the layers yet are either not part
+					// of the modules to partition or are ordered later in a cycle
+					Integer providerIndex = provider == module ? null : layerIndexes.get(provider);
+					if (providerIndex != null) {
+						layerIndex = Math.max(layerIndex, providerIndex.intValue() + 1);
+					}
+				}
+				layerIndexes.put(module, Integer.valueOf(layerIndex));
+				if (layerIndex == layers.size()) {
+					layers.add(new ArrayList<Module>());
+				}
+				layers.get(layerIndex).add(module);
+			}
+			return layers;
+		} finally {
+			readUnlock();
+		}
+	}
+
 	/**
 	 * Increments by one the next module ID
 	 */
@@ -687,6 +771,20 @@ public class ModuleDatabase {
 		}
 	}
 
+	/**
+	 * Returns the current timestamp for the revisions of this database without
+	 * acquiring the {@link #readLock() read} lock.  The timestamp is incremented
+	 * after a modification is made while holding the {@link #writeLock() write} lock,
+	 * so a timestamp read during a modification is the timestamp from before the
+	 * modification.
+	 * @return the current timestamp for the revisions of this database.
+	 * @see #getRevisionsTimestamp()
+	 * @since 3.11
+	 */
+	final public long getRevisionsTimestampUnlocked() {
+		return revisionsTimeStamp.get();
+	}
+
 	/**
 	 * Returns the current timestamp for  this database.
 	 * The timestamp is incremented any time a modification
@@ -720,11 +818,33 @@ public class ModuleDatabase {
 		checkWrite();
 		if (incrementRevision) {
 			revisionsTimeStamp.incrementAndGet();
+			synchronized (journalModules) {
+				journalRequiresStore = true;
+			}
 		}
 		allTimeStamp.incrementAndGet();
 		adaptor.updatedDatabase();
 	}
 
+	/**
+	 * Records that results were added to the resolution cache without changing
+	 * the revisions or wirings, so that the cache is included the next time this
+	 * database is stored.
+	 * <p>
+	 * A write operation protected by the {@link #writeLock() write} lock.
+	 */
+	final void resolutionCacheChanged() {
+		writeLock();
+		try {
+			synchronized (journalModules) {
+				journalRequiresStore = true;
+			}
+			incrementTimestamps(false);
+		} finally {
+			writeUnlock();
+		}
+	}
+
 	private void setSystemLastModified(long currentTime) {
 		// sanity check
 		checkWrite();
@@ -848,7 +968,45 @@ public class ModuleDatabase {
 	public final void store(DataOutputStream out, boolean persistWirings) throws IOException {
 		readLock();
 		try {
-			Persistence.store(this, out, persistWirings);
+			synchronized (journalModules) {
+				Persistence.store(this, out, persistWirings);
+				journalModules.clear();
+				journalRequiresStore = false;
+			}
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Writes the changes to the module settings, the module start levels and the initial module
+	 * start level made since this database was last stored or journaled to the data output
+	 * stream.  The changes are written as a block which may be appended to a journal
+	 * of previously written blocks.  The journal can be replayed on top of the data written by
+	 * the last {@link #store(DataOutputStream, boolean) store} with {@link #load(DataInputStream, DataInputStream)}.
+	 * <p>
+	 * Changes to revisions or wirings cannot be journaled.  If such changes were made since
+	 * this database was last stored then nothing is written and <code>false</code> is returned.
+	 * In that case this database must be stored instead.
+	 * <p>
+	 * A read operation protected by the {@link #readLock() read} lock.
+	 * The output stream remains open after this method returns.
+	 * @param out the data output steam.
+	 * @return true if the changes were written; false if this database must be stored instead.
+	 * @throws IOException if writing to the specified output stream throws an IOException
+	 * @since 3.11
+	 */
+	public final boolean storeJournal(DataOutputStream out) throws IOException {
+		readLock();
+		try {
+			synchronized (journalModules) {
+				if (journalRequiresStore) {
+					return false;
+				}
+				Persistence.storeJournal(this, journalModules, out);
+				journalModules.clear();
+				return true;
+			}
 		} finally {
 			readUnlock();
 		}
@@ -870,11 +1028,38 @@ public class ModuleDatabase {
 	 * @throws IllegalStateException if this database is not empty.
 	 */
 	public final void load(DataInputStream in) throws IOException {
+		load(in, null);
+	}
+
+	/**
+	 * Loads information into this database from the input data stream and then replays
+	 * the changes of the specified journal.  The journal contains the blocks written
+	 * by {@link #storeJournal(DataOutputStream)}.  Blocks which were written before the stored
+	 * data or which do not apply to the revisions of the stored data are ignored.  An incomplete
+	 * block at the end of the journal is also ignored.
+	 * <p>
+	 * Since this method modifies this database it is considered a write operation.
+	 * This method acquires the {@link #writeLock() write} lock while loading
+	 * the information into this database.
+	 * <p>
+	 * The specified streams remain open after this method returns.
+	 * @param in the data input stream.
+	 * @param journal the journal input stream, may be <code>null</code>.
+	 * @throws IOException if an error occurred when reading from the input stream.
+	 * @throws IllegalStateException if this database is not empty.
+	 * @see #load(DataInputStream)
+	 * @since 3.11
+	 */
+	public final void load(DataInputStream in, DataInputStream journal) throws IOException {
 		writeLock();
 		try {
 			if (allTimeStamp.get() != constructionTime)
 				throw new IllegalStateException("Can only load into a empty database."); //$NON-NLS-1$
-			Persistence.load(this, in);
+			Persistence.load(this, in, journal);
+			synchronized (journalModules) {
+				journalModules.clear();
+				journalRequiresStore = false;
+			}
 		} finally {
 			writeUnlock();
 		}
@@ -886,6 +1071,7 @@ public class ModuleDatabase {
 			EnumSet<Settings> existing = moduleSettings.get(module.getId());
 			if (!settings.equals(existing)) {
 				moduleSettings.put(module.getId(), EnumSet.copyOf(settings));
+				addJournalModule(module);
 				incrementTimestamps(false);
 			}
 		} finally {
@@ -898,6 +1084,7 @@ public class ModuleDatabase {
 		try {
 			module.checkValid();
 			module.storeStartLevel(startlevel);
+			addJournalModule(module);
 			incrementTimestamps(false);
 		} finally {
 			writeUnlock();
@@ -923,8 +1110,15 @@ public class ModuleDatabase {
 		}
 	}
 
+	private void addJournalModule(Module module) {
+		synchronized (journalModules) {
+			journalModules.add(module.getId());
+		}
+	}
+
 	private static class Persistence {
-		private static final int VERSION = 2;
+		private static final int VERSION = 3;
+		private static final byte JOURNAL_VERSION = 1;
 		private static final byte NULL = 0;
 		private static final byte OBJECT = 1;
 		private static final byte INDEX = 2;
@@ -1013,24 +1207,25 @@ public class ModuleDatabase {
 			// only persist wirings if there are no removals pending
 			persistWirings &= removalPendings.isEmpty();
 			out.writeBoolean(persistWirings);
-			if (!persistWirings) {
-				return;
-			}
+			if (persistWirings) {
+				// prime the object table with all the required wires which reference the modules
+				out.writeInt(wirings.size());
+				for (ModuleWiring wiring : wirings.values()) {
+					List<ModuleWire> requiredWires = wiring.getPersistentRequiredWires();
+					out.writeInt(requiredWires.size());
+					for (ModuleWire wire : requiredWires) {
+						writeWire(wire, out, objectTable);
+					}
+				}
 
-			// prime the object table with all the required wires which reference the modules
-			out.writeInt(wirings.size());
-			for (ModuleWiring wiring : wirings.values()) {
-				List<ModuleWire> requiredWires = wiring.getPersistentRequiredWires();
-				out.writeInt(requiredWires.size());
-				for (ModuleWire wire : requiredWires) {
-					writeWire(wire, out, objectTable);
+				// now write all the info about each wiring using only indexes from the objectTable
+				for (ModuleWiring wiring : wirings.values()) {
+					writeWiring(wiring, out, objectTable);
 				}
 			}
 
-			// now write all the info about each wiring using only indexes from the objectTable
-			for (ModuleWiring wiring : wirings.values()) {
-				writeWiring(wiring, out, objectTable);
-			}
+			// the resolution cache is keyed by content and is valid without the wirings
+			moduleDatabase.resolutionCache.store(out);
 
 			out.flush();
 		}
@@ -1097,14 +1292,108 @@ public class ModuleDatabase {
 			}
 		}
 
-		public static void load(ModuleDatabase moduleDatabase, DataInputStream in) throws IOException {
+		static final class JournalEntry {
+			final EnumSet<Settings> settings;
+			final int startlevel;
+
+			JournalEntry(EnumSet<Settings> settings, int startlevel) {
+				this.settings = settings;
+				this.startlevel = startlevel;
+			}
+		}
+
+		static final class Journal {
+			long allTimeStamp;
+			int initialModuleStartLevel;
+			final Map<Long, JournalEntry> entries = new HashMap<Long, JournalEntry>();
+
+			Journal(long allTimeStamp, int initialModuleStartLevel) {
+				this.allTimeStamp = allTimeStamp;
+				this.initialModuleStartLevel = initialModuleStartLevel;
+			}
+		}
+
+		public static void storeJournal(ModuleDatabase moduleDatabase, Collection<Long> moduleIds, DataOutputStream out) throws IOException {
+			out.writeByte(JOURNAL_VERSION);
+			out.writeLong(moduleDatabase.getRevisionsTimestamp());
+			out.writeLong(moduleDatabase.getTimestamp());
+			out.writeInt(moduleDatabase.getInitialModuleStartLevel());
+			List<Module> modules = new ArrayList<Module>(moduleIds.size());
+			for (Long id : moduleIds) {
+				Module module = moduleDatabase.getModule(id);
+				if (module != null) {
+					modules.add(module);
+				}
+			}
+			out.writeInt(modules.size());
+			for (Module module : modules) {
+				out.writeLong(module.getId());
+				EnumSet<Settings> settings = moduleDatabase.moduleSettings.get(module.getId());
+				out.writeInt(settings == null ? 0 : settings.size());
+				if (settings != null) {
+					for (Settings setting : settings) {
+						out.writeUTF(setting.name());
+					}
+				}
+				out.writeInt(module.getStartLevel());
+			}
+			out.flush();
+		}
+
+		private static Journal readJournal(DataInputStream in, long revisionsTimeStamp, long allTimeStamp, int initialModuleStartLevel) throws IOException {
+			Journal journal = new Journal(allTimeStamp, initialModuleStartLevel);
+			while (true) {
+				Map<Long, JournalEntry> blockEntries = new HashMap<Long, JournalEntry>();
+				long blockRevisionsTimeStamp;
+				long blockAllTimeStamp;
+				int blockInitialModuleStartLevel;
+				try {
+					if (in.readByte() != JOURNAL_VERSION) {
+						// unknown content; ignore the rest of the journal
+						break;
+					}
+					blockRevisionsTimeStamp = in.readLong();
+					blockAllTimeStamp = in.readLong();
+					blockInitialModuleStartLevel = in.readInt();
+					int numModules = in.readInt();
+					for (int i = 0; i < numModules; i++) {
+						long id = in.readLong();
+						int numSettings = in.readInt();
+						EnumSet<Settings> settings = numSettings > 0 ? EnumSet.noneOf(Settings.class) : null;
+						for (int j = 0; j < numSettings; j++) {
+							settings.add(Settings.valueOf(in.readUTF()));
+						}
+						blockEntries.put(id, new JournalEntry(settings, in.readInt()));
+					}
+				} catch (EOFException e) {
+					// end of the journal or an incomplete block
+					break;
+				}
+				// only apply blocks written for the stored revisions after the data was stored
+				if (blockRevisionsTimeStamp == revisionsTimeStamp && blockAllTimeStamp > journal.allTimeStamp) {
+					journal.allTimeStamp = blockAllTimeStamp;
+					journal.initialModuleStartLevel = blockInitialModuleStartLevel;
+					journal.entries.putAll(blockEntries);
+				}
+			}
+			return journal;
+		}
+
+		public static void load(ModuleDatabase moduleDatabase, DataInputStream in, DataInputStream journalIn) throws IOException {
 			int version = in.readInt();
 			if (version > VERSION || VERSION / 1000 != version / 1000)
 				throw new IllegalArgumentException("The version of the persistent framework data is not compatible: " + version + " expecting: " + VERSION); //$NON-NLS-1$ //$NON-NLS-2$
 			long revisionsTimeStamp = in.readLong();
 			long allTimeStamp = in.readLong();
 			moduleDatabase.nextId.set(in.readLong());
-			moduleDatabase.setInitialModuleStartLevel(in.readInt());
+			int initialModuleStartLevel = in.readInt();
+			Journal journal = null;
+			if (journalIn != null) {
+				journal = readJournal(journalIn, revisionsTimeStamp, allTimeStamp, initialModuleStartLevel);
+				allTimeStamp = journal.allTimeStamp;
+				initialModuleStartLevel = journal.initialModuleStartLevel;
+			}
+			moduleDatabase.setInitialModuleStartLevel(initialModuleStartLevel);
 
 			Map<Integer, Object> objectTable = new HashMap<Integer, Object>();
 			if (version >= 2) {
@@ -1123,14 +1412,25 @@ public class ModuleDatabase {
 			}
 			int numModules = in.readInt();
 			for (int i = 0; i < numModules; i++) {
-				readModule(moduleDatabase, in, objectTable, version);
+				readModule(moduleDatabase, in, objectTable, version, journal);
+			}
+
+			moduleDatabase.revisionsTimeStamp.set(revisionsTimeStamp);
+			moduleDatabase.allTimeStamp.set(allTimeStamp);
+			if (in.readBoolean()) {
+				readWirings(moduleDatabase, in, objectTable);
+			}
+
+			if (version >= 3) {
+				moduleDatabase.resolutionCache.load(in);
 			}
 
+			// Setting the timestamp at the end since some operations increment it
 			moduleDatabase.revisionsTimeStamp.set(revisionsTimeStamp);
 			moduleDatabase.allTimeStamp.set(allTimeStamp);
-			if (!in.readBoolean())
-				return; // no wires persisted
+		}
 
+		private static void readWirings(ModuleDatabase moduleDatabase, DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
 			int numWirings = in.readInt();
 			// prime the table with all the required wires
 			for (int i = 0; i < numWirings; i++) {
@@ -1153,10 +1453,6 @@ public class ModuleDatabase {
 			for (ModuleWiring wiring : wirings.values()) {
 				wiring.getRevision().getRevisions().getModule().setState(State.RESOLVED);
 			}
-
-			// Setting the timestamp at the end since some operations increment it
-			moduleDatabase.revisionsTimeStamp.set(revisionsTimeStamp);
-			moduleDatabase.allTimeStamp.set(allTimeStamp);
 		}
 
 		private static void writeModule(Module module, ModuleDatabase moduleDatabase, DataOutputStream out, Map<Object, Integer> objectTable) throws IOException {
@@ -1202,7 +1498,7 @@ public class ModuleDatabase {
 			out.writeLong(module.getLastModified());
 		}
 
-		private static void readModule(ModuleDatabase moduleDatabase, DataInputStream in, Map<Integer, Object> objectTable, int version) throws IOException {
+		private static void readModule(ModuleDatabase moduleDatabase, DataInputStream in, Map<Integer, Object> objectTable, int version, Journal journal) throws IOException {
 			ModuleRevisionBuilder builder = new ModuleRevisionBuilder();
 			int moduleIndex = in.readInt();
 			String location = readString(in, objectTable);
@@ -1237,6 +1533,12 @@ public class ModuleDatabase {
 
 			// startlevel
 			int startlevel = in.readInt();
+
+			JournalEntry journaled = journal == null ? null : journal.entries.get(id);
+			if (journaled != null) {
+				settings = journaled.settings;
+				startlevel = journaled.startlevel;
+			}
 			Object revisionInfo = moduleDatabase.adaptor.getRevisionInfo(location, id);
 			Module module = moduleDatabase.load(location, builder, revisionInfo, id, settings, startlevel);
 
@@ -12,8 +12,7 @@ package org.eclipse.osgi.container;
 
 import java.security.Permission;
 import java.util.*;
-import java.util.concurrent.Executor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import org.apache.felix.resolver.*;
 import org.eclipse.osgi.container.ModuleRequirement.DynamicModuleRequirement;
 import org.eclipse.osgi.container.namespaces.EquinoxFragmentNamespace;
@@ -49,6 +48,8 @@ final class ModuleResolver {
 	private static final String OPTION_USES = OPTION_RESOLVER + "/uses"; //$NON-NLS-1$
 	private static final String OPTION_WIRING = OPTION_RESOLVER + "/wiring"; //$NON-NLS-1$
 	private static final String OPTION_REPORT = OPTION_RESOLVER + "/report"; //$NON-NLS-1$
+	private static final String OPTION_CACHE = OPTION_RESOLVER + "/cache"; //$NON-NLS-1$
+	private static final String OPTION_STATISTICS = OPTION_RESOLVER + "/statistics"; //$NON-NLS-1$
 
 	boolean DEBUG_ROOTS = false;
 	boolean DEBUG_PROVIDERS = false;
@@ -56,12 +57,16 @@ final class ModuleResolver {
 	boolean DEBUG_USES = false;
 	boolean DEBUG_WIRING = false;
 	boolean DEBUG_REPORT = false;
+	boolean DEBUG_CACHE = false;
+	boolean DEBUG_STATISTICS = false;
 
 	private static final int DEFAULT_BATCH_SIZE = Integer.MAX_VALUE;
 	private static final int BATCH_MIN_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
 	private static final int DEFAULT_BATCH_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(2);
 	final int resolverRevisionBatchSize;
 	final int resolverBatchTimeout;
+	final int resolverPackageSpaceCacheSize;
+	final int resolverThreadCount;
 
 	void setDebugOptions() {
 		DebugOptions options = adaptor.getDebugOptions();
@@ -75,6 +80,8 @@ final class ModuleResolver {
 		DEBUG_USES = debugAll || options.getBooleanOption(OPTION_USES, false);
 		DEBUG_WIRING = debugAll || options.getBooleanOption(OPTION_WIRING, false);
 		DEBUG_REPORT = debugAll || options.getBooleanOption(OPTION_REPORT, false);
+		DEBUG_CACHE = debugAll || options.getBooleanOption(OPTION_CACHE, false);
+		DEBUG_STATISTICS = debugAll || options.getBooleanOption(OPTION_STATISTICS, false);
 	}
 
 	private static final Collection<String> NON_PAYLOAD_CAPABILITIES = Arrays.asList(IdentityNamespace.IDENTITY_NAMESPACE);
@@ -97,6 +104,12 @@ final class ModuleResolver {
 		this.resolverRevisionBatchSize = parseInteger(batchSizeConfig, DEFAULT_BATCH_SIZE, 1);
 		String batchTimeoutConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_BATCH_TIMEOUT);
 		this.resolverBatchTimeout = parseInteger(batchTimeoutConfig, DEFAULT_BATCH_TIMEOUT, BATCH_MIN_TIMEOUT);
+		String packageSpaceCacheConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_PACKAGE_SPACE_CACHE_SIZE);
+		this.resolverPackageSpaceCacheSize = parseInteger(packageSpaceCacheConfig, ResolverImpl.DEFAULT_PACKAGE_SPACE_CACHE_SIZE, 0);
+		String threadCountConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_THREAD_COUNT);
+		int threadCount = parseInteger(threadCountConfig, 0, 0);
+		// same default as the number of threads of the framework resolver executor
+		this.resolverThreadCount = threadCount == 0 ? Math.max(Runtime.getRuntime().availableProcessors() - 1, 1) : threadCount;
 
 	}
 
@@ -117,6 +130,11 @@ final class ModuleResolver {
 	 * This method only does read operations on the database no wirings are modified
 	 * directly by this method.  The returned wirings need to be merged into 
 	 * the database.
+	 * <p>
+	 * If the resolution cache of the database contains the result of a resolve
+	 * operation with the same triggers, revisions, wirings and resolver hook
+	 * configuration then the cached result is returned without calling the
+	 * resolver hooks or the resolver.
 	 * @param triggers the triggers that caused the resolver operation to occur
 	 * @param triggersMandatory true if the triggers must be resolved by the resolve process
 	 * @param unresolved a snapshot of unresolved revisions
@@ -127,15 +145,72 @@ final class ModuleResolver {
 	 * @throws ResolutionException
 	 */
 	ModuleResolutionReport resolveDelta(Collection<ModuleRevision> triggers, boolean triggersMandatory, Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wiringCopy, ModuleDatabase moduleDatabase) {
+		ResolutionCache cache = moduleDatabase.resolutionCache;
+		ResolutionCache.Key key = null;
+		if (cache.isEnabled() && !threadResolving()) {
+			key = cache.createKey(triggers, triggersMandatory, unresolved, wiringCopy, adaptor.getResolverHookConfiguration());
+			Map<Resource, List<Wire>> cached = key == null ? null : cache.get(key, unresolved, wiringCopy);
+			if (cached != null) {
+				if (DEBUG_CACHE) {
+					Debug.println("RESOLVER: Using cached resolution for triggers " + triggers + ": " + cache); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				return new ModuleResolutionReport(cached, Collections.<Resource, List<Entry>> emptyMap(), null);
+			}
+			if (DEBUG_CACHE) {
+				Debug.println("RESOLVER: Resolution cache miss for triggers " + triggers + ": " + cache.getLastMissReason()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
 		ResolveProcess resolveProcess = new ResolveProcess(unresolved, triggers, triggersMandatory, wiringCopy, moduleDatabase);
-		return resolveProcess.resolve();
+		ModuleResolutionReport report = resolveProcess.resolve();
+		if (key != null && isCacheable(report, triggers)) {
+			cache.put(key, report.getResolutionResult());
+			if (report.getResolutionResult().isEmpty()) {
+				// nothing is applied to the database, make sure the cached result is stored
+				moduleDatabase.resolutionCacheChanged();
+			}
+		}
+		return report;
+	}
+
+	/*
+	 * Only successful results are cached.  The report entries are not cached,
+	 * so results with entries for the triggers are not cached either since
+	 * the entries are used to explain why a trigger did not resolve.
+	 */
+	private static boolean isCacheable(ModuleResolutionReport report, Collection<ModuleRevision> triggers) {
+		if (report.getResolutionException() != null || report.getResolutionResult() == null) {
+			return false;
+		}
+		Map<Resource, List<Entry>> entries = report.getEntries();
+		for (ModuleRevision trigger : triggers) {
+			if (entries.containsKey(trigger)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	ModuleResolutionReport resolveDynamicDelta(DynamicModuleRequirement dynamicReq, Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wiringCopy, ModuleDatabase moduleDatabase) {
-		ResolveProcess resolveProcess = new ResolveProcess(unresolved, dynamicReq, wiringCopy, moduleDatabase);
+		ResolveProcess resolveProcess = new ResolveProcess(unresolved, dynamicReq, wiringCopy, moduleDatabase, false);
 		return resolveProcess.resolve();
 	}
 
+	/**
+	 * Resolves a dynamic requirement whose providers are all resolved and do not specify
+	 * uses constraints.  The resolver hooks are called as usual but the resolver is not
+	 * used; the requirement is wired to the highest ranked provider.
+	 * @param dynamicReq the dynamic requirement
+	 * @param wirings the wirings of the requiring revision and of all providers
+	 * @param moduleDatabase the module database
+	 * @return the resolution report or <code>null</code> if a provider was found which
+	 * is not included in the wirings or which specifies uses constraints
+	 */
+	ModuleResolutionReport resolveUsesFreeDynamicDelta(DynamicModuleRequirement dynamicReq, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase) {
+		ResolveProcess resolveProcess = new ResolveProcess(Collections.<ModuleRevision> emptyList(), dynamicReq, wirings, moduleDatabase, true);
+		ModuleResolutionReport report = resolveProcess.resolve();
+		return resolveProcess.usesCheckRequired ? null : report;
+	}
+
 	Map<ModuleRevision, ModuleWiring> generateDelta(Map<Resource, List<Wire>> result, Map<ModuleRevision, ModuleWiring> wiringCopy) {
 		Map<ModuleRevision, Map<ModuleCapability, List<ModuleWire>>> provided = new HashMap<ModuleRevision, Map<ModuleCapability, List<ModuleWire>>>();
 		Map<ModuleRevision, List<ModuleWire>> required = new HashMap<ModuleRevision, List<ModuleWire>>();
@@ -480,6 +555,7 @@ final class ModuleResolver {
 
 		class ResolveLogger extends Logger {
 			private Map<Resource, ResolutionException> errors = null;
+			private int permutations = 0;
 
 			public ResolveLogger() {
 				super(0);
@@ -505,9 +581,18 @@ final class ModuleResolver {
 				}
 			}
 
+			@Override
+			public void logPermutationsChecked(int checked) {
+				permutations += checked;
+			}
+
 			Map<Resource, ResolutionException> getUsesConstraintViolations() {
 				return errors == null ? Collections.<Resource, ResolutionException> emptyMap() : errors;
 			}
+
+			int getPermutationsChecked() {
+				return permutations;
+			}
 		}
 
 		private final ModuleResolutionReport.Builder reportBuilder = new ModuleResolutionReport.Builder();
@@ -534,6 +619,8 @@ final class ModuleResolver {
 		private final Map<ModuleRevision, ModuleWiring> wirings;
 		private final Set<ModuleRevision> previouslyResolved;
 		private final DynamicModuleRequirement dynamicReq;
+		private final boolean usesFree;
+		private volatile boolean usesCheckRequired = false;
 		private volatile ResolverHook hook = null;
 		private volatile Map<String, Collection<ModuleRevision>> byName = null;
 		private volatile List<Resource> currentlyResolving = null;
@@ -552,6 +639,11 @@ final class ModuleResolver {
 		 * has occurred.
 		 */
 		private final Map<Resource, Map<Requirement, Set<Capability>>> unresolvedProviders = new HashMap<Resource, Map<Requirement, Set<Capability>>>();
+		/*
+		 * The capabilities found for requirements ahead of time by prefetchProviders.
+		 * An entry is removed when the resolver asks for the providers of the requirement.
+		 */
+		private final Map<Requirement, List<ModuleCapability>> prefetchedProviders = new ConcurrentHashMap<Requirement, List<ModuleCapability>>();
 
 		ResolveProcess(Collection<ModuleRevision> unresolved, Collection<ModuleRevision> triggers, boolean triggersMandatory, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase) {
 			this.unresolved = unresolved;
@@ -569,9 +661,10 @@ final class ModuleResolver {
 			this.previouslyResolved = new HashSet<ModuleRevision>(wirings.keySet());
 			this.moduleDatabase = moduleDatabase;
 			this.dynamicReq = null;
+			this.usesFree = false;
 		}
 
-		ResolveProcess(Collection<ModuleRevision> unresolved, DynamicModuleRequirement dynamicReq, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase) {
+		ResolveProcess(Collection<ModuleRevision> unresolved, DynamicModuleRequirement dynamicReq, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase, boolean usesFree) {
 			this.unresolved = unresolved;
 			this.disabled = new HashSet<ModuleRevision>(unresolved);
 			ModuleRevision revision = dynamicReq.getRevision();
@@ -580,9 +673,11 @@ final class ModuleResolver {
 			this.triggersMandatory = false;
 			this.optionals = new ArrayList<ModuleRevision>(unresolved);
 			this.wirings = wirings;
-			this.previouslyResolved = new HashSet<ModuleRevision>(wirings.keySet());
+			// the wirings are not modified while resolving a dynamic requirement
+			this.previouslyResolved = Collections.unmodifiableSet(wirings.keySet());
 			this.moduleDatabase = moduleDatabase;
 			this.dynamicReq = dynamicReq;
+			this.usesFree = usesFree;
 		}
 
 		@Override
@@ -601,7 +696,10 @@ final class ModuleResolver {
 						.append(origReq.getResource()) //
 						.toString());
 			}
-			List<ModuleCapability> candidates = moduleDatabase.findCapabilities(lookupReq);
+			List<ModuleCapability> candidates = origReq == lookupReq ? prefetchedProviders.remove(lookupReq) : null;
+			if (candidates == null) {
+				candidates = moduleDatabase.findCapabilities(lookupReq);
+			}
 			List<Capability> result = filterProviders(origReq, candidates);
 			if (DEBUG_PROVIDERS) {
 				StringBuilder builder = new StringBuilder("RESOLVER: Capabilities being returned to the resolver"); //$NON-NLS-1$
@@ -620,6 +718,60 @@ final class ModuleResolver {
 			return result;
 		}
 
+		/*
+		 * Finds the capabilities matching the requirements of the specified revisions,
+		 * and of the unresolved revisions providing them, using the resolver executor.
+		 * The search is done one layer of providers at a time.  Only the database
+		 * lookups are done ahead of time; the candidates are still filtered and the
+		 * resolver hook is still called by the resolving thread in the order the
+		 * resolver asks for providers, so the resolution result does not change.
+		 */
+		private void prefetchProviders(Collection<Resource> revisions) {
+			Executor executor = adaptor.getResolverExecutor();
+			Set<Resource> visited = new HashSet<Resource>(revisions);
+			List<Resource> layer = new ArrayList<Resource>(revisions);
+			while (!layer.isEmpty()) {
+				List<Requirement> requirements = new ArrayList<Requirement>();
+				for (Resource revision : layer) {
+					for (Requirement requirement : revision.getRequirements(null)) {
+						if (isEffective(requirement) && !isDynamic(requirement) && !prefetchedProviders.containsKey(requirement)) {
+							requirements.add(requirement);
+						}
+					}
+				}
+				final CountDownLatch done = new CountDownLatch(requirements.size());
+				final Set<ModuleRevision> providers = Collections.newSetFromMap(new ConcurrentHashMap<ModuleRevision, Boolean>());
+				for (final Requirement requirement : requirements) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								List<ModuleCapability> matching = moduleDatabase.findCapabilities(requirement);
+								for (ModuleCapability capability : matching) {
+									providers.add(capability.getRevision());
+								}
+								prefetchedProviders.put(requirement, matching);
+							} finally {
+								done.countDown();
+							}
+						}
+					});
+				}
+				try {
+					done.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				layer = new ArrayList<Resource>();
+				for (ModuleRevision provider : providers) {
+					if (!wirings.containsKey(provider) && !disabled.contains(provider) && visited.add(provider)) {
+						layer.add(provider);
+					}
+				}
+			}
+		}
+
 		private List<Capability> filterProviders(Requirement requirement, List<ModuleCapability> candidates) {
 			return filterProviders(requirement, candidates, true);
 		}
@@ -911,6 +1063,7 @@ final class ModuleResolver {
 				ResolutionException re = null;
 				ModuleResolutionReport report;
 				ResolveLogger logger = new ResolveLogger();
+				long start = DEBUG_STATISTICS ? System.nanoTime() : 0;
 				try {
 					filterResolvable();
 					selectSingletons();
@@ -949,6 +1102,11 @@ final class ModuleResolver {
 						printWirings(result);
 					}
 					report = reportBuilder.build(result, re);
+					adaptor.resolveProcessCompleted(unresolved.size(), result == null ? 0 : result.size(), logger.getPermutationsChecked());
+					if (DEBUG_STATISTICS) {
+						Debug.println("RESOLVER: Resolved " + (result == null ? 0 : result.size()) + " of " + unresolved.size() + " revisions in " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms checking " + logger.getPermutationsChecked() + " permutations"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
 					if (DEBUG_REPORT) {
 						if (report.getResolutionException() != null) {
 							Debug.printStackTrace(report.getResolutionException());
@@ -1059,7 +1217,10 @@ final class ModuleResolver {
 			Map<Resource, List<Wire>> interimResults = null;
 			try {
 				transitivelyResolveFailures.addAll(revisions);
-				interimResults = new ResolverImpl(logger, this).resolve(this);
+				if (resolverThreadCount > 1) {
+					prefetchProviders(revisions);
+				}
+				interimResults = new ResolverImpl(logger, this, resolverPackageSpaceCacheSize).resolve(this);
 				applyInterimResultToWiringCopy(interimResults);
 				if (DEBUG_ROOTS) {
 					Debug.println("Resolver: resolved " + interimResults.size() + " bundles."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -1264,9 +1425,28 @@ final class ModuleResolver {
 
 		private Map<Resource, List<Wire>> resolveDynamic() throws ResolutionException {
 			List<Capability> dynamicMatches = findProviders0(dynamicReq.getOriginal(), dynamicReq);
+			if (usesFree) {
+				return resolveUsesFreeDynamic(dynamicMatches);
+			}
 			return new ResolverImpl(new Logger(0), null).resolve(this, dynamicReq.getRevision(), dynamicReq.getOriginal(), dynamicMatches);
 		}
 
+		private Map<Resource, List<Wire>> resolveUsesFreeDynamic(List<Capability> dynamicMatches) {
+			if (dynamicMatches.isEmpty()) {
+				return new HashMap<Resource, List<Wire>>(0);
+			}
+			// the matches are sorted; the first one is the provider the resolver would choose
+			ModuleCapability provider = (ModuleCapability) dynamicMatches.get(0);
+			if (!wirings.containsKey(provider.getRevision()) || provider.getDirectives().containsKey(Namespace.CAPABILITY_USES_DIRECTIVE)) {
+				usesCheckRequired = true;
+				return null;
+			}
+			ModuleRevision revision = dynamicReq.getRevision();
+			Map<Resource, List<Wire>> result = new HashMap<Resource, List<Wire>>(2);
+			result.put(revision, Collections.<Wire> singletonList(new ModuleWire(provider, provider.getRevision(), dynamicReq.getOriginal(), revision)));
+			return result;
+		}
+
 		private void filterResolvable() {
 			Collection<ModuleRevision> enabledCandidates = new ArrayList<ModuleRevision>(unresolved);
 			hook.filterResolvable(InternalUtils.asListBundleRevision((List<? extends BundleRevision>) enabledCandidates));
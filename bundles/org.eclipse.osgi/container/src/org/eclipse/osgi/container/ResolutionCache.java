@@ -0,0 +1,576 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.container;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.resource.*;
+
+/**
+ * A bounded cache of the results of resolve operations keyed by digests of
+ * the content the resolver depends on.  A key contains separate digests of
+ * <ul>
+ * <li>the trigger revisions of the resolve operation,</li>
+ * <li>the capabilities and requirements of the unresolved revisions,</li>
+ * <li>the capabilities, requirements and required wires of the resolved revisions and</li>
+ * <li>the {@link ModuleContainerAdaptor#getResolverHookConfiguration() resolver hook configuration}.</li>
+ * </ul>
+ * When a resolve operation has the same key as a cached operation the cached
+ * wires are used instead of calling the resolver hooks and the resolver.
+ * <p>
+ * The wires are cached using module ids and the indexes of capabilities and
+ * requirements within their declaring revisions.  This allows the cache to be
+ * persisted with the {@link ModuleDatabase module database} and to be used after
+ * a restart.  The reason of the last cache miss is kept for diagnosis.
+ *
+ * @ThreadSafe
+ */
+final class ResolutionCache {
+	private static final byte VERSION = 1;
+	private static final String DIGEST_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+
+	static final String MISS_DISABLED = "cache disabled"; //$NON-NLS-1$
+	static final String MISS_NO_HOOK_CONFIGURATION = "resolver hook configuration unknown"; //$NON-NLS-1$
+	static final String MISS_SECURITY = "security manager present"; //$NON-NLS-1$
+	static final String MISS_REMOVAL_PENDING = "removal pending revisions"; //$NON-NLS-1$
+	static final String MISS_EMPTY = "no cached resolution"; //$NON-NLS-1$
+	static final String MISS_TRIGGERS = "triggers changed"; //$NON-NLS-1$
+	static final String MISS_HOOKS = "resolver hook configuration changed"; //$NON-NLS-1$
+	static final String MISS_RESOLVED = "resolved revisions or wirings changed"; //$NON-NLS-1$
+	static final String MISS_UNRESOLVED = "unresolved revisions changed"; //$NON-NLS-1$
+	static final String MISS_CHANGED = "unresolved and resolved revisions changed"; //$NON-NLS-1$
+	static final String MISS_INVALID = "cached wires do not match the revisions"; //$NON-NLS-1$
+
+	/**
+	 * The digests of a resolve operation.
+	 */
+	static final class Key {
+		final byte[] triggers;
+		final byte[] unresolved;
+		final byte[] resolved;
+		final byte[] hooks;
+		private final int hashCode;
+
+		Key(byte[] triggers, byte[] unresolved, byte[] resolved, byte[] hooks) {
+			this.triggers = triggers;
+			this.unresolved = unresolved;
+			this.resolved = resolved;
+			this.hooks = hooks;
+			this.hashCode = ((Arrays.hashCode(triggers) * 31 + Arrays.hashCode(unresolved)) * 31 + Arrays.hashCode(resolved)) * 31 + Arrays.hashCode(hooks);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && Arrays.equals(triggers, other.triggers) && Arrays.equals(unresolved, other.unresolved) && Arrays.equals(resolved, other.resolved) && Arrays.equals(hooks, other.hooks);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/*
+	 * Assigns indexes to the capabilities and requirements of revisions
+	 * while encoding wires.
+	 */
+	private static final class Indexes {
+		private final Map<ModuleRevision, Map<Object, Integer>> capabilityIndexes = new IdentityHashMap<ModuleRevision, Map<Object, Integer>>();
+		private final Map<ModuleRevision, Map<Object, Integer>> requirementIndexes = new IdentityHashMap<ModuleRevision, Map<Object, Integer>>();
+
+		int indexOf(ModuleRevision revision, Object capOrReq, boolean capability) {
+			Map<ModuleRevision, Map<Object, Integer>> indexes = capability ? capabilityIndexes : requirementIndexes;
+			Map<Object, Integer> revisionIndexes = indexes.get(revision);
+			if (revisionIndexes == null) {
+				revisionIndexes = new IdentityHashMap<Object, Integer>();
+				List<?> all = capability ? revision.getModuleCapabilities(null) : revision.getModuleRequirements(null);
+				for (int i = 0; i < all.size(); i++) {
+					revisionIndexes.put(all.get(i), Integer.valueOf(i));
+				}
+				indexes.put(revision, revisionIndexes);
+			}
+			Integer index = revisionIndexes.get(capOrReq);
+			return index == null ? -1 : index.intValue();
+		}
+	}
+
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+			// only the digest is used
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// only the digest is used
+		}
+	};
+
+	private final int maxSize;
+	/* @GuardedBy("entries") */
+	private final LinkedHashMap<Key, long[]> entries;
+	/* @GuardedBy("revisionDigests") */
+	private final Map<ModuleRevision, byte[]> revisionDigests = new WeakHashMap<ModuleRevision, byte[]>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile String lastMissReason = null;
+
+	ResolutionCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<Key, long[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, long[]> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns true if resolve operations are cached.
+	 * @return true if resolve operations are cached
+	 */
+	boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Creates the key of a resolve operation.
+	 * @param triggers the trigger revisions
+	 * @param triggersMandatory true if the triggers must be resolved
+	 * @param unresolved the unresolved revisions
+	 * @param wirings the wirings of the resolved revisions
+	 * @param hookConfiguration the resolver hook configuration, may be <code>null</code>
+	 * @return the key or <code>null</code> if the resolve operation cannot be cached
+	 */
+	Key createKey(Collection<ModuleRevision> triggers, boolean triggersMandatory, Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wirings, String hookConfiguration) {
+		if (!isEnabled()) {
+			return miss(MISS_DISABLED);
+		}
+		if (hookConfiguration == null) {
+			return miss(MISS_NO_HOOK_CONFIGURATION);
+		}
+		if (System.getSecurityManager() != null) {
+			// permissions filter the providers of requirements
+			return miss(MISS_SECURITY);
+		}
+		SortedMap<Long, ModuleRevision> sortedUnresolved = sortById(unresolved);
+		SortedMap<Long, ModuleRevision> sortedResolved = sortById(wirings.keySet());
+		if (sortedUnresolved == null || sortedResolved == null || sortedResolved.size() + sortedUnresolved.size() != getRevisionsById(unresolved, wirings).size()) {
+			// more than one revision of a module cannot be identified by the module id
+			return miss(MISS_REMOVAL_PENDING);
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			DataOutputStream out = new DataOutputStream(new DigestOutputStream(NULL_OUTPUT, digest));
+
+			out.writeBoolean(triggersMandatory);
+			SortedSet<Long> triggerIds = new TreeSet<Long>();
+			for (ModuleRevision trigger : triggers) {
+				triggerIds.add(Long.valueOf(getId(trigger)));
+			}
+			for (Long id : triggerIds) {
+				out.writeLong(id.longValue());
+			}
+			out.flush();
+			byte[] triggersDigest = digest.digest();
+
+			for (Map.Entry<Long, ModuleRevision> entry : sortedUnresolved.entrySet()) {
+				out.writeLong(entry.getKey().longValue());
+				out.write(getDigest(entry.getValue()));
+			}
+			out.flush();
+			byte[] unresolvedDigest = digest.digest();
+
+			Indexes indexes = new Indexes();
+			for (Map.Entry<Long, ModuleRevision> entry : sortedResolved.entrySet()) {
+				out.writeLong(entry.getKey().longValue());
+				out.write(getDigest(entry.getValue()));
+				List<ModuleWire> requiredWires = wirings.get(entry.getValue()).getRequiredModuleWires(null);
+				if (requiredWires == null) {
+					return miss(MISS_RESOLVED);
+				}
+				out.writeInt(requiredWires.size());
+				for (ModuleWire wire : requiredWires) {
+					if (!writeWire(wire, out, indexes)) {
+						return miss(MISS_RESOLVED);
+					}
+				}
+			}
+			out.flush();
+			byte[] resolvedDigest = digest.digest();
+
+			out.writeUTF(hookConfiguration);
+			out.flush();
+			byte[] hooksDigest = digest.digest();
+
+			return new Key(triggersDigest, unresolvedDigest, resolvedDigest, hooksDigest);
+		} catch (NoSuchAlgorithmException e) {
+			return miss(MISS_DISABLED);
+		} catch (IOException e) {
+			// not possible with a digest stream
+			return miss(MISS_DISABLED);
+		}
+	}
+
+	/**
+	 * Returns the cached result of the resolve operation with the specified key.
+	 * @param key the key of the resolve operation
+	 * @param unresolved the unresolved revisions of the resolve operation
+	 * @param wirings the wirings of the resolved revisions of the resolve operation
+	 * @return the cached result or <code>null</code> if the result is not cached
+	 */
+	Map<Resource, List<Wire>> get(Key key, Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wirings) {
+		long[] encoded;
+		synchronized (entries) {
+			encoded = entries.get(key);
+			if (encoded == null) {
+				miss(getMissReason(key));
+				return null;
+			}
+		}
+		Map<Resource, List<Wire>> result = decode(encoded, getRevisionsById(unresolved, wirings));
+		if (result == null) {
+			synchronized (entries) {
+				entries.remove(key);
+			}
+			miss(MISS_INVALID);
+			return null;
+		}
+		hits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Caches the result of the resolve operation with the specified key.
+	 * @param key the key of the resolve operation
+	 * @param result the result of the resolve operation
+	 */
+	void put(Key key, Map<Resource, List<Wire>> result) {
+		long[] encoded = encode(result);
+		if (encoded == null) {
+			return;
+		}
+		synchronized (entries) {
+			entries.put(key, encoded);
+		}
+	}
+
+	/**
+	 * Returns the reason of the last cache miss.
+	 * @return the reason of the last cache miss or <code>null</code> if no miss occurred
+	 */
+	String getLastMissReason() {
+		return lastMissReason;
+	}
+
+	/**
+	 * Returns the number of resolve operations which used a cached result.
+	 * @return the number of hits
+	 */
+	long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of resolve operations which did not use a cached result.
+	 * @return the number of misses
+	 */
+	long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 * @return the number of cached results
+	 */
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Writes the cached results to the data output stream.
+	 * @param out the data output stream
+	 * @throws IOException if writing to the stream throws an IOException
+	 */
+	void store(DataOutputStream out) throws IOException {
+		List<Map.Entry<Key, long[]>> copy;
+		synchronized (entries) {
+			copy = new ArrayList<Map.Entry<Key, long[]>>(entries.entrySet());
+		}
+		out.writeByte(VERSION);
+		out.writeInt(copy.size());
+		for (Map.Entry<Key, long[]> entry : copy) {
+			Key key = entry.getKey();
+			writeBytes(key.triggers, out);
+			writeBytes(key.unresolved, out);
+			writeBytes(key.resolved, out);
+			writeBytes(key.hooks, out);
+			long[] encoded = entry.getValue();
+			out.writeInt(encoded.length);
+			for (long value : encoded) {
+				out.writeLong(value);
+			}
+		}
+	}
+
+	/**
+	 * Reads cached results from the data input stream.  The results are
+	 * ignored if they were written by a different version of the cache.
+	 * @param in the data input stream
+	 * @throws IOException if reading from the stream throws an IOException
+	 */
+	void load(DataInputStream in) throws IOException {
+		boolean compatible = in.readByte() == VERSION;
+		int numEntries = compatible ? in.readInt() : 0;
+		Map<Key, long[]> loaded = new LinkedHashMap<Key, long[]>();
+		for (int i = 0; i < numEntries; i++) {
+			Key key = new Key(readBytes(in), readBytes(in), readBytes(in), readBytes(in));
+			long[] encoded = new long[in.readInt()];
+			for (int j = 0; j < encoded.length; j++) {
+				encoded[j] = in.readLong();
+			}
+			loaded.put(key, encoded);
+		}
+		if (isEnabled()) {
+			synchronized (entries) {
+				entries.putAll(loaded);
+			}
+		}
+	}
+
+	private Key miss(String reason) {
+		misses.incrementAndGet();
+		lastMissReason = reason;
+		return null;
+	}
+
+	/* @GuardedBy("entries") */
+	private String getMissReason(Key key) {
+		if (entries.isEmpty()) {
+			return MISS_EMPTY;
+		}
+		boolean sameUnresolved = false;
+		boolean sameResolved = false;
+		boolean sameHooks = false;
+		for (Key cached : entries.keySet()) {
+			boolean unresolvedMatch = Arrays.equals(key.unresolved, cached.unresolved);
+			boolean resolvedMatch = Arrays.equals(key.resolved, cached.resolved);
+			if (unresolvedMatch && resolvedMatch) {
+				if (Arrays.equals(key.hooks, cached.hooks)) {
+					sameHooks = true;
+				}
+			}
+			sameUnresolved |= unresolvedMatch;
+			sameResolved |= resolvedMatch;
+		}
+		if (sameHooks) {
+			return MISS_TRIGGERS;
+		}
+		if (sameUnresolved && sameResolved) {
+			return MISS_HOOKS;
+		}
+		if (sameUnresolved) {
+			return MISS_RESOLVED;
+		}
+		if (sameResolved) {
+			return MISS_UNRESOLVED;
+		}
+		return MISS_CHANGED;
+	}
+
+	private byte[] getDigest(ModuleRevision revision) throws IOException {
+		synchronized (revisionDigests) {
+			byte[] result = revisionDigests.get(revision);
+			if (result != null) {
+				return result;
+			}
+		}
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(NULL_OUTPUT, digest));
+		out.writeUTF(String.valueOf(revision.getSymbolicName()));
+		out.writeUTF(revision.getVersion().toString());
+		out.writeInt(revision.getTypes());
+		List<ModuleCapability> capabilities = revision.getModuleCapabilities(null);
+		out.writeInt(capabilities.size());
+		for (ModuleCapability capability : capabilities) {
+			writeGenericInfo(capability.getNamespace(), capability.getAttributes(), capability.getDirectives(), out);
+		}
+		List<ModuleRequirement> requirements = revision.getModuleRequirements(null);
+		out.writeInt(requirements.size());
+		for (ModuleRequirement requirement : requirements) {
+			writeGenericInfo(requirement.getNamespace(), requirement.getAttributes(), requirement.getDirectives(), out);
+		}
+		out.flush();
+		byte[] result = digest.digest();
+		synchronized (revisionDigests) {
+			revisionDigests.put(revision, result);
+		}
+		return result;
+	}
+
+	private static void writeGenericInfo(String namespace, Map<String, ?> attributes, Map<String, String> directives, DataOutputStream out) throws IOException {
+		out.writeUTF(namespace);
+		writeMap(attributes, out);
+		writeMap(directives, out);
+	}
+
+	private static void writeMap(Map<String, ?> map, DataOutputStream out) throws IOException {
+		SortedMap<String, ?> sorted = new TreeMap<String, Object>(map);
+		out.writeInt(sorted.size());
+		for (Map.Entry<String, ?> entry : sorted.entrySet()) {
+			out.writeUTF(entry.getKey());
+			Object value = entry.getValue();
+			// include the type to distinguish values with the same string representation
+			out.writeUTF(value == null ? "null" : value.getClass().getName()); //$NON-NLS-1$
+			out.writeUTF(String.valueOf(value));
+		}
+	}
+
+	private static boolean writeWire(ModuleWire wire, DataOutputStream out, Indexes indexes) throws IOException {
+		ModuleCapability capability = wire.getCapability();
+		ModuleRequirement requirement = wire.getRequirement();
+		int capabilityIndex = indexes.indexOf(capability.getRevision(), capability, true);
+		int requirementIndex = indexes.indexOf(requirement.getRevision(), requirement, false);
+		if (capabilityIndex < 0 || requirementIndex < 0) {
+			return false;
+		}
+		out.writeLong(getId(wire.getProvider()));
+		out.writeLong(getId(capability.getRevision()));
+		out.writeInt(capabilityIndex);
+		out.writeLong(getId(requirement.getRevision()));
+		out.writeInt(requirementIndex);
+		return true;
+	}
+
+	/*
+	 * Encodes the result as a sequence of
+	 * requirer id, number of wires, (requirement revision id, requirement index,
+	 * provider id, capability revision id, capability index) for each wire.
+	 */
+	private static long[] encode(Map<Resource, List<Wire>> result) {
+		int length = 0;
+		for (List<Wire> wires : result.values()) {
+			length += 2 + wires.size() * 5;
+		}
+		long[] encoded = new long[length];
+		Indexes indexes = new Indexes();
+		int i = 0;
+		for (Map.Entry<Resource, List<Wire>> entry : result.entrySet()) {
+			encoded[i++] = getId((ModuleRevision) entry.getKey());
+			encoded[i++] = entry.getValue().size();
+			for (Wire wire : entry.getValue()) {
+				ModuleRequirement requirement = (ModuleRequirement) wire.getRequirement();
+				ModuleCapability capability = (ModuleCapability) wire.getCapability();
+				int requirementIndex = indexes.indexOf(requirement.getRevision(), requirement, false);
+				int capabilityIndex = indexes.indexOf(capability.getRevision(), capability, true);
+				if (requirementIndex < 0 || capabilityIndex < 0) {
+					// dynamic requirements are never cached
+					return null;
+				}
+				encoded[i++] = getId(requirement.getRevision());
+				encoded[i++] = requirementIndex;
+				encoded[i++] = getId((ModuleRevision) wire.getProvider());
+				encoded[i++] = getId(capability.getRevision());
+				encoded[i++] = capabilityIndex;
+			}
+		}
+		return encoded;
+	}
+
+	private static Map<Resource, List<Wire>> decode(long[] encoded, Map<Long, ModuleRevision> revisions) {
+		Map<Resource, List<Wire>> result = new HashMap<Resource, List<Wire>>();
+		int i = 0;
+		while (i < encoded.length) {
+			ModuleRevision requirer = revisions.get(Long.valueOf(encoded[i++]));
+			int numWires = (int) encoded[i++];
+			if (requirer == null) {
+				return null;
+			}
+			List<Wire> wires = new ArrayList<Wire>(numWires);
+			for (int j = 0; j < numWires; j++) {
+				ModuleRevision requirementRevision = revisions.get(Long.valueOf(encoded[i++]));
+				int requirementIndex = (int) encoded[i++];
+				ModuleRevision provider = revisions.get(Long.valueOf(encoded[i++]));
+				ModuleRevision capabilityRevision = revisions.get(Long.valueOf(encoded[i++]));
+				int capabilityIndex = (int) encoded[i++];
+				if (requirementRevision == null || provider == null || capabilityRevision == null) {
+					return null;
+				}
+				List<ModuleRequirement> requirements = requirementRevision.getModuleRequirements(null);
+				List<ModuleCapability> capabilities = capabilityRevision.getModuleCapabilities(null);
+				if (requirementIndex >= requirements.size() || capabilityIndex >= capabilities.size()) {
+					return null;
+				}
+				wires.add(new ModuleWire(capabilities.get(capabilityIndex), provider, requirements.get(requirementIndex), requirer));
+			}
+			result.put(requirer, wires);
+		}
+		return result;
+	}
+
+	private static long getId(ModuleRevision revision) {
+		return revision.getRevisions().getModule().getId().longValue();
+	}
+
+	private static SortedMap<Long, ModuleRevision> sortById(Collection<ModuleRevision> revisions) {
+		SortedMap<Long, ModuleRevision> sorted = new TreeMap<Long, ModuleRevision>();
+		for (ModuleRevision revision : revisions) {
+			if (sorted.put(Long.valueOf(getId(revision)), revision) != null) {
+				return null;
+			}
+		}
+		return sorted;
+	}
+
+	private static Map<Long, ModuleRevision> getRevisionsById(Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wirings) {
+		Map<Long, ModuleRevision> revisions = new HashMap<Long, ModuleRevision>();
+		for (ModuleRevision revision : unresolved) {
+			revisions.put(Long.valueOf(getId(revision)), revision);
+		}
+		for (ModuleRevision revision : wirings.keySet()) {
+			revisions.put(Long.valueOf(getId(revision)), revision);
+		}
+		return revisions;
+	}
+
+	private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "ResolutionCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", lastMissReason=" + getLastMissReason() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+}
@@ -0,0 +1,636 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.debug;
+
+import java.io.*;
+import java.security.AccessController;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.osgi.framework.util.SecureAction;
+
+/**
+ * Writes the trace entries of all the {@link EclipseDebugTrace} objects of a
+ * {@link FrameworkDebugOptions} to the trace file.  Tracing threads only add the entries to a
+ * bounded buffer.  A background thread writes the buffered entries in batches to a trace writer
+ * which is kept open between batches and flushed once the buffer is empty or a batch is full.
+ * The trace file is rotated between batches when it reaches the size limit.  The background
+ * thread stops after it has been idle for a while and is started again for the next entry.
+ * 
+ * @ThreadSafe
+ */
+final class DebugTraceWriter {
+
+	/** The system property used to specify size a trace file can grow before it is rotated */
+	private static final String PROP_TRACE_SIZE_MAX = "eclipse.trace.size.max"; //$NON-NLS-1$
+	/** The system property used to specify the maximum number of backup trace files to use */
+	private static final String PROP_TRACE_FILE_MAX = "eclipse.trace.backup.max"; //$NON-NLS-1$
+	/** The system property used to specify the number of entries buffered for the writer thread */
+	private static final String PROP_TRACE_BUFFER_SIZE = "eclipse.trace.buffer.size"; //$NON-NLS-1$
+	/** The version attribute written in the header of a new session */
+	private final static String TRACE_FILE_VERSION_COMMENT = "version: "; //$NON-NLS-1$
+	/** The verbose attribute written in the header of a new session */
+	private final static String TRACE_FILE_VERBOSE_COMMENT = "verbose: "; //$NON-NLS-1$
+	/** The version value written in the header of a new session */
+	private final static String TRACE_FILE_VERSION = "1.1"; //$NON-NLS-1$
+	/** The new session identifier to be written whenever a new session starts */
+	private final static String TRACE_NEW_SESSION = "!SESSION "; //$NON-NLS-1$
+	/** The date attribute written to the header of the trace file to show when this file was created */
+	private final static String TRACE_FILE_DATE = "Time of creation: "; //$NON-NLS-1$
+	/** Trace date formatter using the pattern: yyyy-MM-dd HH:mm:ss.SSS  */
+	private final static SimpleDateFormat TRACE_FILE_DATE_FORMATTER = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); //$NON-NLS-1$
+	/** The comment character used by the trace file */
+	private final static String TRACE_COMMENT = "#"; //$NON-NLS-1$
+	/** The delimiter used to separate trace elements such as the time stamp, message, etc */
+	private final static String TRACE_ELEMENT_DELIMITER = "|"; //$NON-NLS-1$
+	/** The string written in place of the {@link EclipseDebugTrace#TRACE_TRACE_ELEMENT_DELIMITER} in entries */
+	private final static String TRACE_ELEMENT_DELIMITER_ENCODED = "&#124;"; //$NON-NLS-1$
+	/** OS-specific line separator */
+	private static final String LINE_SEPARATOR;
+	static {
+		String s = System.getProperty("line.separator"); //$NON-NLS-1$
+		LINE_SEPARATOR = s == null ? "\n" : s; //$NON-NLS-1$
+	}
+	/** Used to open the trace file with privileges */
+	private final static SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
+
+	/******************* Tracing file attributes **************************/
+	/** The default size a trace file can grow before it is rotated */
+	private static final int DEFAULT_TRACE_FILE_SIZE = 1000; // The value is in KB.
+	/** The default number of backup trace files */
+	private static final int DEFAULT_TRACE_FILES = 10;
+	/** The minimum size limit for trace file rotation */
+	private static final int DEFAULT_TRACE_FILE_MIN_SIZE = 10;
+	/** The extension used for log files */
+	private static final String TRACE_FILE_EXTENSION = ".trace"; //$NON-NLS-1$
+	/** The extension markup to use for backup log files*/
+	private static final String BACKUP_MARK = ".bak_"; //$NON-NLS-1$
+	/** The maximum size that a trace file should grow (0 = unlimited) */
+	private int maxTraceFileSize = DEFAULT_TRACE_FILE_SIZE; // The value is in KB.
+	/** The maximum number of trace files that should be saved */
+	private int maxTraceFiles = DEFAULT_TRACE_FILES;
+	/** The index of the currently backed-up trace file */
+	private int backupTraceFileIndex = 0;
+	/** The default number of entries buffered for the writer thread */
+	private static final int DEFAULT_TRACE_BUFFER_SIZE = 4096;
+	/** The maximum number of entries written before the trace writer is flushed */
+	private static final int BATCH_SIZE = 256;
+	/** The time in milliseconds the writer thread waits for new entries before it stops */
+	private static final int MAX_IDLE = 5000;
+	/** The time in milliseconds an interrupted tracing thread waits for room in the buffer before the entry is dropped */
+	private static final int INTERRUPTED_PUT_TIMEOUT = 1000;
+
+	/**
+	 * A buffered trace entry with the trace file at the time the entry was traced.
+	 */
+	private static final class TraceRecord {
+		final File traceFile;
+		final FrameworkDebugTraceEntry entry;
+		final CountDownLatch flushed;
+
+		TraceRecord(File traceFile, FrameworkDebugTraceEntry entry, CountDownLatch flushed) {
+			this.traceFile = traceFile;
+			this.entry = entry;
+			this.flushed = flushed;
+		}
+	}
+
+	private final FrameworkDebugOptions debugOptions;
+	private final BlockingQueue<TraceRecord> buffer;
+	/* @GuardedBy("this") */
+	private volatile boolean running = false;
+	/** The number of entries dropped since the last batch was written */
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	DebugTraceWriter(final FrameworkDebugOptions debugOptions) {
+
+		this.debugOptions = debugOptions;
+		readLogProperties();
+		int bufferSize = DEFAULT_TRACE_BUFFER_SIZE;
+		String newBufferSize = debugOptions.getConfiguration().getConfiguration(PROP_TRACE_BUFFER_SIZE);
+		if (newBufferSize != null) {
+			bufferSize = Integer.parseInt(newBufferSize);
+			if (bufferSize < 1) {
+				// Make sure no invalid assigned value. (at least >= 1)
+				bufferSize = DEFAULT_TRACE_BUFFER_SIZE;
+			}
+		}
+		this.buffer = new ArrayBlockingQueue<TraceRecord>(bufferSize);
+	}
+
+	/**
+	 * Adds the specified trace entry to the buffer of the writer thread.  Waits for room
+	 * in the buffer if it is full.  If the tracing thread is interrupted while waiting then
+	 * the entry is dropped unless room is available within a short time.
+	 * 
+	 * @param entry The trace entry to write
+	 */
+	void add(final FrameworkDebugTraceEntry entry) {
+
+		put(new TraceRecord(debugOptions.getFile(), entry, null));
+	}
+
+	/**
+	 * Waits until all the entries added before this call are written and flushed to the trace file.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds
+	 */
+	void flush(long timeout) {
+
+		if (!running && buffer.isEmpty()) {
+			// nothing was traced since the writer thread stopped
+			return;
+		}
+		CountDownLatch flushed = new CountDownLatch(1);
+		put(new TraceRecord(null, null, flushed));
+		try {
+			flushed.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void put(final TraceRecord record) {
+
+		if (!buffer.offer(record)) {
+			// the buffer is full; make sure a writer thread is draining it before waiting
+			if (!running) {
+				startWriter();
+			}
+			try {
+				buffer.put(record);
+			} catch (InterruptedException e) {
+				// give the writer thread a bounded time to make room before dropping the entry
+				try {
+					if (!buffer.offer(record, INTERRUPTED_PUT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+						dropped.incrementAndGet();
+					}
+				} catch (InterruptedException e1) {
+					dropped.incrementAndGet();
+				}
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!running) {
+			startWriter();
+		}
+	}
+
+	private synchronized void startWriter() {
+
+		if (running) {
+			return;
+		}
+		running = true;
+		Thread writerThread = new Thread("Equinox Trace Writer") { //$NON-NLS-1$
+			public void run() {
+				writeRecords();
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Stops the writer thread if no entries were added since the buffer was found empty.
+	 * 
+	 * @return true if the writer thread must stop
+	 */
+	private synchronized boolean stopWriter() {
+
+		running = false;
+		if (buffer.isEmpty()) {
+			return true;
+		}
+		// an entry was added before the running flag was cleared; keep writing
+		running = true;
+		return false;
+	}
+
+	/**
+	 * The main loop of the writer thread.
+	 */
+	void writeRecords() {
+
+		final List<TraceRecord> batch = new ArrayList<TraceRecord>(BATCH_SIZE);
+		File currentFile = null;
+		Writer traceWriter = null;
+		boolean stopped = false;
+		try {
+			while (true) {
+				TraceRecord first;
+				try {
+					first = buffer.poll(MAX_IDLE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					first = null;
+				}
+				if (first == null) {
+					if (stopWriter()) {
+						stopped = true;
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				buffer.drainTo(batch, BATCH_SIZE - 1);
+				synchronized (debugOptions.getWriteLock()) {
+					for (TraceRecord record : batch) {
+						if (record.entry == null) {
+							continue;
+						}
+						final File tracingFile = record.traceFile; // the tracing file may be null if it has not been set
+						try {
+							if (traceWriter != null && (tracingFile == null ? currentFile != null : !tracingFile.equals(currentFile))) {
+								// the trace file changed
+								closeWriter(traceWriter);
+								traceWriter = null;
+							}
+							if (traceWriter == null) {
+								// check to see if the file should be rotated
+								checkTraceFileSize(tracingFile, record.entry.getTimestamp());
+								// open the trace file
+								traceWriter = openWriter(tracingFile);
+								currentFile = tracingFile;
+							}
+							if (debugOptions.newSession()) {
+								writeSession(traceWriter, record.entry.getTimestamp());
+							}
+							writeMessage(traceWriter, record.entry);
+						} catch (Exception ex) {
+							// any exceptions during tracing should be caught 
+							System.err.println("An exception occurred while writing to the platform trace file: ");//$NON-NLS-1$
+							ex.printStackTrace(System.err);
+							closeWriter(traceWriter);
+							traceWriter = null;
+						}
+					}
+					if (traceWriter != null) {
+						try {
+							int numDropped = dropped.getAndSet(0);
+							if (numDropped > 0) {
+								writeComment(traceWriter, numDropped + " trace entries were dropped by interrupted threads"); //$NON-NLS-1$
+							}
+							// flush the writer once for each batch
+							traceWriter.flush();
+						} catch (IOException ioEx) {
+							ioEx.printStackTrace();
+						}
+						if (isTraceFileFull(currentFile)) {
+							// close the writer so the trace file can be rotated before the next entry
+							closeWriter(traceWriter);
+							traceWriter = null;
+						}
+					}
+				}
+				for (TraceRecord record : batch) {
+					if (record.flushed != null) {
+						record.flushed.countDown();
+					}
+				}
+				batch.clear();
+			}
+		} finally {
+			if (!stopped) {
+				// the writer thread died; let the next entry start a new one
+				synchronized (this) {
+					running = false;
+				}
+			}
+			synchronized (debugOptions.getWriteLock()) {
+				closeWriter(traceWriter);
+			}
+		}
+	}
+
+	/**
+	 * Reads the PROP_TRACE_SIZE_MAX and PROP_TRACE_FILE_MAX properties.
+	 */
+	private void readLogProperties() {
+
+		String newMaxTraceFileSize = debugOptions.getConfiguration().getConfiguration(PROP_TRACE_SIZE_MAX);
+		if (newMaxTraceFileSize != null) {
+			maxTraceFileSize = Integer.parseInt(newMaxTraceFileSize);
+			if (maxTraceFileSize != 0 && maxTraceFileSize < DEFAULT_TRACE_FILE_MIN_SIZE) {
+				// If the value is '0', then it means no size limitation.
+				// Also, make sure no inappropriate(too small) assigned value.
+				maxTraceFileSize = DEFAULT_TRACE_FILE_MIN_SIZE;
+			}
+		}
+
+		String newMaxLogFiles = debugOptions.getConfiguration().getConfiguration(PROP_TRACE_FILE_MAX);
+		if (newMaxLogFiles != null) {
+			maxTraceFiles = Integer.parseInt(newMaxLogFiles);
+			if (maxTraceFiles < 1) {
+				// Make sure no invalid assigned value. (at least >= 1)
+				maxTraceFiles = DEFAULT_TRACE_FILES;
+			}
+		}
+	}
+
+	/**
+	 * Checks the trace file size.  If the file size reaches the limit then the trace file is rotated. 
+	 * 
+	 * @param traceFile The tracing file
+	 * @param timestamp the timestamp for the session; this is the same timestamp as the first entry
+	 * @return false if an error occurred trying to rotate the trace file
+	 */
+	private boolean checkTraceFileSize(final File traceFile, long timestamp) {
+
+		boolean isBackupOK = true;
+		if (isTraceFileFull(traceFile)) {
+			final String traceFileName = traceFile.getAbsolutePath();
+
+			// Delete old backup file that will be replaced.
+			String backupFilename = ""; //$NON-NLS-1$
+			if (traceFileName.toLowerCase().endsWith(TRACE_FILE_EXTENSION)) {
+				backupFilename = traceFileName.substring(0, traceFileName.length() - TRACE_FILE_EXTENSION.length()) + BACKUP_MARK + backupTraceFileIndex + TRACE_FILE_EXTENSION;
+			} else {
+				backupFilename = traceFileName + BACKUP_MARK + backupTraceFileIndex;
+			}
+			final File backupFile = new File(backupFilename);
+			if (backupFile.exists()) {
+				if (!backupFile.delete()) {
+					System.err.println("Error when trying to delete old trace file: " + backupFile.getName());//$NON-NLS-1$ 
+					if (backupFile.renameTo(new File(backupFile.getAbsolutePath() + System.currentTimeMillis()))) {
+						System.err.println("So we rename it to filename: " + backupFile.getName()); //$NON-NLS-1$
+					} else {
+						System.err.println("And we also cannot rename it!"); //$NON-NLS-1$
+						isBackupOK = false;
+					}
+				}
+			}
+
+			// Rename current log file to backup one.
+			boolean isRenameOK = traceFile.renameTo(backupFile);
+			if (!isRenameOK) {
+				System.err.println("Error when trying to rename trace file to backup one."); //$NON-NLS-1$
+				isBackupOK = false;
+			}
+			/*
+			 * Write a header to new log file stating that this new file is a continuation file. 
+			 * This method should already be called with the file lock set so we should be safe 
+			 * to update it here.
+			*/
+			Writer traceWriter = null;
+			try {
+				traceWriter = openWriter(traceFile);
+				writeComment(traceWriter, "This is a continuation of trace file " + backupFile.getAbsolutePath()); //$NON-NLS-1$
+				writeComment(traceWriter, TRACE_FILE_VERSION_COMMENT + TRACE_FILE_VERSION);
+				writeComment(traceWriter, TRACE_FILE_VERBOSE_COMMENT + debugOptions.isVerbose());
+				writeComment(traceWriter, TRACE_FILE_DATE + getFormattedDate(timestamp));
+				traceWriter.flush();
+			} catch (IOException ioEx) {
+				ioEx.printStackTrace();
+			} finally {
+				closeWriter(traceWriter);
+			}
+			backupTraceFileIndex = (++backupTraceFileIndex) % maxTraceFiles;
+		}
+		return isBackupOK;
+	}
+
+	/**
+	 * Checks if the trace file reached the size limit.
+	 * 
+	 * @param traceFile The tracing file
+	 * @return true if the trace file must be rotated
+	 */
+	private boolean isTraceFileFull(final File traceFile) {
+
+		// 0 file size means there is no size limit
+		return maxTraceFileSize > 0 && traceFile != null && traceFile.exists() && (traceFile.length() >> 10) > maxTraceFileSize; // Use KB as file size unit.
+	}
+
+	/**
+	 * Writes a comment to the trace file
+	 *
+	 * @param traceWriter the trace writer
+	 * @param comment the comment to be written to the trace file
+	 * @throws IOException If an error occurs while writing the comment
+	 */
+	private void writeComment(final Writer traceWriter, final String comment) throws IOException {
+
+		StringBuffer commentText = new StringBuffer(TRACE_COMMENT);
+		commentText.append(" "); //$NON-NLS-1$
+		commentText.append(comment);
+		commentText.append(LINE_SEPARATOR);
+		traceWriter.write(commentText.toString());
+	}
+
+	/**
+	 * Accessor to retrieve the time stamp in a formatted manner.
+	 * 
+	 * @return A formatted time stamp based on the {@link DebugTraceWriter#TRACE_FILE_DATE_FORMATTER} formatter
+	 */
+	private final String getFormattedDate(long timestamp) {
+
+		return TRACE_FILE_DATE_FORMATTER.format(new Date(timestamp));
+	}
+
+	/**
+	 * Accessor to retrieve the text of a {@link Throwable} in a formatted manner so that it can be written to the
+	 * trace file. 
+	 * 
+	 * @param error The {@lnk Throwable} to format
+	 * @return The complete text of a {@link Throwable} as a {@link String} or null if the input error is null.
+	 */
+	private final String getFormattedThrowable(Throwable error) {
+
+		String result = null;
+		if (error != null) {
+			PrintStream throwableStream = null;
+			try {
+				ByteArrayOutputStream throwableByteOutputStream = new ByteArrayOutputStream();
+				throwableStream = new PrintStream(throwableByteOutputStream, false);
+				error.printStackTrace(throwableStream);
+				result = encodeText(throwableByteOutputStream.toString());
+			} finally {
+				if (throwableStream != null) {
+					throwableStream.close();
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes header information to a new trace file
+	 * 
+	 * @param traceWriter the trace writer
+	 * @param timestamp the timestamp for the session; this is the same timestamp as the first entry
+	 * @throws IOException If an error occurs while writing this session information 
+	 */
+	private void writeSession(final Writer traceWriter, long timestamp) throws IOException {
+
+		writeComment(traceWriter, TRACE_NEW_SESSION + this.getFormattedDate(timestamp));
+		writeComment(traceWriter, TRACE_FILE_VERSION_COMMENT + TRACE_FILE_VERSION);
+		writeComment(traceWriter, TRACE_FILE_VERBOSE_COMMENT + debugOptions.isVerbose());
+		writeComment(traceWriter, "The following option strings are specified for this debug session:"); //$NON-NLS-1$ 
+		final String[] allOptions = debugOptions.getAllOptions();
+		for (int i = 0; i < allOptions.length; i++) {
+			writeComment(traceWriter, "\t" + allOptions[i]); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Writes the specified trace entry object to the trace file using the 
+	 * {@link DebugTraceWriter#TRACE_ELEMENT_DELIMITER} as the delimiter between
+	 * each element of the entry.
+	 * 
+	 * @param traceWriter the trace writer
+	 * @param entry The trace entry object to write to the trace file
+	 * @throws IOException If an error occurs while writing this message
+	 */
+	private void writeMessage(final Writer traceWriter, final FrameworkDebugTraceEntry entry) throws IOException {
+
+		final StringBuffer message = new StringBuffer(TRACE_ELEMENT_DELIMITER);
+		message.append(" "); //$NON-NLS-1$
+		message.append(encodeText(entry.getThreadName()));
+		message.append(" "); //$NON-NLS-1$
+		message.append(TRACE_ELEMENT_DELIMITER);
+		message.append(" "); //$NON-NLS-1$
+		message.append(this.getFormattedDate(entry.getTimestamp()));
+		message.append(" "); //$NON-NLS-1$
+		message.append(TRACE_ELEMENT_DELIMITER);
+		message.append(" "); //$NON-NLS-1$
+		if (!debugOptions.isVerbose()) {
+			// format the trace entry for quiet tracing: only the thread name, timestamp, trace message, and exception (if necessary)
+			message.append(encodeText(entry.getMessage()));
+		} else {
+			// format the trace entry for verbose tracing
+			message.append(entry.getBundleSymbolicName());
+			message.append(" "); //$NON-NLS-1$
+			message.append(TRACE_ELEMENT_DELIMITER);
+			message.append(" "); //$NON-NLS-1$
+			message.append(encodeText(entry.getOptionPath()));
+			message.append(" "); //$NON-NLS-1$
+			message.append(TRACE_ELEMENT_DELIMITER);
+			message.append(" "); //$NON-NLS-1$
+			message.append(entry.getClassName());
+			message.append(" "); //$NON-NLS-1$
+			message.append(TRACE_ELEMENT_DELIMITER);
+			message.append(" "); //$NON-NLS-1$
+			message.append(entry.getMethodName());
+			message.append(" "); //$NON-NLS-1$
+			message.append(TRACE_ELEMENT_DELIMITER);
+			message.append(" "); //$NON-NLS-1$
+			message.append(entry.getLineNumber());
+			message.append(" "); //$NON-NLS-1$
+			message.append(TRACE_ELEMENT_DELIMITER);
+			message.append(" "); //$NON-NLS-1$
+			message.append(encodeText(entry.getMessage()));
+		}
+		if (entry.getThrowable() != null) {
+			message.append(" "); //$NON-NLS-1$
+			message.append(TRACE_ELEMENT_DELIMITER);
+			message.append(" "); //$NON-NLS-1$
+			message.append(this.getFormattedThrowable(entry.getThrowable()));
+		}
+		message.append(" "); //$NON-NLS-1$
+		message.append(TRACE_ELEMENT_DELIMITER);
+		message.append(LINE_SEPARATOR);
+		// write the message
+		if ((traceWriter != null) && (message != null)) {
+			traceWriter.write(message.toString());
+		}
+	}
+
+	/**
+	 * Encodes the specified string to replace any occurrence of the {@link DebugTraceWriter#TRACE_ELEMENT_DELIMITER}
+	 * string with the {@link DebugTraceWriter#TRACE_ELEMENT_DELIMITER_ENCODED}
+	 * string.  This can be used to ensure that the delimiter character does not break parsing when
+	 * the entry text contains the delimiter character. 
+	 * 
+	 * @param inputString The original string to be written to the trace file. 
+	 * @return The original input string with all occurrences of
+	 * {@link DebugTraceWriter#TRACE_ELEMENT_DELIMITER} replaced with 
+	 * {@link DebugTraceWriter#TRACE_ELEMENT_DELIMITER_ENCODED}. A <code>null</code> value will be
+	 * returned if the input string is <code>null</code>.
+	 */
+	private static String encodeText(final String inputString) {
+		if (inputString == null || inputString.indexOf(TRACE_ELEMENT_DELIMITER) < 0)
+			return inputString;
+		final StringBuffer tempBuffer = new StringBuffer(inputString);
+		int currentIndex = tempBuffer.indexOf(TRACE_ELEMENT_DELIMITER);
+		while (currentIndex >= 0) {
+			tempBuffer.replace(currentIndex, currentIndex + TRACE_ELEMENT_DELIMITER.length(), TRACE_ELEMENT_DELIMITER_ENCODED);
+			currentIndex = tempBuffer.indexOf(TRACE_ELEMENT_DELIMITER);
+		}
+		return tempBuffer.toString();
+	}
+
+	/**
+	 * Returns a Writer for the given OutputStream
+	 * @param output an OutputStream to use for the Writer
+	 * @return A Writer for the given OutputStream
+	 */
+	private Writer logForStream(OutputStream output) {
+
+		try {
+			return new BufferedWriter(new OutputStreamWriter(output, "UTF-8")); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			return new BufferedWriter(new OutputStreamWriter(output));
+		}
+	}
+
+	/**
+	 * Creates the trace writer.
+	 * If the tracing file is null then the writer will use System.out to print any messages.
+	 * 
+	 * @param traceFile The tracing file
+	 * @return Returns a new Writer object  
+	 */
+	private Writer openWriter(final File traceFile) {
+		OutputStream out = null;
+		if (traceFile != null) {
+			try {
+				out = secureAction.getFileOutputStream(traceFile, true);
+			} catch (IOException ioEx) {
+				// ignore and fall back to system.out; but print error message to indicate what happened
+				System.err.println("Unable to open trace file: " + traceFile + ": " + ioEx.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		if (out == null) {
+			out = new FilterOutputStream(System.out) {
+				/**
+				 * @throws IOException  
+				 */
+				public void close() throws IOException {
+					// We don't want to close System.out
+				}
+
+				public void write(byte[] var0, int var1, int var2) throws IOException {
+					this.out.write(var0, var1, var2);
+				}
+			};
+		}
+		return logForStream(out);
+	}
+
+	/**
+	 * Close the trace writer
+	 * 
+	 * @param traceWriter The trace writer
+	 */
+	private void closeWriter(Writer traceWriter) {
+
+		if (traceWriter != null) {
+			try {
+				traceWriter.close();
+			} catch (IOException ioEx) {
+				// we cannot log here; just print the stacktrace.
+				ioEx.printStackTrace();
+			}
+			traceWriter = null;
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2014 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -37,6 +37,8 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 
 	/** A lock object used to synchronize access to the trace file */
 	private final static Object writeLock = new Object();
+	/** The maximum time in milliseconds to wait for the trace entries to be written when stopping */
+	private static final long MAX_FLUSH_WAIT = 5000;
 	/** monitor used to lock the options maps */
 	private final Object lock = new Object();
 	/** A current map of all the options with values set */
@@ -52,11 +54,14 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 	/** A flag to determine if the message being written is done to a new file (i.e. should the header information be written) */
 	private boolean newSession = true;
 	private final EquinoxConfiguration environmentInfo;
+	/** Writes the trace entries to the trace file */
+	private final DebugTraceWriter traceWriter;
 	private volatile BundleContext context;
 	private volatile ServiceTracker<DebugOptionsListener, DebugOptionsListener> listenerTracker;
 
 	public FrameworkDebugOptions(EquinoxConfiguration environmentInfo) {
 		this.environmentInfo = environmentInfo;
+		this.traceWriter = new DebugTraceWriter(this);
 		// check if verbose debugging was set during initialization.  This needs to be set even if debugging is disabled
 		this.verboseDebug = Boolean.valueOf(environmentInfo.getConfiguration(OSGI_DEBUG_VERBOSE, Boolean.TRUE.toString())).booleanValue();
 		// if no debug option was specified, don't even bother to try.
@@ -112,6 +117,8 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 		listenerTracker.close();
 		listenerTracker = null;
 		this.context = null;
+		// make sure the trace entries are written before the framework stops
+		traceWriter.flush(MAX_FLUSH_WAIT);
 	}
 
 	@SuppressWarnings("deprecation")
@@ -447,6 +454,10 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 		return writeLock;
 	}
 
+	DebugTraceWriter getTraceWriter() {
+		return traceWriter;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.eclipse.osgi.service.debug.DebugOptions#getVerbose()
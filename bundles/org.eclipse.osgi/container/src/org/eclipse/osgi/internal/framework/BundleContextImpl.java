@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2013 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,8 @@ import java.io.*;
 import java.net.URLConnection;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
@@ -53,9 +55,9 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	final Debug debug;
 
 	/** Services that bundle is using. Key is ServiceRegistrationImpl,
-	 Value is ServiceUse */
+	 Value is ServiceUse. Read without holding the contextLock. */
 	/* @GuardedBy("contextLock") */
-	private HashMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse;
+	private volatile ConcurrentMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse;
 
 	/** The current instantiation of the activator. */
 	private BundleActivator activator;
@@ -859,10 +861,8 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	 * @return A map of ServiceRegistrationImpl to ServiceUse for services in use by 
 	 * this context.
 	 */
-	public Map<ServiceRegistrationImpl<?>, ServiceUse<?>> getServicesInUseMap() {
-		synchronized (contextLock) {
-			return servicesInUse;
-		}
+	public ConcurrentMap<ServiceRegistrationImpl<?>, ServiceUse<?>> getServicesInUseMap() {
+		return servicesInUse;
 	}
 
 	/**
@@ -873,7 +873,7 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 		synchronized (contextLock) {
 			if (servicesInUse == null)
 				// Cannot predict how many services a bundle will use, start with a small table.
-				servicesInUse = new HashMap<ServiceRegistrationImpl<?>, ServiceUse<?>>(10);
+				servicesInUse = new ConcurrentHashMap<ServiceRegistrationImpl<?>, ServiceUse<?>>(10);
 		}
 	}
 
@@ -886,6 +886,8 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	 * @param object Event object
 	 */
 	public void dispatchEvent(Object originalListener, Object l, int action, Object object) {
+		EquinoxEventMetrics metrics = container.getEventMetrics();
+		long start = metrics == null ? 0 : System.nanoTime();
 		Object previousTCCL = setContextFinder();
 		try {
 			// if context still valid or the system bundle
@@ -952,6 +954,8 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 		} finally {
 			if (previousTCCL != Boolean.FALSE)
 				Thread.currentThread().setContextClassLoader((ClassLoader) previousTCCL);
+			if (metrics != null)
+				metrics.record(bundle, EquinoxEventMetrics.getListenerType(action), System.nanoTime() - start);
 		}
 	}
 
@@ -98,6 +98,8 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 	public final boolean COPY_NATIVES;
 	public final List<String> ECLIPSE_NL_JAR_VARIANTS;
 	public final boolean DEFINE_PACKAGE_ATTRIBUTES;
+	public final boolean CLASSPATH_INDEX;
+	public final int LOADER_NEGATIVE_CACHE_SIZE;
 	public final boolean BUNDLE_SET_TCCL;
 
 	public final int BSN_VERSION;
@@ -171,10 +173,13 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 	public static final String PROP_FRAMEWORK_LIBRARY_EXTENSIONS = "osgi.framework.library.extensions"; //$NON-NLS-1$
 	public static final String PROP_COPY_NATIVES = "osgi.classloader.copy.natives"; //$NON-NLS-1$
 	public static final String PROP_DEFINE_PACKAGES = "osgi.classloader.define.packages"; //$NON-NLS-1$
+	public static final String PROP_CLASSPATH_INDEX = "equinox.classpath.index"; //$NON-NLS-1$
+	public static final String PROP_LOADER_NEGATIVE_CACHE_SIZE = "equinox.loader.negative.cache.size"; //$NON-NLS-1$
 	public static final String PROP_BUNDLE_SETTCCL = "eclipse.bundle.setTCCL"; //$NON-NLS-1$
 
 	public static final String PROP_EQUINOX_SECURITY = "eclipse.security"; //$NON-NLS-1$
 	public static final String PROP_FILE_LIMIT = "osgi.bundlefile.limit"; //$NON-NLS-1$
+	public static final String PROP_FILE_MAPPED = "equinox.bundlefile.mapped"; //$NON-NLS-1$
 
 	public final static String PROP_CLASS_CERTIFICATE_SUPPORT = "osgi.support.class.certificate"; //$NON-NLS-1$
 	public final static String PROP_CLASS_LOADER_TYPE = "osgi.classloader.type"; //$NON-NLS-1$
@@ -190,15 +195,28 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public static final String DEFAULT_STATE_SAVE_DELAY_INTERVAL = "30000"; //$NON-NLS-1$
 	public static final String PROP_STATE_SAVE_DELAY_INTERVAL = "eclipse.stateSaveDelayInterval"; //$NON-NLS-1$
+	public static final String DEFAULT_STORAGE_JOURNAL_LIMIT = "65536"; //$NON-NLS-1$
+	public static final String PROP_STORAGE_JOURNAL_LIMIT = "equinox.storage.journal.limit"; //$NON-NLS-1$
 
 	public static final String PROP_MODULE_LOCK_TIMEOUT = "osgi.module.lock.timeout"; //$NON-NLS-1$
 	public static final String PROP_MODULE_AUTO_START_ON_RESOLVE = "osgi.module.auto.start.on.resolve"; //$NON-NLS-1$
+	public static final String PROP_MODULE_REFRESH_INCREMENTAL = "equinox.module.refresh.incremental"; //$NON-NLS-1$
 	public static final String PROP_ALLOW_RESTRICTED_PROVIDES = "osgi.equinox.allow.restricted.provides"; //$NON-NLS-1$
 	public static final String PROP_LOG_HISTORY_MAX = "equinox.log.history.max"; //$NON-NLS-1$
+	public static final String PROP_LOG_LISTENER_QUEUE_MAX = "equinox.log.listener.queue.max"; //$NON-NLS-1$
 
 	public static final String PROP_RESOLVER_THREAD_COUNT = "equinox.resolver.thead.count"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_REVISION_BATCH_SIZE = "equinox.resolver.revision.batch.size"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_BATCH_TIMEOUT = "equinox.resolver.batch.timeout"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_CACHE_SIZE = "equinox.resolver.cache.size"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_PACKAGE_SPACE_CACHE_SIZE = "equinox.resolver.package.space.cache.size"; //$NON-NLS-1$
+
+	public static final String PROP_START_LEVEL_THREAD_COUNT = "equinox.start.level.thread.count"; //$NON-NLS-1$
+	public static final String PROP_EVENT_THREAD_COUNT = "equinox.event.thread.count"; //$NON-NLS-1$
+	public static final String PROP_EVENT_METRICS = "equinox.event.metrics"; //$NON-NLS-1$
+
+	public static final String PROP_SERVICE_INDEX_KEYS = "equinox.service.index.keys"; //$NON-NLS-1$
+	public static final String DEFAULT_SERVICE_INDEX_KEYS = "service.pid,component.name"; //$NON-NLS-1$
 
 	public static final String PROP_SYSTEM_PROVIDE_HEADER = "equinox.system.provide.header"; //$NON-NLS-1$
 	public static final String SYSTEM_PROVIDE_HEADER_ORIGINAL = "original"; //$NON-NLS-1$
@@ -551,6 +569,14 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 		ECLIPSE_LIB_VARIANTS = buildEclipseLibraryVariants(getWS(), getOS(), getOSArch(), getNL());
 		ECLIPSE_NL_JAR_VARIANTS = buildNLJarVariants(getNL());
 		DEFINE_PACKAGE_ATTRIBUTES = !"noattributes".equals(getConfiguration(PROP_DEFINE_PACKAGES)); //$NON-NLS-1$
+		CLASSPATH_INDEX = "true".equals(getConfiguration(PROP_CLASSPATH_INDEX, "true")); //$NON-NLS-1$ //$NON-NLS-2$
+		int negativeCacheSize;
+		try {
+			negativeCacheSize = Integer.parseInt(getConfiguration(PROP_LOADER_NEGATIVE_CACHE_SIZE, "256")); //$NON-NLS-1$
+		} catch (NumberFormatException e) {
+			negativeCacheSize = 256;
+		}
+		LOADER_NEGATIVE_CACHE_SIZE = negativeCacheSize;
 
 		String bsnVersion = getConfiguration(org.osgi.framework.Constants.FRAMEWORK_BSNVERSION);
 		if (org.osgi.framework.Constants.FRAMEWORK_BSNVERSION_SINGLE.equals(bsnVersion)) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2015 IBM Corporation and others.
+ * Copyright (c) 2012, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -47,6 +47,7 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 	private final String[] bootDelegationStems;
 	private final boolean bootDelegateAll;
 	private final EquinoxEventPublisher eventPublisher;
+	private final EquinoxEventMetrics eventMetrics;
 
 	private final Object monitor = new Object();
 
@@ -72,6 +73,7 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 		this.packageAdmin = new PackageAdminImpl(storage.getModuleContainer());
 		this.startLevel = new StartLevelImpl(storage.getModuleContainer());
 		this.eventPublisher = new EquinoxEventPublisher(this);
+		this.eventMetrics = "true".equals(equinoxConfig.getConfiguration(EquinoxConfiguration.PROP_EVENT_METRICS)) ? new EquinoxEventMetrics(this) : null; //$NON-NLS-1$
 
 		// set the boot delegation according to the osgi boot delegation property
 		// TODO unfortunately this has to be done after constructing storage so the vm profile is loaded
@@ -115,6 +117,14 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 		return logServices;
 	}
 
+	/**
+	 * Returns the event metrics of the framework.
+	 * @return the event metrics or <code>null</code> if event metrics are not enabled
+	 */
+	public EquinoxEventMetrics getEventMetrics() {
+		return eventMetrics;
+	}
+
 	public PackageAdmin getPackageAdmin() {
 		return packageAdmin;
 	}
@@ -40,6 +40,8 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 
 	final AtomicLazyInitializer<Executor> executor = new AtomicLazyInitializer<Executor>();
 	final Callable<Executor> lazyExecutorCreator;
+	final AtomicLazyInitializer<Executor> startLevelExecutor = new AtomicLazyInitializer<Executor>();
+	final Callable<Executor> lazyStartLevelExecutorCreator;
 
 	public EquinoxContainerAdaptor(EquinoxContainer container, Storage storage, Map<Long, Generation> initial) {
 		this.container = container;
@@ -49,6 +51,7 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		this.moduleClassLoaderParent = getModuleClassLoaderParent(container.getConfiguration());
 		this.lastSecurityAdminFlush = new AtomicLong();
 		this.lazyExecutorCreator = createLazyExecutorCreator(container.getConfiguration());
+		this.lazyStartLevelExecutorCreator = createLazyStartLevelExecutorCreator(container.getConfiguration());
 	}
 
 	private Callable<Executor> createLazyExecutorCreator(EquinoxConfiguration config) {
@@ -99,6 +102,40 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		};
 	}
 
+	private Callable<Executor> createLazyStartLevelExecutorCreator(EquinoxConfiguration config) {
+		String threadCntProp = config.getConfiguration(EquinoxConfiguration.PROP_START_LEVEL_THREAD_COUNT);
+		int threadCntTmp;
+		try {
+			threadCntTmp = threadCntProp == null ? 1 : Integer.parseInt(threadCntProp);
+		} catch (NumberFormatException e) {
+			threadCntTmp = 1;
+		}
+		if (threadCntTmp <= 1) {
+			// modules are started one at a time on the start level thread
+			return null;
+		}
+		final int maxThreads = threadCntTmp;
+		return new Callable<Executor>() {
+			@Override
+			public Executor call() throws Exception {
+				// try to name the threads with useful name
+				ThreadFactory threadFactory = new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Start Level thread - " + EquinoxContainerAdaptor.this.toString()); //$NON-NLS-1$
+						t.setDaemon(true);
+						return t;
+					}
+				};
+				// bounded number of threads; extra tasks wait in the queue
+				ThreadPoolExecutor result = new ThreadPoolExecutor(maxThreads, maxThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+				// go to zero threads when the start level is not changing
+				result.allowCoreThreadTimeOut(true);
+				return result;
+			}
+		};
+	}
+
 	private static ClassLoader getModuleClassLoaderParent(EquinoxConfiguration configuration) {
 		// allow hooks to determine the parent class loader
 		for (ClassLoaderHook hook : configuration.getHookRegistry().getClassLoaderHooks()) {
@@ -141,6 +178,11 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		return hooks.getResolverHookFactory();
 	}
 
+	@Override
+	public String getResolverHookConfiguration() {
+		return hooks.getResolverHookConfiguration();
+	}
+
 	@Override
 	public void publishContainerEvent(ContainerEvent type, Module module, Throwable error, FrameworkListener... listeners) {
 		EquinoxEventPublisher publisher = container.getEventPublisher();
@@ -333,4 +375,19 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 			((ExecutorService) current).shutdown();
 		}
 	}
+
+	@Override
+	public Executor getStartLevelExecutor() {
+		if (lazyStartLevelExecutorCreator == null) {
+			return null;
+		}
+		return startLevelExecutor.getInitialized(lazyStartLevelExecutorCreator);
+	}
+
+	public void shutdownStartLevelExecutor() {
+		Executor current = startLevelExecutor.getAndClear();
+		if (current instanceof ExecutorService) {
+			((ExecutorService) current).shutdown();
+		}
+	}
 }
\ No newline at end of file
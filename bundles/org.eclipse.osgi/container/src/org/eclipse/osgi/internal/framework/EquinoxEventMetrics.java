@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.framework;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+import org.eclipse.osgi.framework.eventmgr.EventManager.DispatchLatency;
+import org.eclipse.osgi.internal.serviceregistry.ServiceRegistry;
+import org.eclipse.osgi.service.debug.EventMetrics;
+import org.osgi.framework.Bundle;
+
+/**
+ * Records the time spent delivering events to listeners and calling hook services.
+ * Times are recorded without locking in a histogram for each bundle and type of
+ * listener or hook service.  The framework only creates an instance when the
+ * {@link EquinoxConfiguration#PROP_EVENT_METRICS} configuration property is true.
+ * 
+ * @ThreadSafe
+ */
+public final class EquinoxEventMetrics implements EventMetrics {
+	private static final long[] HISTOGRAM_LIMITS = {TimeUnit.MICROSECONDS.toNanos(10), TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.SECONDS.toNanos(1)};
+	private static final String[] HISTOGRAM_LABELS = {"<10us", "<100us", "<1ms", "<10ms", "<100ms", "<1s", ">=1s"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	private static final int MAX_SLOW_LISTENERS = 10;
+
+	static final class Times implements DispatchTimes {
+		private final Bundle bundle;
+		private final String type;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalTime = new AtomicLong();
+		private final AtomicLong maxTime = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_LIMITS.length + 1);
+
+		Times(Bundle bundle, String type) {
+			this.bundle = bundle;
+			this.type = type;
+		}
+
+		Times(Times times) {
+			this(times.bundle, times.type);
+			count.set(times.count.get());
+			totalTime.set(times.totalTime.get());
+			maxTime.set(times.maxTime.get());
+			for (int i = 0; i < histogram.length(); i++) {
+				histogram.set(i, times.histogram.get(i));
+			}
+		}
+
+		void record(long time) {
+			count.incrementAndGet();
+			totalTime.addAndGet(time);
+			long currentMax;
+			while (time > (currentMax = maxTime.get())) {
+				if (maxTime.compareAndSet(currentMax, time)) {
+					break;
+				}
+			}
+			int bucket = 0;
+			while (bucket < HISTOGRAM_LIMITS.length && time >= HISTOGRAM_LIMITS[bucket]) {
+				bucket++;
+			}
+			histogram.incrementAndGet(bucket);
+		}
+
+		public Bundle getBundle() {
+			return bundle;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalTime() {
+			return totalTime.get();
+		}
+
+		public long getMaxTime() {
+			return maxTime.get();
+		}
+
+		public long[] getHistogram() {
+			long[] result = new long[histogram.length()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = histogram.get(i);
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return bundle + " " + type + " count=" + getCount() + ", total=" + toMillis(getTotalTime()) + "ms, max=" + toMillis(getMaxTime()) + "ms " + Arrays.toString(getHistogram()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		}
+	}
+
+	private final EquinoxContainer container;
+	private final ConcurrentMap<Bundle, ConcurrentMap<String, Times>> times = new ConcurrentHashMap<Bundle, ConcurrentMap<String, Times>>();
+
+	EquinoxEventMetrics(EquinoxContainer container) {
+		this.container = container;
+	}
+
+	/**
+	 * Records the time spent calling a listener or hook service.
+	 * @param bundle the bundle which registered the listener or hook service, may be <code>null</code>
+	 * if the hook service was unregistered
+	 * @param type the simple name of the listener or hook service interface
+	 * @param time the time in nanoseconds
+	 */
+	public void record(Bundle bundle, String type, long time) {
+		if (bundle == null) {
+			return;
+		}
+		ConcurrentMap<String, Times> bundleTimes = times.get(bundle);
+		if (bundleTimes == null) {
+			bundleTimes = new ConcurrentHashMap<String, Times>(4);
+			ConcurrentMap<String, Times> existing = times.putIfAbsent(bundle, bundleTimes);
+			if (existing != null) {
+				bundleTimes = existing;
+			}
+		}
+		Times typeTimes = bundleTimes.get(type);
+		if (typeTimes == null) {
+			typeTimes = new Times(bundle, type);
+			Times existing = bundleTimes.putIfAbsent(type, typeTimes);
+			if (existing != null) {
+				typeTimes = existing;
+			}
+		}
+		typeTimes.record(time);
+	}
+
+	public long[] getHistogramLimits() {
+		return HISTOGRAM_LIMITS.clone();
+	}
+
+	public Collection<DispatchTimes> getDispatchTimes() {
+		List<DispatchTimes> result = new ArrayList<DispatchTimes>();
+		for (ConcurrentMap<String, Times> bundleTimes : times.values()) {
+			for (Times typeTimes : bundleTimes.values()) {
+				result.add(new Times(typeTimes));
+			}
+		}
+		return result;
+	}
+
+	public int getQueuedEventCount() {
+		return container.getEventPublisher().getQueueSize();
+	}
+
+	public int getMaxQueuedEventCount() {
+		return container.getEventPublisher().getMaxQueueSize();
+	}
+
+	public void reset() {
+		times.clear();
+	}
+
+	CommandProvider getCommandProvider() {
+		return new CommandProvider() {
+			public String getHelp() {
+				return "---Event metrics---\n\teventmetrics [reset] - display or reset the time spent delivering events to listeners and calling hooks\n"; //$NON-NLS-1$
+			}
+
+			public void _eventmetrics(CommandInterpreter intp) {
+				if ("reset".equals(intp.nextArgument())) { //$NON-NLS-1$
+					reset();
+					return;
+				}
+				intp.print(EquinoxEventMetrics.this);
+			}
+		};
+	}
+
+	static String getListenerType(int action) {
+		switch (action) {
+			case EquinoxEventPublisher.BUNDLEEVENT :
+				return "BundleListener"; //$NON-NLS-1$
+			case EquinoxEventPublisher.BUNDLEEVENTSYNC :
+				return "SynchronousBundleListener"; //$NON-NLS-1$
+			case ServiceRegistry.SERVICEEVENT :
+				return "ServiceListener"; //$NON-NLS-1$
+			case EquinoxEventPublisher.FRAMEWORKEVENT :
+				return "FrameworkListener"; //$NON-NLS-1$
+			default :
+				return "Unknown"; //$NON-NLS-1$
+		}
+	}
+
+	static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	@Override
+	public String toString() {
+		List<DispatchTimes> sorted = new ArrayList<DispatchTimes>(getDispatchTimes());
+		Collections.sort(sorted, new Comparator<DispatchTimes>() {
+			public int compare(DispatchTimes t1, DispatchTimes t2) {
+				return t1.getTotalTime() < t2.getTotalTime() ? 1 : (t1.getTotalTime() == t2.getTotalTime() ? 0 : -1);
+			}
+		});
+		StringBuilder result = new StringBuilder();
+		result.append("Event dispatch times by bundle and type, histogram ").append(Arrays.toString(HISTOGRAM_LABELS)).append('\n'); //$NON-NLS-1$
+		for (DispatchTimes dispatchTimes : sorted) {
+			result.append('\t').append(dispatchTimes).append('\n');
+		}
+		result.append("Queued asynchronous events: ").append(getQueuedEventCount()).append(" (max ").append(getMaxQueuedEventCount()).append(")\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		List<Map.Entry<Object, DispatchLatency>> latencies = new ArrayList<Map.Entry<Object, DispatchLatency>>(container.getEventPublisher().getDispatchLatencies().entrySet());
+		Collections.sort(latencies, new Comparator<Map.Entry<Object, DispatchLatency>>() {
+			public int compare(Map.Entry<Object, DispatchLatency> l1, Map.Entry<Object, DispatchLatency> l2) {
+				long max1 = l1.getValue().getMaxTime();
+				long max2 = l2.getValue().getMaxTime();
+				return max1 < max2 ? 1 : (max1 == max2 ? 0 : -1);
+			}
+		});
+		result.append("Slowest asynchronous listeners:\n"); //$NON-NLS-1$
+		for (Map.Entry<Object, DispatchLatency> latency : latencies.subList(0, Math.min(MAX_SLOW_LISTENERS, latencies.size()))) {
+			result.append('\t').append(latency.getKey().getClass().getName()).append('@').append(Integer.toHexString(System.identityHashCode(latency.getKey()))).append(' ').append(latency.getValue()).append('\n');
+		}
+		return result.toString();
+	}
+}
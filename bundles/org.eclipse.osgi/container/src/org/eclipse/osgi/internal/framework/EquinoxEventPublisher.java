@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2013 IBM Corporation and others.
+ * Copyright (c) 2012, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,9 +13,9 @@ package org.eclipse.osgi.internal.framework;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.osgi.framework.eventmgr.*;
+import org.eclipse.osgi.framework.eventmgr.EventManager.DispatchLatency;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.serviceregistry.*;
 import org.osgi.framework.*;
@@ -59,7 +59,16 @@ public class EquinoxEventPublisher {
 
 	void init() {
 		// create our event manager on init()
-		resetEventManager(new EventManager("Framework Event Dispatcher: " + toString())); //$NON-NLS-1$
+		String threadCountProp = container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_EVENT_THREAD_COUNT);
+		int threadCount;
+		try {
+			threadCount = threadCountProp == null ? 1 : Integer.parseInt(threadCountProp);
+		} catch (NumberFormatException e) {
+			threadCount = 1;
+		}
+		// the dispatch latency of the listeners is only needed for the event metrics
+		boolean recordLatencies = "true".equals(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_EVENT_METRICS)); //$NON-NLS-1$
+		resetEventManager(new EventManager("Framework Event Dispatcher: " + toString(), null, threadCount, recordLatencies)); //$NON-NLS-1$
 	}
 
 	void close() {
@@ -90,6 +99,24 @@ public class EquinoxEventPublisher {
 		}
 	}
 
+	int getQueueSize() {
+		synchronized (this.monitor) {
+			return eventManager == null ? 0 : eventManager.getQueueSize();
+		}
+	}
+
+	int getMaxQueueSize() {
+		synchronized (this.monitor) {
+			return eventManager == null ? 0 : eventManager.getMaxQueueSize();
+		}
+	}
+
+	Map<Object, DispatchLatency> getDispatchLatencies() {
+		synchronized (this.monitor) {
+			return eventManager == null ? Collections.<Object, DispatchLatency> emptyMap() : eventManager.getDispatchLatencies();
+		}
+	}
+
 	private boolean isEventManagerSet() {
 		synchronized (this.monitor) {
 			return eventManager != null;
@@ -417,24 +444,16 @@ public class EquinoxEventPublisher {
 	}
 
 	void flushFrameworkEvents() {
-		EventDispatcher<Object, Object, CountDownLatch> dispatcher = new EventDispatcher<Object, Object, CountDownLatch>() {
-			@Override
-			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, CountDownLatch flushedSignal) {
-				// Signal that we have flushed all events
-				flushedSignal.countDown();
-			}
-		};
-
-		ListenerQueue<Object, Object, CountDownLatch> queue = newListenerQueue();
-		queue.queueListeners(Collections.<Object, Object> singletonMap(dispatcher, dispatcher).entrySet(), dispatcher);
-
-		// fire event with the flushedSignal latch
-		CountDownLatch flushedSignal = new CountDownLatch(1);
-		queue.dispatchEventAsynchronous(0, flushedSignal);
-
+		EventManager currentEventManager;
+		synchronized (this.monitor) {
+			currentEventManager = eventManager;
+		}
+		if (currentEventManager == null) {
+			return;
+		}
 		try {
-			// Wait for the flush signal; timeout after 30 seconds
-			flushedSignal.await(30, TimeUnit.SECONDS);
+			// Wait for the queued events to be delivered; timeout after 30 seconds
+			currentEventManager.flush(TimeUnit.SECONDS.toMillis(30));
 		} catch (InterruptedException e) {
 			// ignore but reset the interrupted flag
 			Thread.currentThread().interrupt();
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.framework;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * A bounded cache of parsed filters keyed by filter string. Since
+ * {@link FilterImpl} objects are immutable a parsed filter can be shared
+ * by all callers which create a filter from the same filter string.
+ * Filter strings which differ only by insignificant white space share the
+ * same parsed filter by also caching the filter under its normalized
+ * filter string.
+ * <p>
+ * When the cache is full the oldest entries are evicted first.
+ * <p>
+ * Filters are created by static methods such as
+ * {@link org.osgi.framework.FrameworkUtil#createFilter(String)} and while parsing
+ * requirements, without any framework instance, so a single cache is shared by all
+ * the frameworks launched in the same VM.  Its size is therefore configured with the
+ * {@link #PROP_FILTER_CACHE_SIZE} Java system property and not with the configuration
+ * of a framework.
+ *
+ * @ThreadSafe
+ */
+public final class FilterCache {
+	/**
+	 * The Java system property used to configure the maximum number of cached filter
+	 * strings for the VM.  The property is read once when the filter cache is first
+	 * used; a value of 0 disables the cache.  Framework configuration properties
+	 * are not consulted.
+	 */
+	public static final String PROP_FILTER_CACHE_SIZE = "equinox.filter.cache.size"; //$NON-NLS-1$
+	static final int DEFAULT_FILTER_CACHE_SIZE = 1024;
+
+	private final int maxSize;
+	private final ConcurrentMap<String, FilterImpl> filters = new ConcurrentHashMap<String, FilterImpl>();
+	/* filter strings in insertion order used for eviction */
+	private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<String>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	FilterCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	static FilterCache create() {
+		int size = DEFAULT_FILTER_CACHE_SIZE;
+		try {
+			String sizeProp = System.getProperty(PROP_FILTER_CACHE_SIZE);
+			if (sizeProp != null) {
+				size = Integer.parseInt(sizeProp.trim());
+			}
+		} catch (NumberFormatException e) {
+			// use the default
+		} catch (SecurityException e) {
+			// use the default
+		}
+		return new FilterCache(size);
+	}
+
+	/**
+	 * Returns the parsed filter for the specified filter string from the
+	 * cache, parsing and caching the filter if it is not already cached.
+	 *
+	 * @param filterString the filter string
+	 * @return the parsed filter
+	 * @throws InvalidSyntaxException if the filter string is invalid
+	 */
+	FilterImpl getFilter(String filterString) throws InvalidSyntaxException {
+		if (maxSize <= 0) {
+			return FilterImpl.parse(filterString, false);
+		}
+		FilterImpl result = filters.get(filterString);
+		if (result != null) {
+			hits.incrementAndGet();
+			return result;
+		}
+		misses.incrementAndGet();
+		result = FilterImpl.parse(filterString, false);
+		String normalized = result.toString();
+		if (!normalized.equals(filterString)) {
+			// share the object graph with filters which only differ by white space
+			FilterImpl existing = putIfAbsent(normalized, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		FilterImpl existing = putIfAbsent(filterString, result);
+		return existing != null ? existing : result;
+	}
+
+	private FilterImpl putIfAbsent(String filterString, FilterImpl filter) {
+		FilterImpl existing = filters.putIfAbsent(filterString, filter);
+		if (existing == null) {
+			insertionOrder.add(filterString);
+			while (filters.size() > maxSize) {
+				String eldest = insertionOrder.poll();
+				if (eldest == null) {
+					break;
+				}
+				if (filters.remove(eldest) != null) {
+					evictions.incrementAndGet();
+				}
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Returns the maximum number of filter strings cached.
+	 * @return the maximum number of filter strings cached
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of filter strings currently cached.
+	 * @return the number of filter strings currently cached
+	 */
+	public int size() {
+		return filters.size();
+	}
+
+	/**
+	 * Returns the number of times a filter was found in the cache.
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of times a filter had to be parsed.
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of filter strings evicted from the cache.
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Removes all filters from the cache. The counters are not reset.
+	 */
+	public void clear() {
+		filters.clear();
+		insertionOrder.clear();
+	}
+
+	public String toString() {
+		return "FilterCache[size=" + size() + ", maxSize=" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+}
@@ -125,6 +125,9 @@ import org.osgi.framework.*;
  */
 
 public class FilterImpl implements Filter /* since Framework 1.1 */ {
+	/** cache of parsed filters shared by all non-debug filters of all frameworks in the VM */
+	private static final FilterCache cache = FilterCache.create();
+
 	/* public methods in org.osgi.framework.Filter */
 
 	/**
@@ -143,10 +146,35 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 		return newInstance(filterString, false);
 	}
 
+	/**
+	 * Constructs a {@link FilterImpl} object. Filters which are not in debug mode
+	 * are obtained from the filter cache so that repeated calls with the same filter
+	 * string return the same immutable filter without parsing the string again.
+	 *
+	 * @param filterString the filter string.
+	 * @param debug true if the filter should print debug output.
+	 * @exception InvalidSyntaxException If the filter parameter contains
+	 * an invalid filter string that cannot be parsed.
+	 */
 	public static FilterImpl newInstance(String filterString, boolean debug) throws InvalidSyntaxException {
+		if (debug) {
+			return parse(filterString, true);
+		}
+		return cache.getFilter(filterString);
+	}
+
+	static FilterImpl parse(String filterString, boolean debug) throws InvalidSyntaxException {
 		return new Parser(filterString, debug).parse();
 	}
 
+	/**
+	 * Returns the cache of parsed filters.
+	 * @return the cache of parsed filters.
+	 */
+	public static FilterCache getFilterCache() {
+		return cache;
+	}
+
 	/**
 	 * Filter using a service's properties.
 	 * <p>
@@ -200,8 +228,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 	public boolean matchCase(Dictionary<String, ?> dictionary) {
 		switch (op) {
 			case AND : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (!f.matchCase(dictionary)) {
 						return false;
 					}
@@ -211,8 +238,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 
 			case OR : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (f.matchCase(dictionary)) {
 						return true;
 					}
@@ -266,8 +292,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 	public boolean matches(Map<String, ?> map) {
 		switch (op) {
 			case AND : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (!f.matches(map)) {
 						return false;
 					}
@@ -277,8 +302,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 
 			case OR : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (f.matches(map)) {
 						return true;
 					}
@@ -486,15 +510,63 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 	private final Object value;
 	/** debug mode */
 	private final boolean debug;
+	/** estimated cost of evaluating this filter */
+	private final int cost;
+	/** filter operands of an AND or OR operation ordered by ascending cost or null for other operations */
+	private final FilterImpl[] evaluationOrder;
 
 	/* normalized filter string for topLevel Filter object */
 	private transient volatile String filterString;
+	/* the filter value converted for the most recently compared property type */
+	private transient volatile ConvertedValue convertedValue;
 
 	FilterImpl(int operation, String attr, Object value, boolean debug) {
 		this.op = operation;
 		this.attr = attr;
 		this.value = value;
 		this.debug = debug;
+		switch (operation) {
+			case AND :
+			case OR : {
+				FilterImpl[] filters = (FilterImpl[]) value;
+				FilterImpl[] ordered = filters.clone();
+				/* evaluate the cheapest operands first to short circuit as early as possible;
+				 * the sort is stable so operands of equal cost keep their order */
+				Arrays.sort(ordered, new Comparator<FilterImpl>() {
+					public int compare(FilterImpl f1, FilterImpl f2) {
+						return f1.cost < f2.cost ? -1 : (f1.cost == f2.cost ? 0 : 1);
+					}
+				});
+				int total = 1;
+				for (FilterImpl f : filters) {
+					total += f.cost;
+				}
+				this.cost = total;
+				this.evaluationOrder = ordered;
+				break;
+			}
+			case NOT :
+				this.cost = ((FilterImpl) value).cost + 1;
+				this.evaluationOrder = null;
+				break;
+			case PRESENT :
+				this.cost = 1;
+				this.evaluationOrder = null;
+				break;
+			case EQUAL :
+				this.cost = 2;
+				this.evaluationOrder = null;
+				break;
+			case SUBSTRING :
+				this.cost = 4;
+				this.evaluationOrder = null;
+				break;
+			default :
+				/* APPROX, GREATER and LESS */
+				this.cost = 3;
+				this.evaluationOrder = null;
+				break;
+		}
 	}
 
 	/**
@@ -814,12 +886,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		int intval2;
-		try {
-			intval2 = Integer.parseInt(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object converted = convertValue(Integer.class, value2);
+		if (converted == null) {
 			return false;
 		}
+		int intval2 = ((Integer) converted).intValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -858,12 +929,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		long longval2;
-		try {
-			longval2 = Long.parseLong(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object converted = convertValue(Long.class, value2);
+		if (converted == null) {
 			return false;
 		}
+		long longval2 = ((Long) converted).longValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -902,12 +972,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		byte byteval2;
-		try {
-			byteval2 = Byte.parseByte(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object converted = convertValue(Byte.class, value2);
+		if (converted == null) {
 			return false;
 		}
+		byte byteval2 = ((Byte) converted).byteValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -946,12 +1015,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		short shortval2;
-		try {
-			shortval2 = Short.parseShort(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object converted = convertValue(Short.class, value2);
+		if (converted == null) {
 			return false;
 		}
+		short shortval2 = ((Short) converted).shortValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1073,12 +1141,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		float floatval2;
-		try {
-			floatval2 = Float.parseFloat(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object converted = convertValue(Float.class, value2);
+		if (converted == null) {
 			return false;
 		}
+		float floatval2 = ((Float) converted).floatValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1117,12 +1184,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		double doubleval2;
-		try {
-			doubleval2 = Double.parseDouble(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object converted = convertValue(Double.class, value2);
+		if (converted == null) {
 			return false;
 		}
+		double doubleval2 = ((Double) converted).doubleValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1153,6 +1219,64 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 		return false;
 	}
 
+	/* property types loaded by the boot or framework class loader whose converted values may be cached */
+	private static final Set<Class<?>> CACHEABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(String.class, Integer.class, Long.class, Byte.class, Short.class, Float.class, Double.class, Character.class, Boolean.class, java.math.BigInteger.class, java.math.BigDecimal.class, Version.class));
+
+	/**
+	 * Returns the filter value converted to the specified property type. The
+	 * conversion for the most recently compared type is cached so that repeated
+	 * matches against properties of the same type do not parse the filter value again.
+	 * 
+	 * @param target The type of the property value.
+	 * @param value2 The filter value of this filter.
+	 * @return The converted value or <code>null</code> if the filter value cannot be
+	 * converted to the specified type.
+	 */
+	private Object convertValue(Class<?> target, Object value2) {
+		if (value2 != value) {
+			return parseValue(target, (String) value2);
+		}
+		ConvertedValue cached = convertedValue;
+		if ((cached != null) && (cached.type == target)) {
+			return cached.value;
+		}
+		Object result = parseValue(target, (String) value2);
+		if (CACHEABLE_TYPES.contains(target)) {
+			/* only cache types which cannot pin a bundle class loader since filters are shared in the filter cache */
+			convertedValue = new ConvertedValue(target, result);
+		}
+		return result;
+	}
+
+	private static Object parseValue(Class<?> target, String value2) {
+		try {
+			if (target == Integer.class) {
+				return Integer.valueOf(value2.trim());
+			}
+			if (target == Long.class) {
+				return Long.valueOf(value2.trim());
+			}
+			if (target == Byte.class) {
+				return Byte.valueOf(value2.trim());
+			}
+			if (target == Short.class) {
+				return Short.valueOf(value2.trim());
+			}
+			if (target == Float.class) {
+				return Float.valueOf(value2.trim());
+			}
+			if (target == Double.class) {
+				return Double.valueOf(value2.trim());
+			}
+			if (target == Version.class) {
+				return Version.valueOf(value2.trim());
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return valueOf(target, value2);
+	}
+
 	private static Object valueOf(Class<?> target, String value2) {
 		do {
 			Method method;
@@ -1208,9 +1332,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 			return false;
 		}
+		Version version = (Version) convertValue(Version.class, value2);
+		if (version == null) {
+			return false;
+		}
 		try {
-			Version version = Version.valueOf(((String) value2).trim());
-
 			switch (operation) {
 				case EQUAL : {
 					if (debug) {
@@ -1251,7 +1377,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 			return false;
 		}
-		value2 = valueOf(value1.getClass(), (String) value2);
+		value2 = convertValue(value1.getClass(), value2);
 		if (value2 == null) {
 			return false;
 		}
@@ -1297,7 +1423,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 			return false;
 		}
-		value2 = valueOf(value1.getClass(), (String) value2);
+		value2 = convertValue(value1.getClass(), value2);
 		if (value2 == null) {
 			return false;
 		}
@@ -1800,6 +1926,19 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 		}
 	}
 
+	/**
+	 * The filter value converted to a property type.
+	 */
+	private static final class ConvertedValue {
+		final Class<?> type;
+		final Object value;
+
+		ConvertedValue(Class<?> type, Object value) {
+			this.type = type;
+			this.value = value;
+		}
+	}
+
 	private static class SetAccessibleAction implements PrivilegedAction<Void> {
 		private final AccessibleObject accessible;
 
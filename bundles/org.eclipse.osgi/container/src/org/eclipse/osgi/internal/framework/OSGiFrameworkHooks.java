@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2013 IBM Corporation and others.
+ * Copyright (c) 2012, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -42,6 +42,10 @@ class OSGiFrameworkHooks {
 		return resolverHookFactory;
 	}
 
+	public String getResolverHookConfiguration() {
+		return resolverHookFactory.getConfiguration();
+	}
+
 	public ModuleCollisionHook getModuleCollisionHook() {
 		return collisionHook;
 	}
@@ -181,6 +185,46 @@ class OSGiFrameworkHooks {
 
 		}
 
+		/**
+		 * Returns a description of the registered resolver hook factories which
+		 * is stable across restarts of the framework.  Each factory registered by the
+		 * system bundle is described by the last modified time of the system bundle
+		 * and its service ranking.  Resolver hook factories registered by other bundles
+		 * may change how they filter at any time without changing their registration,
+		 * for example according to state they keep; no description is returned if any
+		 * such factory is registered.
+		 * @return the resolver hook configuration, or <code>null</code> if a resolver
+		 * hook factory is registered by a bundle other than the system bundle
+		 */
+		String getConfiguration() {
+			ModuleContainer mContainer = storage.getModuleContainer();
+			Module systemModule = mContainer == null ? null : mContainer.getModule(0);
+			StringBuilder result = new StringBuilder(isBootInit(systemModule) ? "init" : "running"); //$NON-NLS-1$ //$NON-NLS-2$
+			ServiceRegistry registry = container.getServiceRegistry();
+			if (registry == null || systemModule == null) {
+				return result.toString();
+			}
+			BundleContextImpl context = (BundleContextImpl) EquinoxContainer.secureAction.getContext(systemModule.getBundle());
+			ServiceReferenceImpl<ResolverHookFactory>[] refs = getHookReferences(registry, context);
+			if (refs != null) {
+				for (ServiceReferenceImpl<ResolverHookFactory> hookRef : refs) {
+					Bundle bundle = hookRef.getBundle();
+					if (bundle != null) {
+						if (bundle.getBundleId() != 0) {
+							// the behavior of hooks from other bundles cannot be described
+							return null;
+						}
+						result.append(';').append(bundle.getBundleId()).append(':').append(bundle.getLastModified()).append(':').append(hookRef.getProperty(Constants.SERVICE_RANKING));
+					}
+				}
+			}
+			return result.toString();
+		}
+
+		boolean isBootInit(Module systemModule) {
+			return systemModule == null || !Module.RESOLVED_SET.contains(systemModule.getState()) || (systemModule.getState().equals(State.STARTING) && inInit);
+		}
+
 		public ResolverHook begin(Collection<BundleRevision> triggers) {
 			if (debug.DEBUG_HOOKS) {
 				Debug.println("ResolverHook.begin"); //$NON-NLS-1$
@@ -266,7 +310,7 @@ class OSGiFrameworkHooks {
 			}
 
 			private boolean isBootInit() {
-				return systemModule == null || !Module.RESOLVED_SET.contains(systemModule.getState()) || (systemModule.getState().equals(State.STARTING) && inInit);
+				return CoreResolverHookFactory.this.isBootInit(systemModule);
 			}
 
 			public void filterSingletonCollisions(BundleCapability singleton, Collection<BundleCapability> collisionCandidates) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2013 IBM Corporation and others.
+ * Copyright (c) 2013, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,20 +12,27 @@ package org.eclipse.osgi.internal.framework;
 
 import java.io.IOException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
+import org.eclipse.osgi.storage.Storage;
 
 public final class StorageSaver {
 	private static class StorageSaverTask implements Runnable {
 		private final EquinoxContainer container;
+		private final boolean compactJournal;
 
-		public StorageSaverTask(EquinoxContainer container) {
+		public StorageSaverTask(EquinoxContainer container, boolean compactJournal) {
 			this.container = container;
+			this.compactJournal = compactJournal;
 		}
 
 		@Override
 		public void run() {
 			try {
-				container.getStorage().save();
+				Storage storage = container.getStorage();
+				storage.save();
+				if (compactJournal && storage.isJournalCompactionNeeded())
+					storage.compactJournal();
 			} catch (IOException e) {
 				container.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Error saving on update", e); //$NON-NLS-1$
 			}
@@ -37,10 +44,13 @@ public final class StorageSaver {
 	private final ScheduledFuture<?> future;
 	private final Thread hook;
 	private final StorageSaverTask task;
+	private final StorageSaverTask immediateTask;
+	private final AtomicBoolean compactionScheduled = new AtomicBoolean();
 
 	public StorageSaver(EquinoxContainer container) {
 		this.container = container;
-		task = new StorageSaverTask(container);
+		task = new StorageSaverTask(container, true);
+		immediateTask = new StorageSaverTask(container, false);
 		delay = computeDelay();
 		future = scheduleTask();
 		hook = registerShutdownHook();
@@ -56,7 +66,27 @@ public final class StorageSaver {
 			// Periodic saves are enabled or saves are disabled altogether.
 			return;
 		// Immediately save on request.
-		task.run();
+		immediateTask.run();
+		// Compact the journal in the background.
+		if (container.getStorage().isJournalCompactionNeeded())
+			scheduleCompaction();
+	}
+
+	private void scheduleCompaction() {
+		if (!compactionScheduled.compareAndSet(false, true))
+			return;
+		try {
+			container.getScheduledExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					compactionScheduled.set(false);
+					task.run();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The framework is stopping; the journal is compacted on close.
+			compactionScheduled.set(false);
+		}
 	}
 
 	private Thread registerShutdownHook() {
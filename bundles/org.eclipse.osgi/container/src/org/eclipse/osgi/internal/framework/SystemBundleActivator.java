@@ -14,6 +14,7 @@ package org.eclipse.osgi.internal.framework;
 import java.util.*;
 import org.apache.felix.resolver.Logger;
 import org.apache.felix.resolver.ResolverImpl;
+import org.eclipse.osgi.framework.console.CommandProvider;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.debug.FrameworkDebugOptions;
 import org.eclipse.osgi.internal.location.EquinoxLocations;
@@ -23,6 +24,7 @@ import org.eclipse.osgi.internal.url.EquinoxFactoryManager;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.service.debug.DebugOptions;
 import org.eclipse.osgi.service.debug.DebugOptionsListener;
+import org.eclipse.osgi.service.debug.EventMetrics;
 import org.eclipse.osgi.service.environment.EnvironmentInfo;
 import org.eclipse.osgi.service.localization.BundleLocalization;
 import org.eclipse.osgi.service.urlconversion.URLConverter;
@@ -80,6 +82,12 @@ public class SystemBundleActivator implements BundleActivator {
 
 		register(bc, DebugOptions.class, dbgOptions, null);
 
+		EquinoxEventMetrics eventMetrics = bundle.getEquinoxContainer().getEventMetrics();
+		if (eventMetrics != null) {
+			register(bc, EventMetrics.class, eventMetrics, null);
+			register(bc, CommandProvider.class, eventMetrics.getCommandProvider(), false, null);
+		}
+
 		if (tccl != null) {
 			props.clear();
 			props.put("equinox.classloader.type", "contextClassLoader"); //$NON-NLS-1$ //$NON-NLS-2$
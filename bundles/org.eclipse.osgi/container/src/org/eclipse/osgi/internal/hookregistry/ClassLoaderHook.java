@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 IBM Corporation and others.
+ * Copyright (c) 2005, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -292,4 +292,21 @@ public abstract class ClassLoaderHook {
 		return null;
 	}
 
+	/**
+	 * Returns true if this hook may find classes or resources with the
+	 * {@link #preFindClass(String, ModuleClassLoader) preFindClass},
+	 * {@link #postFindClass(String, ModuleClassLoader) postFindClass},
+	 * {@link #preFindResource(String, ModuleClassLoader) preFindResource},
+	 * {@link #postFindResource(String, ModuleClassLoader) postFindResource},
+	 * {@link #preFindResources(String, ModuleClassLoader) preFindResources} or
+	 * {@link #postFindResources(String, ModuleClassLoader) postFindResources} methods.
+	 * Such a hook may find classes and resources in any package, so the framework
+	 * does not skip class loaders which cannot provide a package while the hook is configured.
+	 * The default returns true; hooks which do not find classes or resources should return false.
+	 * @return true if this hook may find classes or resources
+	 */
+	public boolean canFindClassesAndResources() {
+		return true;
+	}
+
 }
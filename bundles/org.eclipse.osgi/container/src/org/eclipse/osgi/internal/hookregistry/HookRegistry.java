@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 IBM Corporation and others.
+ * Copyright (c) 2005, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -69,6 +69,7 @@ public final class HookRegistry {
 
 	private final EquinoxContainer container;
 	private volatile boolean initialized = false;
+	private volatile boolean findClassLoaderHooks = false;
 	private final List<ClassLoaderHook> classLoaderHooks = new ArrayList<ClassLoaderHook>();
 	private final List<ClassLoaderHook> classLoaderHooksRO = Collections.unmodifiableList(classLoaderHooks);
 	private final List<StorageHookFactory<?, ?, ?>> storageHookFactories = new ArrayList<StorageHookFactory<?, ?, ?>>();
@@ -104,6 +105,7 @@ public final class HookRegistry {
 			addClassLoaderHook(new WeavingHookConfigurator(container));
 			configurators.add(SignedBundleHook.class.getName());
 			loadConfigurators(configurators, errors);
+			findClassLoaderHooks = computeFindClassLoaderHooks();
 			// set to read-only
 			initialized = true;
 		}
@@ -204,6 +206,25 @@ public final class HookRegistry {
 		return classLoaderHooksRO;
 	}
 
+	/**
+	 * Returns true if any of the configured class loading hooks
+	 * {@link ClassLoaderHook#canFindClassesAndResources() can find classes or resources}.
+	 * Such a hook may find classes and resources in any package.
+	 * @return true if a class loading hook can find classes or resources
+	 */
+	public boolean hasFindClassLoaderHooks() {
+		return findClassLoaderHooks;
+	}
+
+	private boolean computeFindClassLoaderHooks() {
+		for (ClassLoaderHook hook : classLoaderHooks) {
+			if (hook.canFindClassesAndResources()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Returns the list of configured storage hooks.
 	 * @return the list of configured storage hooks.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2012 IBM Corporation and others.
+ * Copyright (c) 2006, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -109,4 +109,9 @@ public class DevClassLoadingHook extends ClassLoaderHook implements KeyedElement
 	public int getKeyHashCode() {
 		return HASHCODE;
 	}
+
+	@Override
+	public boolean canFindClassesAndResources() {
+		return false;
+	}
 }
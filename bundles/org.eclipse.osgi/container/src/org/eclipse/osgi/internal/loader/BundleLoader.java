@@ -17,14 +17,15 @@ import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.eclipse.osgi.container.*;
 import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
-import org.eclipse.osgi.framework.util.KeyedElement;
-import org.eclipse.osgi.framework.util.KeyedHashSet;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
@@ -78,26 +79,23 @@ public class BundleLoader extends ModuleLoader {
 	private final BundleLoaderSources exportSources;
 
 	/* cache of required package sources. Key is packagename, value is PackageSource */
-	private final KeyedHashSet requiredSources = new KeyedHashSet(false);
-	/* cache of imported packages. Key is packagename, Value is PackageSource */
-	private final KeyedHashSet importedSources = new KeyedHashSet(false);
+	private final ConcurrentMap<String, PackageSource> requiredSources = new ConcurrentHashMap<String, PackageSource>();
+	/* immutable map of imported packages, null until initialized. Key is packagename, Value is PackageSource */
+	private final AtomicReference<Map<String, PackageSource>> importedSources = new AtomicReference<Map<String, PackageSource>>();
+	private final Object importsMonitor = new Object();
 	private final List<ModuleWire> requiredBundleWires;
 
-	/* @GuardedBy("importedSources") */
-	private boolean importsInitialized = false;
-	/* @GuardedBy("importedSources") */
-	private boolean dynamicAllPackages;
-	/* If not null, list of package stems to import dynamically. */
-	/* @GuardedBy("importedSources") */
-	private String[] dynamicImportPackageStems;
-	/* @GuardedBy("importedSources") */
-	/* If not null, list of package names to import dynamically. */
-	private String[] dynamicImportPackages;
+	/* The package names to import dynamically; replaced while holding importsMonitor. */
+	private volatile DynamicImports dynamicImportTable = DynamicImports.EMPTY;
 
 	private Object classLoaderMonitor = new Object();
 	/* @GuardedBy("classLoaderMonitor") */
 	private ModuleClassLoader classloader;
 	private final ClassLoader parent;
+
+	/* names of classes and resources not found through the delegation chain */
+	private final NegativeCache missingClasses;
+	private final NegativeCache missingResources;
 	private final AtomicBoolean triggerClassLoaded = new AtomicBoolean(false);
 
 	/**
@@ -141,6 +139,8 @@ public class BundleLoader extends ModuleLoader {
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		this.parent = parent;
+		this.missingClasses = new NegativeCache(container.getConfiguration().LOADER_NEGATIVE_CACHE_SIZE);
+		this.missingResources = new NegativeCache(container.getConfiguration().LOADER_NEGATIVE_CACHE_SIZE);
 
 		// init the provided packages set
 		exportSources = new BundleLoaderSources(this);
@@ -250,6 +250,56 @@ public class BundleLoader extends ModuleLoader {
 			loadClassLoaderFragments(fragments);
 			clearManifestLocalizationCache();
 		}
+		clearNegativeCaches();
+	}
+
+	private void clearNegativeCaches() {
+		missingClasses.clear();
+		missingResources.clear();
+	}
+
+	/**
+	 * Returns the cache of class names this loader failed to find.
+	 * @return the cache of missing class names
+	 */
+	public final NegativeCache getMissingClasses() {
+		return missingClasses;
+	}
+
+	/**
+	 * Returns the cache of resource names this loader failed to find.
+	 * @return the cache of missing resource names
+	 */
+	public final NegativeCache getMissingResources() {
+		return missingResources;
+	}
+
+	private long getRevisionsTimestamp() {
+		return container.getStorage().getModuleDatabase().getRevisionsTimestampUnlocked();
+	}
+
+	/**
+	 * Returns true if a name which was not found may be recorded in the negative caches.
+	 * The local classpath and the classpath of the bundles providing the required package
+	 * must only consist of archive files; the content of directories may change at runtime.
+	 * @param requiredSource the source of the package from the required bundles, may be null
+	 * @return true if the name may be recorded
+	 */
+	private boolean isNegativeCacheable(PackageSource requiredSource) {
+		ModuleClassLoader moduleClassLoader = getModuleClassLoader();
+		if (moduleClassLoader == null ? container.getConfiguration().inDevelopmentMode() : !moduleClassLoader.getClasspathManager().isArchiveOnly()) {
+			// the system bundle loader may not have a module class loader
+			return false;
+		}
+		if (requiredSource != null) {
+			for (SingleSourcePackage supplier : requiredSource.getSuppliers()) {
+				BundleLoader supplierLoader = supplier.getLoader();
+				if (supplierLoader != this && !supplierLoader.isNegativeCacheable(null)) {
+					return false;
+				}
+			}
+		}
+		return true;
 	}
 
 	protected void clearManifestLocalizationCache() {
@@ -346,6 +396,22 @@ public class BundleLoader extends ModuleLoader {
 		}
 	}
 
+	private Class<?> findLoadedLocalClass(String name) throws ClassNotFoundException {
+		ModuleClassLoader moduleClassLoader = getModuleClassLoader();
+		if (moduleClassLoader == null) {
+			return null;
+		}
+		try {
+			return moduleClassLoader.getClasspathManager().findLoadedLocalClass(name);
+		} catch (ClassNotFoundException e) {
+			if (e.getCause() instanceof BundleException) {
+				// Here we assume this is because of a lazy activation error
+				throw e;
+			}
+			return null;
+		}
+	}
+
 	/**
 	 * Finds the class for a bundle.  This method is used for delegation by the bundle's classloader.
 	 */
@@ -385,42 +451,57 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
-		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
-		if (source != null) {
-			if (debug.DEBUG_LOADER) {
-				Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
-			}
-			// 3) found import source terminate search at the source
-			result = source.loadClass(name);
+		long timestamp = getRevisionsTimestamp();
+		// skip steps 3) to 6) and the buddy policy if they already failed to find the class
+		boolean knownMissing = missingClasses.contains(name, timestamp);
+		boolean cacheable = false;
+		if (knownMissing) {
+			// the class may have been defined directly with the module class loader since it was recorded
+			result = findLoadedLocalClass(name);
 			if (result != null)
 				return result;
-			throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
-		}
-		// 4) search the required bundles
-		source = findRequiredSource(pkgName, null);
-		if (source != null) {
 			if (debug.DEBUG_LOADER) {
-				Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+				Debug.println("BundleLoader[" + this + "] class is known to be missing: " + name); //$NON-NLS-1$ //$NON-NLS-2$
 			}
-			// 4) attempt to load from source but continue on failure
-			result = source.loadClass(name);
-		}
-		// 5) search the local bundle
-		if (result == null)
-			result = findLocalClass(name);
-		if (result != null)
-			return result;
-		// 6) attempt to find a dynamic import source; only do this if a required source was not found
-		if (source == null) {
-			source = findDynamicSource(pkgName);
+		} else {
+			// 3) search the imported packages
+			PackageSource source = findImportedSource(pkgName, null);
 			if (source != null) {
+				if (debug.DEBUG_LOADER) {
+					Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				// 3) found import source terminate search at the source
 				result = source.loadClass(name);
 				if (result != null)
 					return result;
-				// must throw CNFE if dynamic import source does not have the class
 				throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
 			}
+			// 4) search the required bundles
+			source = findRequiredSource(pkgName, null);
+			if (source != null) {
+				if (debug.DEBUG_LOADER) {
+					Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				// 4) attempt to load from source but continue on failure
+				result = source.loadClass(name);
+			}
+			// 5) search the local bundle
+			if (result == null)
+				result = findLocalClass(name);
+			if (result != null)
+				return result;
+			cacheable = isNegativeCacheable(source);
+			// 6) attempt to find a dynamic import source; only do this if a required source was not found
+			if (source == null) {
+				source = findDynamicSource(pkgName);
+				if (source != null) {
+					result = source.loadClass(name);
+					if (result != null)
+						return result;
+					// must throw CNFE if dynamic import source does not have the class
+					throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
+				}
+			}
 		}
 
 		if (result == null)
@@ -432,10 +513,12 @@ public class BundleLoader extends ModuleLoader {
 				// will not happen
 			}
 		// do buddy policy loading
-		if (result == null && policy != null)
+		if (result == null && policy != null && !knownMissing)
 			result = policy.doBuddyClassLoading(name);
 		if (result != null)
 			return result;
+		if (cacheable)
+			missingClasses.add(name, timestamp);
 		// hack to support backwards compatibility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
 		if (parent != null && !bootDelegation && ((checkParent && container.getConfiguration().compatibilityBootDelegation) || isRequestFromVM()))
@@ -569,35 +652,46 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
-		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
-		if (source != null) {
+		long timestamp = getRevisionsTimestamp();
+		// skip steps 3) to 6) and the buddy policy if they already failed to find the resource
+		boolean knownMissing = missingResources.contains(name, timestamp);
+		boolean cacheable = false;
+		if (knownMissing) {
 			if (debug.DEBUG_LOADER) {
-				Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+				Debug.println("BundleLoader[" + this + "] resource is known to be missing: " + name); //$NON-NLS-1$ //$NON-NLS-2$
 			}
-			// 3) found import source terminate search at the source
-			return source.getResource(name);
-		}
-		// 4) search the required bundles
-		source = findRequiredSource(pkgName, null);
-		if (source != null) {
-			if (debug.DEBUG_LOADER) {
-				Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
-			}
-			// 4) attempt to load from source but continue on failure
-			result = source.getResource(name);
-		}
-		// 5) search the local bundle
-		if (result == null)
-			result = findLocalResource(name);
-		if (result != null)
-			return result;
-		// 6) attempt to find a dynamic import source; only do this if a required source was not found
-		if (source == null) {
-			source = findDynamicSource(pkgName);
-			if (source != null)
-				// must return the result of the dynamic import and do not continue
+		} else {
+			// 3) search the imported packages
+			PackageSource source = findImportedSource(pkgName, null);
+			if (source != null) {
+				if (debug.DEBUG_LOADER) {
+					Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				// 3) found import source terminate search at the source
 				return source.getResource(name);
+			}
+			// 4) search the required bundles
+			source = findRequiredSource(pkgName, null);
+			if (source != null) {
+				if (debug.DEBUG_LOADER) {
+					Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				// 4) attempt to load from source but continue on failure
+				result = source.getResource(name);
+			}
+			// 5) search the local bundle
+			if (result == null)
+				result = findLocalResource(name);
+			if (result != null)
+				return result;
+			cacheable = isNegativeCacheable(source);
+			// 6) attempt to find a dynamic import source; only do this if a required source was not found
+			if (source == null) {
+				source = findDynamicSource(pkgName);
+				if (source != null)
+					// must return the result of the dynamic import and do not continue
+					return source.getResource(name);
+			}
 		}
 
 		if (result == null)
@@ -609,10 +703,12 @@ public class BundleLoader extends ModuleLoader {
 				// will not happen
 			}
 		// do buddy policy loading
-		if (result == null && policy != null)
+		if (result == null && policy != null && !knownMissing)
 			result = policy.doBuddyResourceLoading(name);
 		if (result != null)
 			return result;
+		if (cacheable)
+			missingResources.add(name, timestamp);
 		// hack to support backwards compatibility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
 		if (parent != null && !bootDelegation && (container.getConfiguration().compatibilityBootDelegation || isRequestFromVM()))
@@ -721,13 +817,7 @@ public class BundleLoader extends ModuleLoader {
 		boolean subPackages = (options & BundleWiring.LISTRESOURCES_RECURSE) != 0;
 		List<String> packages = new ArrayList<String>();
 		// search imported package names
-		KeyedHashSet importSources = getImportedSources(null);
-		KeyedElement[] imports;
-		synchronized (importSources) {
-			imports = importSources.elements();
-		}
-		for (KeyedElement keyedElement : imports) {
-			String id = ((PackageSource) keyedElement).getId();
+		for (String id : getImportedSources(null).keySet()) {
 			if (id.equals(pkgName) || (subPackages && isSubPackage(pkgName, id)))
 				packages.add(id);
 		}
@@ -850,24 +940,7 @@ public class BundleLoader extends ModuleLoader {
 		if (pkgname.startsWith("java.")) //$NON-NLS-1$
 			return true;
 
-		synchronized (importedSources) {
-			/* "*" shortcut */
-			if (dynamicAllPackages)
-				return true;
-
-			/* match against specific names */
-			if (dynamicImportPackages != null)
-				for (int i = 0; i < dynamicImportPackages.length; i++)
-					if (pkgname.equals(dynamicImportPackages[i]))
-						return true;
-
-			/* match against names with trailing wildcards */
-			if (dynamicImportPackageStems != null)
-				for (int i = 0; i < dynamicImportPackageStems.length; i++)
-					if (pkgname.startsWith(dynamicImportPackageStems[i]))
-						return true;
-		}
-		return false;
+		return dynamicImportTable.matches(pkgname);
 	}
 
 	final void addExportedProvidersFor(String packageName, List<PackageSource> result, Collection<BundleLoader> visited) {
@@ -926,6 +999,30 @@ public class BundleLoader extends ModuleLoader {
 		}
 	}
 
+	/**
+	 * Returns false if this loader cannot find any class or resource in the specified package.
+	 * A package may be found if it is boot delegated, imported, provided by a required bundle,
+	 * exported, contained in the local classpath or dynamically imported.  Any package may be
+	 * found if this loader has a buddy policy or if a class loading hook can find classes or
+	 * resources.
+	 * @param pkgName the package name
+	 * @return false if this loader cannot find the package
+	 */
+	public final boolean mayFindPackage(String pkgName) {
+		if (policy != null || pkgName.startsWith(JAVA_PACKAGE) || container.isBootDelegationPackage(pkgName))
+			return true;
+		if (container.getConfiguration().getHookRegistry().hasFindClassLoaderHooks())
+			return true;
+		if (isExportedPackage(pkgName) || isSubstitutedExport(pkgName))
+			return true;
+		if (findImportedSource(pkgName, null) != null || findRequiredSource(pkgName, null) != null)
+			return true;
+		if (isDynamicallyImported(pkgName))
+			return true;
+		String packageDir = DEFAULT_PACKAGE.equals(pkgName) ? "" : pkgName.replace('.', '/').concat("/"); //$NON-NLS-1$ //$NON-NLS-2$
+		return getModuleClassLoader().getClasspathManager().mayContainPackage(packageDir);
+	}
+
 	public final boolean isExportedPackage(String name) {
 		return exportedPackages.contains(name);
 	}
@@ -957,59 +1054,15 @@ public class BundleLoader extends ModuleLoader {
 	/**
 	 * Adds a list of DynamicImport-Package manifest elements to the dynamic
 	 * import tables of this BundleLoader.  Duplicate packages are checked and
-	 * not added again.  This method is not thread safe.  Callers should ensure
-	 * synchronization when calling this method.
+	 * not added again.
 	 * @param packages the DynamicImport-Package elements to add.
 	 */
 	private void addDynamicImportPackage(String[] packages) {
 		if (packages == null)
 			return;
 
-		synchronized (importedSources) {
-			int size = packages.length;
-			List<String> stems;
-			if (dynamicImportPackageStems == null) {
-				stems = new ArrayList<String>(size);
-			} else {
-				stems = new ArrayList<String>(size + dynamicImportPackageStems.length);
-				for (int i = 0; i < dynamicImportPackageStems.length; i++) {
-					stems.add(dynamicImportPackageStems[i]);
-				}
-			}
-
-			List<String> names;
-			if (dynamicImportPackages == null) {
-				names = new ArrayList<String>(size);
-			} else {
-				names = new ArrayList<String>(size + dynamicImportPackages.length);
-				for (int i = 0; i < dynamicImportPackages.length; i++) {
-					names.add(dynamicImportPackages[i]);
-				}
-			}
-
-			for (int i = 0; i < size; i++) {
-				String name = packages[i];
-				if (isDynamicallyImported(name))
-					continue;
-				if (name.equals("*")) { //$NON-NLS-1$
-					// shortcut
-					dynamicAllPackages = true;
-					return;
-				}
-
-				if (name.endsWith(".*")) //$NON-NLS-1$
-					stems.add(name.substring(0, name.length() - 1));
-				else
-					names.add(name);
-			}
-
-			size = stems.size();
-			if (size > 0)
-				dynamicImportPackageStems = stems.toArray(new String[size]);
-
-			size = names.size();
-			if (size > 0)
-				dynamicImportPackages = names.toArray(new String[size]);
+		synchronized (importsMonitor) {
+			dynamicImportTable = dynamicImportTable.add(packages);
 		}
 	}
 
@@ -1065,28 +1118,46 @@ public class BundleLoader extends ModuleLoader {
 	}
 
 	private PackageSource findImportedSource(String pkgName, Collection<BundleLoader> visited) {
-		KeyedHashSet imports = getImportedSources(visited);
-		synchronized (imports) {
-			return (PackageSource) imports.getByKey(pkgName);
-		}
+		return getImportedSources(visited).get(pkgName);
 	}
 
-	private KeyedHashSet getImportedSources(Collection<BundleLoader> visited) {
-		synchronized (importedSources) {
-			if (importsInitialized) {
-				return importedSources;
+	private Map<String, PackageSource> getImportedSources(Collection<BundleLoader> visited) {
+		Map<String, PackageSource> imports = importedSources.get();
+		if (imports != null) {
+			return imports;
+		}
+		synchronized (importsMonitor) {
+			imports = importedSources.get();
+			if (imports != null) {
+				return imports;
 			}
+			imports = new HashMap<String, PackageSource>();
 			List<ModuleWire> importWires = wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
 			if (importWires != null) {
 				for (ModuleWire importWire : importWires) {
 					PackageSource source = createExportPackageSource(importWire, visited);
-					if (source != null) {
-						importedSources.add(source);
+					if (source != null && !imports.containsKey(source.getId())) {
+						imports.put(source.getId(), source);
 					}
 				}
 			}
-			importsInitialized = true;
-			return importedSources;
+			imports = Collections.unmodifiableMap(imports);
+			importedSources.set(imports);
+			return imports;
+		}
+	}
+
+	private void addImportedSource(PackageSource source) {
+		// make sure the wired imports are in place before adding to them
+		getImportedSources(null);
+		synchronized (importsMonitor) {
+			Map<String, PackageSource> imports = importedSources.get();
+			if (imports.containsKey(source.getId())) {
+				return;
+			}
+			Map<String, PackageSource> newImports = new HashMap<String, PackageSource>(imports);
+			newImports.put(source.getId(), source);
+			importedSources.set(Collections.unmodifiableMap(newImports));
 		}
 	}
 
@@ -1102,9 +1173,8 @@ public class BundleLoader extends ModuleLoader {
 				if (debug.DEBUG_LOADER) {
 					Debug.println("BundleLoader[" + this + "] using dynamic import source: " + source); //$NON-NLS-1$ //$NON-NLS-2$
 				}
-				synchronized (importedSources) {
-					importedSources.add(source);
-				}
+				addImportedSource(source);
+				clearNegativeCaches();
 				return source;
 			}
 		}
@@ -1112,11 +1182,9 @@ public class BundleLoader extends ModuleLoader {
 	}
 
 	private PackageSource findRequiredSource(String pkgName, Collection<BundleLoader> visited) {
-		synchronized (requiredSources) {
-			PackageSource result = (PackageSource) requiredSources.getByKey(pkgName);
-			if (result != null)
-				return result.isNullSource() ? null : result;
-		}
+		PackageSource cached = requiredSources.get(pkgName);
+		if (cached != null)
+			return cached.isNullSource() ? null : cached;
 		if (visited == null)
 			visited = new ArrayList<BundleLoader>();
 		if (!visited.contains(this))
@@ -1142,9 +1210,7 @@ public class BundleLoader extends ModuleLoader {
 			PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
 			source = createMultiSource(pkgName, srcs);
 		}
-		synchronized (requiredSources) {
-			requiredSources.add(source);
-		}
+		requiredSources.putIfAbsent(pkgName, source);
 		return source.isNullSource() ? null : source;
 	}
 
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.loader;
+
+import java.util.*;
+
+/**
+ * An immutable table of the package names matched by the DynamicImport-Package
+ * declarations of a bundle.  Specific package names are kept in a set and
+ * package stems with a trailing wildcard (for example <code>org.acme.*</code>)
+ * are kept in a trie of package name segments.  Matching a package name does
+ * not depend on the number of declared stems.
+ *
+ * @ThreadSafe
+ */
+final class DynamicImports {
+	static final DynamicImports EMPTY = new DynamicImports(false, Collections.<String> emptySet(), Collections.<String> emptyList());
+
+	private static final class Node {
+		final Map<String, Node> children = new HashMap<String, Node>(4);
+		boolean isStem;
+	}
+
+	private final boolean allPackages;
+	private final Set<String> names;
+	private final List<String> stems;
+	private final Node stemRoot;
+
+	private DynamicImports(boolean allPackages, Set<String> names, List<String> stems) {
+		this.allPackages = allPackages;
+		this.names = names;
+		this.stems = stems;
+		this.stemRoot = new Node();
+		for (String stem : stems) {
+			Node current = stemRoot;
+			int start = 0;
+			int dot;
+			// stems always end with a '.'
+			while ((dot = stem.indexOf('.', start)) >= 0) {
+				String segment = stem.substring(start, dot);
+				Node child = current.children.get(segment);
+				if (child == null) {
+					child = new Node();
+					current.children.put(segment, child);
+				}
+				current = child;
+				start = dot + 1;
+			}
+			current.isStem = true;
+		}
+	}
+
+	/**
+	 * Returns a table which also matches the specified DynamicImport-Package names.
+	 * @param packages the package names, which may end with a <code>.*</code> wildcard
+	 * or be a single <code>*</code> wildcard
+	 * @return the new table, or this table if all the names are already matched
+	 */
+	DynamicImports add(String[] packages) {
+		if (allPackages) {
+			return this;
+		}
+		Set<String> newNames = null;
+		List<String> newStems = null;
+		for (String name : packages) {
+			if (name.equals("*")) { //$NON-NLS-1$
+				// shortcut
+				return new DynamicImports(true, Collections.<String> emptySet(), Collections.<String> emptyList());
+			}
+			if (matches(name)) {
+				continue;
+			}
+			if (name.endsWith(".*")) { //$NON-NLS-1$
+				if (newStems == null) {
+					newStems = new ArrayList<String>(stems);
+				}
+				newStems.add(name.substring(0, name.length() - 1));
+			} else {
+				if (newNames == null) {
+					newNames = new HashSet<String>(names);
+				}
+				newNames.add(name);
+			}
+		}
+		if (newNames == null && newStems == null) {
+			return this;
+		}
+		return new DynamicImports(false, newNames == null ? names : newNames, newStems == null ? stems : newStems);
+	}
+
+	/**
+	 * Returns true if the package name matches a DynamicImport-Package name.
+	 * @param pkgName the package name
+	 * @return true if the package should be imported dynamically
+	 */
+	boolean matches(String pkgName) {
+		if (allPackages) {
+			return true;
+		}
+		if (names.contains(pkgName)) {
+			return true;
+		}
+		Node current = stemRoot;
+		int start = 0;
+		int dot;
+		// only match stems followed by at least one more character
+		while ((dot = pkgName.indexOf('.', start)) >= 0) {
+			current = current.children.get(pkgName.substring(start, dot));
+			if (current == null) {
+				return false;
+			}
+			start = dot + 1;
+			if (current.isStem && start < pkgName.length()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.loader;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of class or resource names which a {@link BundleLoader} failed
+ * to find through its delegation chain.  Each name is recorded with the revisions
+ * timestamp of the module database at the time the search started.  A recorded
+ * name is only a hit as long as the timestamp is unchanged, so the cache is
+ * invalidated by any change to the revisions or wirings of the framework, including
+ * resolved bundles, dynamic wires and attached fragments.
+ * <p>
+ * The cache does not take any locks to look up names.  Once the cache is full an
+ * arbitrary entry is removed for each new entry.
+ *
+ * @ThreadSafe
+ */
+public final class NegativeCache {
+	private final int maxSize;
+	private final ConcurrentMap<String, Long> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	NegativeCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = maxSize > 0 ? new ConcurrentHashMap<String, Long>() : null;
+	}
+
+	/**
+	 * Returns true if the name was recorded as not found at the specified timestamp.
+	 * @param name the class or resource name
+	 * @param timestamp the current revisions timestamp
+	 * @return true if the name is known to not be found
+	 */
+	boolean contains(String name, long timestamp) {
+		if (entries == null) {
+			return false;
+		}
+		Long recorded = entries.get(name);
+		if (recorded != null && recorded.longValue() == timestamp) {
+			hits.incrementAndGet();
+			return true;
+		}
+		misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Records that the name was not found by a search started at the specified timestamp.
+	 * @param name the class or resource name
+	 * @param timestamp the revisions timestamp when the search started
+	 */
+	void add(String name, long timestamp) {
+		if (entries == null) {
+			return;
+		}
+		if (entries.size() >= maxSize) {
+			Iterator<String> names = entries.keySet().iterator();
+			if (names.hasNext()) {
+				names.next();
+				names.remove();
+			}
+		}
+		entries.put(name, Long.valueOf(timestamp));
+	}
+
+	/**
+	 * Removes all the recorded names.
+	 */
+	void clear() {
+		if (entries != null) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups which found a recorded name.
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find a recorded name.
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of recorded names.
+	 * @return the number of recorded names
+	 */
+	public int size() {
+		return entries == null ? 0 : entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "NegativeCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 IBM Corporation and others.
+ * Copyright (c) 2005, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -46,11 +46,17 @@ public class DependentPolicy implements IBuddyPolicy {
 			return null;
 
 		Class<?> result = null;
+		String pkgName = BundleLoader.getPackageName(name);
 		//size may change, so we must check it every time
 		for (int i = 0; i < allDependents.size() && result == null; i++) {
 			ModuleWiring searchWiring = allDependents.get(i);
 			BundleLoader searchLoader = (BundleLoader) searchWiring.getModuleLoader();
 			if (searchLoader != null) {
+				if (!searchLoader.mayFindPackage(pkgName)) {
+					// avoid the failing search but keep looking in its dependents
+					addDependent(i, searchWiring);
+					continue;
+				}
 				try {
 					result = searchLoader.findClass(name);
 				} catch (ClassNotFoundException e) {
@@ -74,12 +80,13 @@ public class DependentPolicy implements IBuddyPolicy {
 			return null;
 
 		URL result = null;
+		String pkgName = BundleLoader.getResourcePackageName(name);
 		//size may change, so we must check it every time
 		for (int i = 0; i < allDependents.size() && result == null; i++) {
 			ModuleWiring searchWiring = allDependents.get(i);
 			BundleLoader searchLoader = (BundleLoader) searchWiring.getModuleLoader();
 			if (searchLoader != null) {
-				result = searchLoader.findResource(name);
+				result = searchLoader.mayFindPackage(pkgName) ? searchLoader.findResource(name) : null;
 				if (result == null) {
 					addDependent(i, searchWiring);
 				}
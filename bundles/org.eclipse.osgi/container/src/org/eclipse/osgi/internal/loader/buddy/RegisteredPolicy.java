@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 IBM Corporation and others.
+ * Copyright (c) 2005, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,6 +13,8 @@ package org.eclipse.osgi.internal.loader.buddy;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.container.ModuleCapability;
 import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
@@ -24,6 +26,11 @@ import org.eclipse.osgi.internal.loader.BundleLoader;
  * Note that the registrants must have a direct dependency on the bundle needing buddy.
  */
 public class RegisteredPolicy extends DependentPolicy {
+	// maximum number of packages indexed; registrants with dynamic imports or buddy policies may find any package
+	private static final int MAX_INDEXED_PACKAGES = 1024;
+	// index of the registrants which may find a package; the policy is recreated when bundles are resolved or unresolved.
+	// Only packages with registrants are indexed.
+	private final ConcurrentMap<String, List<ModuleWiring>> packageRegistrants = new ConcurrentHashMap<String, List<ModuleWiring>>();
 
 	public RegisteredPolicy(BundleLoader requester) {
 		super(requester);
@@ -59,14 +66,34 @@ public class RegisteredPolicy extends DependentPolicy {
 			allDependents = null;
 	}
 
+	private List<ModuleWiring> getRegistrants(String pkgName) {
+		List<ModuleWiring> registrants = packageRegistrants.get(pkgName);
+		if (registrants != null)
+			return registrants;
+		for (ModuleWiring registrant : allDependents) {
+			BundleLoader registrantLoader = (BundleLoader) registrant.getModuleLoader();
+			if (registrantLoader != null && registrantLoader.mayFindPackage(pkgName)) {
+				if (registrants == null)
+					registrants = new ArrayList<ModuleWiring>(1);
+				registrants.add(registrant);
+			}
+		}
+		if (registrants == null)
+			return Collections.emptyList();
+		if (packageRegistrants.size() < MAX_INDEXED_PACKAGES)
+			packageRegistrants.put(pkgName, registrants);
+		return registrants;
+	}
+
 	public Class<?> loadClass(String name) {
 		if (allDependents == null)
 			return null;
 
 		Class<?> result = null;
-		int size = allDependents.size();
+		List<ModuleWiring> registrants = getRegistrants(BundleLoader.getPackageName(name));
+		int size = registrants.size();
 		for (int i = 0; i < size && result == null; i++) {
-			ModuleWiring searchWiring = allDependents.get(i);
+			ModuleWiring searchWiring = registrants.get(i);
 			BundleLoader searchLoader = (BundleLoader) searchWiring.getModuleLoader();
 			if (searchLoader != null) {
 				try {
@@ -85,9 +112,10 @@ public class RegisteredPolicy extends DependentPolicy {
 			return null;
 
 		URL result = null;
-		int size = allDependents.size();
+		List<ModuleWiring> registrants = getRegistrants(BundleLoader.getResourcePackageName(name));
+		int size = registrants.size();
 		for (int i = 0; i < size && result == null; i++) {
-			ModuleWiring searchWiring = allDependents.get(i);
+			ModuleWiring searchWiring = registrants.get(i);
 			BundleLoader searchLoader = (BundleLoader) searchWiring.getModuleLoader();
 			if (searchLoader != null) {
 				result = searchLoader.findResource(name);
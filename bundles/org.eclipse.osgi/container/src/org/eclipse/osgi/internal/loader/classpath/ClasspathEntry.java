@@ -47,6 +47,11 @@ public class ClasspathEntry {
 	private final ManifestPackageAttributes mainManifestPackageAttributes;
 	private final Map<String, ManifestPackageAttributes> perPackageManifestAttributes;
 	private KeyedHashSet userObjects = null;
+	// the index used to compute the packages of this entry or null if this entry is not indexed
+	private volatile ClasspathIndex index;
+	private volatile String indexKey;
+	// the package directories of this entry or null if not yet known
+	private volatile Set<String> packages;
 
 	// TODO Note that PDE has internal dependency on this field type/name (bug 267238)
 	@SuppressWarnings("unused")
@@ -135,6 +140,40 @@ public class ClasspathEntry {
 		userObjects.add(userObject);
 	}
 
+	/**
+	 * Sets the index used to compute the packages contained in this classpath entry.
+	 * @param index the index of the generation which provides this classpath entry
+	 * @param key the key of this classpath entry within the index
+	 */
+	void setClasspathIndex(ClasspathIndex index, String key) {
+		this.indexKey = key;
+		this.index = index;
+	}
+
+	/**
+	 * Returns false if this classpath entry is known to not contain the specified
+	 * package directory.
+	 * @param packageDir the package directory with no leading '/' and ending with a '/'
+	 * @return false if this classpath entry does not contain the package directory
+	 */
+	boolean mayContainPackage(String packageDir) {
+		Set<String> current = packages;
+		if (current == null) {
+			ClasspathIndex currentIndex = index;
+			if (currentIndex == null) {
+				return true;
+			}
+			current = currentIndex.getPackages(indexKey, bundlefile);
+			if (current == null) {
+				// this entry cannot be indexed
+				index = null;
+				return true;
+			}
+			packages = current;
+		}
+		return current.contains(packageDir);
+	}
+
 	private static Manifest loadManifest(BundleFile cpBundleFile, Generation generation) {
 		if (!generation.hasPackageInfo() && generation.getBundleFile() == cpBundleFile) {
 			return null;
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.loader.classpath;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.bundlefile.BundleFile;
+
+/**
+ * A persistent index of the package directories contained in the classpath
+ * entries of a generation.  The index is used to skip classpath entries that
+ * cannot contain a requested class without looking up the class in the
+ * bundle file of the entry.
+ * <p>
+ * Packages of a classpath entry are computed the first time they are needed
+ * and then stored with the generation.  The stored packages of a classpath entry
+ * are discarded if the last modified time of the generation or the last modified
+ * time or length of the bundle file of the entry changes.  Classpath entries
+ * which are not backed by a file (for example directories) are never indexed
+ * since their content may change.  The packages of a bundle file are computed
+ * without holding a lock, so class loads using other indexed entries are not
+ * blocked while a bundle file is scanned.
+ * <p>
+ * Newly indexed entries are not written immediately.  Instead the index is
+ * written once, the next time the framework data is saved by the storage.
+ *
+ * @ThreadSafe
+ */
+final class ClasspathIndex {
+	private static final String INDEX_FILE = "classpath.index"; //$NON-NLS-1$
+	private static final byte VERSION = 1;
+
+	static final class IndexedEntry {
+		final String basePath;
+		final long lastModified;
+		final long length;
+		final Set<String> packages;
+
+		IndexedEntry(String basePath, long lastModified, long length, Set<String> packages) {
+			this.basePath = basePath;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.packages = packages;
+		}
+
+		boolean isValid(File baseFile) {
+			return basePath.equals(baseFile.getAbsolutePath()) && lastModified == baseFile.lastModified() && length == baseFile.length();
+		}
+	}
+
+	private final Generation generation;
+	private final Debug debug;
+	private final ConcurrentMap<String, IndexedEntry> indexedEntries;
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	private final Runnable saveTask = new Runnable() {
+		public void run() {
+			save();
+		}
+	};
+
+	private ClasspathIndex(Generation generation, ConcurrentMap<String, IndexedEntry> indexedEntries) {
+		this.generation = generation;
+		this.debug = generation.getBundleInfo().getStorage().getConfiguration().getDebug();
+		this.indexedEntries = indexedEntries;
+	}
+
+	/**
+	 * Loads the stored index of the specified generation.  An empty index is
+	 * returned if no index is stored or the stored index is no longer valid.
+	 * @param generation the generation
+	 * @return the index of the generation
+	 */
+	static ClasspathIndex load(Generation generation) {
+		ConcurrentMap<String, IndexedEntry> indexedEntries = new ConcurrentHashMap<String, IndexedEntry>();
+		File indexFile = generation.getExtractFile(INDEX_FILE);
+		if (indexFile.isFile()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+				try {
+					if (in.readByte() == VERSION && in.readLong() == generation.getLastModified()) {
+						int numEntries = in.readInt();
+						for (int i = 0; i < numEntries; i++) {
+							String key = in.readUTF();
+							String basePath = in.readUTF();
+							long lastModified = in.readLong();
+							long length = in.readLong();
+							int numPackages = in.readInt();
+							Set<String> packages = new HashSet<String>((int) (numPackages / 0.75f) + 1);
+							for (int j = 0; j < numPackages; j++) {
+								packages.add(in.readUTF());
+							}
+							indexedEntries.put(key, new IndexedEntry(basePath, lastModified, length, packages));
+						}
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				// the index is rebuilt as needed
+				indexedEntries.clear();
+				if (generation.getBundleInfo().getStorage().getConfiguration().getDebug().DEBUG_LOADER)
+					Debug.println("Unable to read classpath index: " + indexFile); //$NON-NLS-1$
+			}
+		}
+		return new ClasspathIndex(generation, indexedEntries);
+	}
+
+	/**
+	 * Returns the package directories contained in the specified bundle file
+	 * of a classpath entry.  The package directories have no leading '/' and
+	 * end with a '/', except for the default package which is the empty string.
+	 * @param key the key of the classpath entry within the generation
+	 * @param bundleFile the bundle file of the classpath entry
+	 * @return the package directories or <code>null</code> if the classpath entry cannot be indexed
+	 */
+	Set<String> getPackages(String key, BundleFile bundleFile) {
+		File baseFile = bundleFile.getBaseFile();
+		if (baseFile == null || !baseFile.isFile()) {
+			return null;
+		}
+		IndexedEntry indexed = indexedEntries.get(key);
+		if (indexed != null && indexed.isValid(baseFile)) {
+			return indexed.packages;
+		}
+		Set<String> packages = new HashSet<String>();
+		Enumeration<String> paths = bundleFile.getEntryPaths("", true); //$NON-NLS-1$
+		if (paths != null) {
+			while (paths.hasMoreElements()) {
+				String path = paths.nextElement();
+				if (!path.endsWith("/")) { //$NON-NLS-1$
+					packages.add(path.substring(0, path.lastIndexOf('/') + 1));
+				}
+			}
+		}
+		IndexedEntry newEntry = new IndexedEntry(baseFile.getAbsolutePath(), baseFile.lastModified(), baseFile.length(), packages);
+		IndexedEntry current;
+		if (indexed == null) {
+			current = indexedEntries.putIfAbsent(key, newEntry);
+		} else {
+			current = indexedEntries.replace(key, indexed, newEntry) ? null : indexedEntries.get(key);
+		}
+		if (current != null) {
+			// another thread indexed the entry first
+			return current.packages;
+		}
+		if (dirty.compareAndSet(false, true)) {
+			generation.getBundleInfo().getStorage().deferSave(generation, saveTask);
+		}
+		return packages;
+	}
+
+	private void save() {
+		if (!dirty.compareAndSet(true, false)) {
+			return;
+		}
+		Map<String, IndexedEntry> toSave = new HashMap<String, IndexedEntry>(indexedEntries);
+		File indexFile = generation.getExtractFile(INDEX_FILE);
+		try {
+			File dir = indexFile.getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				return;
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+			try {
+				out.writeByte(VERSION);
+				out.writeLong(generation.getLastModified());
+				out.writeInt(toSave.size());
+				for (Map.Entry<String, IndexedEntry> entry : toSave.entrySet()) {
+					IndexedEntry indexed = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeUTF(indexed.basePath);
+					out.writeLong(indexed.lastModified);
+					out.writeLong(indexed.length);
+					out.writeInt(indexed.packages.size());
+					for (String pkg : indexed.packages) {
+						out.writeUTF(pkg);
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// a missing or partial index is rebuilt as needed
+			indexFile.delete();
+			if (debug.DEBUG_LOADER)
+				Debug.println("Unable to write classpath index: " + indexFile); //$NON-NLS-1$
+		}
+	}
+}
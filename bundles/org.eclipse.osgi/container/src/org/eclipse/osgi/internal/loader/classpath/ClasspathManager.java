@@ -60,6 +60,8 @@ public class ClasspathManager {
 	private final ClasspathEntry[] entries;
 	// TODO Note that PDE has internal dependency on this field type/name (bug 267238)
 	private volatile FragmentClasspath[] fragments;
+	private volatile boolean hasExternalEntries = false;
+	private volatile Boolean archiveOnly = null;
 	// a Map<String,String> where "libname" is the key and libpath" is the value
 	private ArrayMap<String, String> loadedLibraries = null;
 	// used to detect recusive defineClass calls for the same class on the same class loader (bug 345500)
@@ -147,9 +149,17 @@ public class ClasspathManager {
 
 	private ClasspathEntry[] buildClasspath(String[] cp, ClasspathManager hostloader, Generation source) {
 		ArrayList<ClasspathEntry> result = new ArrayList<ClasspathEntry>(cp.length);
+		ClasspathIndex index = source.getBundleInfo().getStorage().getConfiguration().CLASSPATH_INDEX ? ClasspathIndex.load(source) : null;
 		// add the regular classpath entries.
-		for (int i = 0; i < cp.length; i++)
+		for (int i = 0; i < cp.length; i++) {
+			int first = result.size();
 			findClassPathEntry(result, cp[i], hostloader, source);
+			if (index != null) {
+				// hooks may add more than one entry for a classpath element
+				for (int j = first; j < result.size(); j++)
+					result.get(j).setClasspathIndex(index, cp[i] + '#' + (j - first));
+			}
+		}
 		return result.toArray(new ClasspathEntry[result.size()]);
 	}
 
@@ -293,8 +303,10 @@ public class ClasspathManager {
 		if (!file.isAbsolute())
 			return null;
 		BundleFile bundlefile = createBundleFile(file, cpGeneration);
-		if (bundlefile != null)
+		if (bundlefile != null) {
+			hasExternalEntries = true;
 			return createClassPathEntry(bundlefile, cpGeneration);
+		}
 		return null;
 	}
 
@@ -310,6 +322,7 @@ public class ClasspathManager {
 		}
 
 		fragments = result.toArray(new FragmentClasspath[result.size()]);
+		archiveOnly = null;
 	}
 
 	private static BundleFile createBundleFile(File content, Generation generation) {
@@ -513,6 +526,23 @@ public class ClasspathManager {
 	 * @throws ClassNotFoundException if the class does not exist
 	 */
 	public Class<?> findLocalClass(String classname) throws ClassNotFoundException {
+		return findLocalClass(classname, true);
+	}
+
+	/**
+	 * Finds a local class which has already been defined by the class loader without
+	 * searching the ClasspathEntry objects.  As with {@link #findLocalClass(String)} all
+	 * the configured class loader hooks {@link ClassLoaderHook#preFindLocalClass(String, ClasspathManager)}
+	 * and {@link ClassLoaderHook#postFindLocalClass(String, Class, ClasspathManager)} methods are called.
+	 * @param classname the requested class name.
+	 * @return the requested class or null if the class has not been defined
+	 * @throws ClassNotFoundException if a class loader hook terminates the search
+	 */
+	public Class<?> findLoadedLocalClass(String classname) throws ClassNotFoundException {
+		return findLocalClass(classname, false);
+	}
+
+	private Class<?> findLocalClass(String classname, boolean searchEntries) throws ClassNotFoundException {
 		Class<?> result = null;
 		List<ClassLoaderHook> hooks = hookRegistry.getClassLoaderHooks();
 		try {
@@ -520,7 +550,7 @@ public class ClasspathManager {
 				hook.preFindLocalClass(classname, this);
 			}
 			result = classloader.publicFindLoaded(classname);
-			if (result != null)
+			if (result != null || !searchEntries)
 				return result;
 			result = findLocalClassImpl(classname, hooks);
 			return result;
@@ -533,8 +563,10 @@ public class ClasspathManager {
 
 	private Class<?> findLocalClassImpl(String classname, List<ClassLoaderHook> hooks) throws ClassNotFoundException {
 		Class<?> result = null;
+		int lastDot = classname.lastIndexOf('.');
+		String packageDir = lastDot < 0 ? "" : classname.substring(0, lastDot + 1).replace('.', '/'); //$NON-NLS-1$
 		for (int i = 0; i < entries.length; i++) {
-			if (entries[i] != null) {
+			if (entries[i] != null && entries[i].mayContainPackage(packageDir)) {
 				result = findClassImpl(classname, entries[i], hooks);
 				if (result != null)
 					return result;
@@ -545,6 +577,8 @@ public class ClasspathManager {
 		for (int i = 0; i < currentFragments.length; i++) {
 			ClasspathEntry[] fragEntries = currentFragments[i].getEntries();
 			for (int j = 0; j < fragEntries.length; j++) {
+				if (!fragEntries[j].mayContainPackage(packageDir))
+					continue;
 				result = findClassImpl(classname, fragEntries[j], hooks);
 				if (result != null)
 					return result;
@@ -689,6 +723,79 @@ public class ClasspathManager {
 		return entries;
 	}
 
+	/**
+	 * Returns true if the host, its fragments and all their classpath entries are archive
+	 * files.  The content of archive files does not change while they are installed, unlike
+	 * the content of directories, external classpath entries or the classpath used in
+	 * development mode.
+	 * @return true if the classpath only consists of archive files
+	 */
+	public boolean isArchiveOnly() {
+		Boolean result = archiveOnly;
+		if (result == null) {
+			result = Boolean.valueOf(computeArchiveOnly());
+			archiveOnly = result;
+		}
+		return result.booleanValue();
+	}
+
+	private boolean computeArchiveOnly() {
+		if (hasExternalEntries || generation.getBundleInfo().getStorage().getConfiguration().inDevelopmentMode() || !isArchive(generation.getBundleFile())) {
+			return false;
+		}
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] != null && !isArchive(entries[i].getBundleFile())) {
+				return false;
+			}
+		}
+		FragmentClasspath[] currentFragments = getFragmentClasspaths();
+		for (int i = 0; i < currentFragments.length; i++) {
+			if (!isArchive(currentFragments[i].getGeneration().getBundleFile())) {
+				return false;
+			}
+			ClasspathEntry[] fragEntries = currentFragments[i].getEntries();
+			for (int j = 0; j < fragEntries.length; j++) {
+				if (!isArchive(fragEntries[j].getBundleFile())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isArchive(BundleFile bundleFile) {
+		File baseFile = bundleFile.getBaseFile();
+		return baseFile != null && baseFile.isFile();
+	}
+
+	/**
+	 * Returns false if no classpath entry of the host or its fragments contains the
+	 * specified package directory.
+	 * @param packageDir the package directory with no leading '/' and ending with a '/',
+	 * or the empty string for the default package
+	 * @return false if the package cannot be found locally
+	 */
+	public boolean mayContainPackage(String packageDir) {
+		if (packageDir.length() == 0) {
+			return true;
+		}
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] != null && entries[i].mayContainPackage(packageDir) && entries[i].getBundleFile().containsDir(packageDir)) {
+				return true;
+			}
+		}
+		FragmentClasspath[] currentFragments = getFragmentClasspaths();
+		for (int i = 0; i < currentFragments.length; i++) {
+			ClasspathEntry[] fragEntries = currentFragments[i].getEntries();
+			for (int j = 0; j < fragEntries.length; j++) {
+				if (fragEntries[j].mayContainPackage(packageDir) && fragEntries[j].getBundleFile().containsDir(packageDir)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Finds a library for the bundle represented by this class path manager
 	 * @param libname the library name
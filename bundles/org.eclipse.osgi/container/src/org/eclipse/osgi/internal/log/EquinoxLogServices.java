@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2015 IBM Corporation and others.
+ * Copyright (c) 2006, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -81,7 +81,16 @@ public class EquinoxLogServices {
 				// ignore and use 0
 			}
 		}
-		logServiceManager = new LogServiceManager(logHistoryMax, logWriter, perfWriter);
+		String logListenerQueueMaxProp = environmentInfo.getConfiguration(EquinoxConfiguration.PROP_LOG_LISTENER_QUEUE_MAX);
+		int logListenerQueueMax = 0;
+		if (logListenerQueueMaxProp != null) {
+			try {
+				logListenerQueueMax = Integer.parseInt(logListenerQueueMaxProp);
+			} catch (NumberFormatException e) {
+				// ignore and use the default
+			}
+		}
+		logServiceManager = new LogServiceManager(logHistoryMax, logListenerQueueMax, logWriter, perfWriter);
 		eclipseLogFactory = new EquinoxLogFactory(logWriter, logServiceManager);
 		rootFrameworkLog = eclipseLogFactory.createFrameworkLog(null, logWriter);
 	}
@@ -94,6 +103,8 @@ public class EquinoxLogServices {
 	 */
 	public void start(BundleContext context) throws BundleException {
 		logServiceManager.start(context);
+		logWriter.startAsync();
+		perfWriter.startAsync();
 		frameworkLogReg = StorageUtil.register(FrameworkLog.class.getName(), eclipseLogFactory, context);
 		perfLogReg = registerPerformanceLog(context);
 	}
@@ -105,6 +116,9 @@ public class EquinoxLogServices {
 		frameworkLogReg.unregister();
 		perfLogReg.unregister();
 		logServiceManager.stop(context);
+		// write all buffered entries before the framework stops
+		logWriter.stopAsync();
+		perfWriter.stopAsync();
 	}
 
 	public FrameworkLog getFrameworkLog() {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2015 IBM Corporation and others.
+ * Copyright (c) 2004, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,8 +13,10 @@ package org.eclipse.osgi.internal.log;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.security.AccessController;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
 import org.eclipse.equinox.log.*;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
@@ -67,6 +69,28 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 
 	/** The system property used to specify command line args should be omitted from the log */
 	private static final String PROP_LOG_INCLUDE_COMMAND_LINE = "eclipse.log.include.commandline"; //$NON-NLS-1$
+
+	//Constants for asynchronous logging
+	/** The system property used to specify entries should be written by a background thread */
+	private static final String PROP_LOG_ASYNC = "eclipse.log.async"; //$NON-NLS-1$
+	/** The system property used to specify the number of entries buffered for the background thread */
+	private static final String PROP_LOG_ASYNC_BUFFER_SIZE = "eclipse.log.async.buffer.size"; //$NON-NLS-1$
+	/** The system property used to specify the time in milliseconds the background thread waits to fill a batch */
+	private static final String PROP_LOG_ASYNC_FLUSH_INTERVAL = "eclipse.log.async.flush.interval"; //$NON-NLS-1$
+	/** The system property used to specify what happens to new entries when the buffer is full */
+	private static final String PROP_LOG_ASYNC_OVERFLOW = "eclipse.log.async.overflow"; //$NON-NLS-1$
+	/** Overflow policy which waits for the background thread to make room in the buffer */
+	private static final String OVERFLOW_BLOCK = "block"; //$NON-NLS-1$
+	/** Overflow policy which discards the oldest buffered entry */
+	private static final String OVERFLOW_DROP_OLDEST = "dropOldest"; //$NON-NLS-1$
+	/** Overflow policy which discards the new entry */
+	private static final String OVERFLOW_DROP = "drop"; //$NON-NLS-1$
+	/** The default number of entries buffered for the background thread */
+	private static final int DEFAULT_ASYNC_BUFFER_SIZE = 1024;
+	/** The default time in milliseconds the background thread waits to fill a batch */
+	private static final int DEFAULT_ASYNC_FLUSH_INTERVAL = 100;
+	/** The maximum number of entries written before the log is flushed */
+	private static final int ASYNC_BATCH_SIZE = 128;
 	private static final SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
 
 	/** Indicates if the console messages should be printed to the console (System.out) */
@@ -94,6 +118,133 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	private int logLevel = FrameworkLogEntry.OK;
 	private boolean includeCommandLine = true;
 
+	private boolean async = false;
+	private int asyncBufferSize = DEFAULT_ASYNC_BUFFER_SIZE;
+	private int asyncFlushInterval = DEFAULT_ASYNC_FLUSH_INTERVAL;
+	private String asyncOverflow = OVERFLOW_BLOCK;
+	/** The background writer; null if entries are written by the logging thread */
+	private volatile AsyncWriter asyncWriter;
+
+	/**
+	 * A log entry with the time it was logged.
+	 */
+	private static final class LoggedEntry {
+		final FrameworkLogEntry entry;
+		final long timestamp;
+
+		LoggedEntry(FrameworkLogEntry entry, long timestamp) {
+			this.entry = entry;
+			this.timestamp = timestamp;
+		}
+	}
+
+	/**
+	 * A background thread which writes the entries buffered by the logging threads
+	 * in batches.  A batch is collected until it is full, the buffer is empty after
+	 * waiting for the flush interval, and the log is flushed once for each batch.
+	 */
+	private final class AsyncWriter extends Thread {
+		private final ArrayBlockingQueue<LoggedEntry> buffer;
+		private final int flushInterval;
+		private final String overflow;
+		private final AtomicLong dropped = new AtomicLong();
+		private volatile boolean stopping = false;
+
+		AsyncWriter(int bufferSize, int flushInterval, String overflow) {
+			super("Equinox Log Writer: " + loggerName); //$NON-NLS-1$
+			setDaemon(true);
+			this.buffer = new ArrayBlockingQueue<LoggedEntry>(bufferSize);
+			this.flushInterval = flushInterval;
+			this.overflow = overflow;
+		}
+
+		/**
+		 * Buffers the entry for the background thread according to the overflow policy.
+		 * @param loggedEntry the entry to buffer
+		 * @return false if the entry must be written by the logging thread because
+		 * the background thread is stopping
+		 */
+		boolean add(LoggedEntry loggedEntry) {
+			if (stopping)
+				return false;
+			if (!buffer.offer(loggedEntry)) {
+				if (OVERFLOW_DROP.equals(overflow)) {
+					dropped.incrementAndGet();
+					return true;
+				} else if (OVERFLOW_DROP_OLDEST.equals(overflow)) {
+					while (!buffer.offer(loggedEntry)) {
+						if (buffer.poll() != null)
+							dropped.incrementAndGet();
+					}
+				} else {
+					try {
+						while (!buffer.offer(loggedEntry, flushInterval + 1, TimeUnit.MILLISECONDS)) {
+							if (stopping)
+								return false;
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						dropped.incrementAndGet();
+						return true;
+					}
+				}
+			}
+			// the entry may have been buffered after stop drained the buffer
+			return !(stopping && buffer.remove(loggedEntry));
+		}
+
+		public void run() {
+			List<LoggedEntry> batch = new ArrayList<LoggedEntry>(ASYNC_BATCH_SIZE);
+			while (!stopping || !buffer.isEmpty()) {
+				try {
+					LoggedEntry first = buffer.poll(flushInterval + 1, TimeUnit.MILLISECONDS);
+					if (first == null)
+						continue;
+					batch.add(first);
+					long deadline = System.currentTimeMillis() + flushInterval;
+					buffer.drainTo(batch, ASYNC_BATCH_SIZE - batch.size());
+					long remaining;
+					while (batch.size() < ASYNC_BATCH_SIZE && !stopping && (remaining = deadline - System.currentTimeMillis()) > 0) {
+						LoggedEntry next = buffer.poll(remaining, TimeUnit.MILLISECONDS);
+						if (next == null)
+							break;
+						batch.add(next);
+						buffer.drainTo(batch, ASYNC_BATCH_SIZE - batch.size());
+					}
+				} catch (InterruptedException e) {
+					// keep writing until stopped
+				}
+				writeBatch(batch);
+			}
+		}
+
+		void writeBatch(List<LoggedEntry> batch) {
+			long numDropped = dropped.getAndSet(0);
+			if (numDropped > 0)
+				batch.add(new LoggedEntry(new FrameworkLogEntry(loggerName, FrameworkLogEntry.WARNING, 0, numDropped + " log entries were dropped because the log buffer was full.", 0, null, null), System.currentTimeMillis())); //$NON-NLS-1$
+			if (!batch.isEmpty()) {
+				log(batch);
+				batch.clear();
+			}
+		}
+
+		/**
+		 * Stops the background thread after it has written all buffered entries.
+		 */
+		void stopWriter() {
+			stopping = true;
+			try {
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// write anything buffered after the thread stopped
+			List<LoggedEntry> remaining = new ArrayList<LoggedEntry>();
+			buffer.drainTo(remaining);
+			writeBatch(remaining);
+		}
+	}
+
 	/**
 	 * Constructs an EclipseLog which uses the specified File to log messages to
 	 * @param outFile a file to log messages to
@@ -225,6 +376,7 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	}
 
 	public void close() {
+		stopAsync();
 		try {
 			if (writer != null) {
 				Writer tmpWriter = writer;
@@ -271,29 +423,43 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		}
 	}
 
-	private synchronized void log(FrameworkLogEntry logEntry) {
+	private void log(FrameworkLogEntry logEntry) {
 		if (logEntry == null)
 			return;
 		if (!isLoggable(logEntry.getSeverity()))
 			return;
+		LoggedEntry loggedEntry = new LoggedEntry(logEntry, System.currentTimeMillis());
+		AsyncWriter currentWriter = asyncWriter;
+		if (currentWriter != null && currentWriter.add(loggedEntry))
+			return;
+		log(Collections.singletonList(loggedEntry));
+	}
+
+	private synchronized void log(List<LoggedEntry> loggedEntries) {
+		int written = 0;
 		try {
+			// the log is rotated at most once for each batch of entries
 			checkLogFileSize();
 			openFile();
-			if (newSession) {
-				writeSession();
-				newSession = false;
+			for (LoggedEntry loggedEntry : loggedEntries) {
+				if (newSession) {
+					writeSession();
+					newSession = false;
+				}
+				writeLog(0, loggedEntry.entry, loggedEntry.timestamp);
+				written++;
 			}
-			writeLog(0, logEntry);
 			writer.flush();
 		} catch (Exception e) {
 			// any exceptions during logging should be caught 
 			System.err.println("An exception occurred while writing to the platform log:");//$NON-NLS-1$
 			e.printStackTrace(System.err);
 			System.err.println("Logging to the console instead.");//$NON-NLS-1$
-			//we failed to write, so dump log entry to console instead
+			//we failed to write, so dump the remaining log entries to console instead
 			try {
 				writer = logForErrorStream();
-				writeLog(0, logEntry);
+				for (LoggedEntry loggedEntry : loggedEntries.subList(written, loggedEntries.size()))
+					writeLog(0, loggedEntry.entry, loggedEntry.timestamp);
 				writer.flush();
 			} catch (Exception e2) {
 				System.err.println("An exception occurred while logging to the console:");//$NON-NLS-1$
@@ -304,6 +470,31 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		}
 	}
 
+	/**
+	 * Starts writing entries with a background thread if asynchronous logging is enabled.
+	 */
+	synchronized void startAsync() {
+		if (async && enabled && asyncWriter == null) {
+			AsyncWriter newWriter = new AsyncWriter(asyncBufferSize, asyncFlushInterval, asyncOverflow);
+			newWriter.start();
+			asyncWriter = newWriter;
+		}
+	}
+
+	/**
+	 * Stops the background thread after all buffered entries are written.  Entries
+	 * logged afterwards are written by the logging thread.
+	 */
+	void stopAsync() {
+		AsyncWriter currentWriter;
+		synchronized (this) {
+			currentWriter = asyncWriter;
+			asyncWriter = null;
+		}
+		if (currentWriter != null)
+			currentWriter.stopWriter();
+	}
+
 	public synchronized void setWriter(Writer newWriter, boolean append) {
 		setOutput(null, newWriter, append);
 	}
@@ -462,17 +653,18 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	 * a sub-entry.
 	 * @param depth the depth of th entry
 	 * @param entry the entry to log
+	 * @param timestamp the time the entry was logged
 	 * @throws IOException if any error occurs writing to the log
 	 */
-	private void writeLog(int depth, FrameworkLogEntry entry) throws IOException {
-		writeEntry(depth, entry);
+	private void writeLog(int depth, FrameworkLogEntry entry, long timestamp) throws IOException {
+		writeEntry(depth, entry, timestamp);
 		writeMessage(entry);
 		writeStack(entry);
 
 		FrameworkLogEntry[] children = entry.getChildren();
 		if (children != null) {
 			for (int i = 0; i < children.length; i++) {
-				writeLog(depth + 1, children[i]);
+				writeLog(depth + 1, children[i], timestamp);
 			}
 		}
 	}
@@ -483,9 +675,10 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	 * a sub-entry.
 	 * @param depth the depth of th entry
 	 * @param entry the entry to write the header for
+	 * @param timestamp the time the entry was logged
 	 * @throws IOException if any error occurs writing to the log
 	 */
-	private void writeEntry(int depth, FrameworkLogEntry entry) throws IOException {
+	private void writeEntry(int depth, FrameworkLogEntry entry, long timestamp) throws IOException {
 		if (depth == 0) {
 			writeln(); // write a blank line before all !ENTRY tags bug #64406
 			write(ENTRY);
@@ -501,7 +694,7 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		writeSpace();
 		write(Integer.toString(entry.getBundleCode()));
 		writeSpace();
-		write(getDate(new Date()));
+		write(getDate(new Date(timestamp)));
 		writeln();
 	}
 
@@ -669,6 +862,28 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		}
 
 		includeCommandLine = "true".equals(environmentInfo.getConfiguration(PROP_LOG_INCLUDE_COMMAND_LINE, "true")); //$NON-NLS-1$//$NON-NLS-2$
+
+		async = "true".equals(environmentInfo.getConfiguration(PROP_LOG_ASYNC)); //$NON-NLS-1$
+		String newBufferSize = environmentInfo.getConfiguration(PROP_LOG_ASYNC_BUFFER_SIZE);
+		if (newBufferSize != null) {
+			asyncBufferSize = Integer.parseInt(newBufferSize);
+			if (asyncBufferSize < 1) {
+				// Make sure no invalid assigned value. (at least >= 1)
+				asyncBufferSize = DEFAULT_ASYNC_BUFFER_SIZE;
+			}
+		}
+		String newFlushInterval = environmentInfo.getConfiguration(PROP_LOG_ASYNC_FLUSH_INTERVAL);
+		if (newFlushInterval != null) {
+			asyncFlushInterval = Integer.parseInt(newFlushInterval);
+			if (asyncFlushInterval < 0) {
+				asyncFlushInterval = DEFAULT_ASYNC_FLUSH_INTERVAL;
+			}
+		}
+		String newOverflow = environmentInfo.getConfiguration(PROP_LOG_ASYNC_OVERFLOW);
+		if (OVERFLOW_DROP.equals(newOverflow) || OVERFLOW_DROP_OLDEST.equals(newOverflow))
+			asyncOverflow = newOverflow;
+		else
+			asyncOverflow = OVERFLOW_BLOCK;
 	}
 
 	/**
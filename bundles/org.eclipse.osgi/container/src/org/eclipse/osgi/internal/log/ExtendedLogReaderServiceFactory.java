@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2014 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2006, 2016 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials are made
  * available under the terms of the Eclipse Public License v1.0 which
  * accompanies this distribution, and is available at
@@ -11,6 +11,7 @@ import java.io.PrintStream;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import org.eclipse.equinox.log.BatchLogListener;
 import org.eclipse.equinox.log.LogFilter;
 import org.eclipse.equinox.log.SynchronousLogListener;
 import org.eclipse.osgi.framework.util.ArrayMap;
@@ -22,20 +23,6 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 
 	static final int MAX_RECURSIONS = 50;
 
-	static final class LogTask implements Runnable {
-		private final LogEntry logEntry;
-		private final LogListener listener;
-
-		LogTask(LogEntry logEntry, LogListener listener) {
-			this.logEntry = logEntry;
-			this.listener = listener;
-		}
-
-		public void run() {
-			safeLogged(listener, logEntry);
-		}
-	}
-
 	@SuppressWarnings("unchecked")
 	private static final Enumeration<?> EMPTY_ENUMERATION = Collections.enumeration(Collections.EMPTY_LIST);
 
@@ -49,12 +36,15 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 
 	private static PrintStream errorStream;
 
-	private final BasicReadWriteLock listenersLock = new BasicReadWriteLock();
-	private ArrayMap<LogListener, Object[]> listeners = new ArrayMap<LogListener, Object[]>(5);
-	private LogFilter[] filters = null;
+	private final Object listenersLock = new Object();
+	// listeners and filters are replaced on change so logging can read them without locking
+	/* @GuardedBy("listenersLock") */
+	private volatile ArrayMap<LogListener, Object[]> listeners = new ArrayMap<LogListener, Object[]>(5);
+	/* @GuardedBy("listenersLock") */
+	private volatile LogFilter[] filters = null;
 	private final ThreadLocal<int[]> nestedCallCount = new ThreadLocal<int[]>();
-	private final LinkedList<LogEntry> history;
-	private final int maxHistory;
+	private final LogHistory history;
+	private final int maxListenerQueue;
 
 	static boolean safeIsLoggable(LogFilter filter, Bundle bundle, String name, int level) {
 		try {
@@ -98,15 +88,30 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 		}
 	}
 
-	public ExtendedLogReaderServiceFactory(int maxHistory) {
-		this.maxHistory = maxHistory;
-		if (maxHistory > 0) {
-			history = new LinkedList<LogEntry>();
-		} else {
-			history = null;
+	static void safeLogged(BatchLogListener listener, List<LogEntry> logEntries) {
+		try {
+			listener.logged(logEntries);
+		} catch (RuntimeException e) {
+			// "listener.logged" calls user code and might throw an unchecked exception
+			// we catch the error here to gather information on where the problem occurred.
+			getErrorStream().println("BatchLogListener.logged threw a non-fatal unchecked exception as follows:"); //$NON-NLS-1$
+			e.printStackTrace(getErrorStream());
+		} catch (LinkageError e) {
+			// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+			getErrorStream().println("BatchLogListener.logged threw a non-fatal unchecked exception as follows:"); //$NON-NLS-1$
+			e.printStackTrace(getErrorStream());
 		}
 	}
 
+	static void reportDropped(String listenerName, long count) {
+		getErrorStream().println("Dropped " + count + " log entries for the LogListener " + listenerName + " because its queue was full."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	public ExtendedLogReaderServiceFactory(int maxHistory, int maxListenerQueue) {
+		this.history = maxHistory > 0 ? new LogHistory(maxHistory) : null;
+		this.maxListenerQueue = maxListenerQueue > 0 ? maxListenerQueue : LogListenerQueue.DEFAULT_MAX_SIZE;
+	}
+
 	public ExtendedLogReaderServiceImpl getService(Bundle bundle, ServiceRegistration<ExtendedLogReaderServiceImpl> registration) {
 		return new ExtendedLogReaderServiceImpl(this);
 	}
@@ -127,13 +132,7 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 	}
 
 	boolean isLoggablePrivileged(Bundle bundle, String name, int level) {
-		LogFilter[] filtersCopy;
-		listenersLock.readLock();
-		try {
-			filtersCopy = filters;
-		} finally {
-			listenersLock.readUnlock();
-		}
+		LogFilter[] filtersCopy = filters;
 		try {
 			if (incrementNestedCount() == MAX_RECURSIONS)
 				return false;
@@ -193,13 +192,7 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 	void logPrivileged(Bundle bundle, String name, Object context, int level, String message, Throwable exception) {
 		LogEntry logEntry = new ExtendedLogEntryImpl(bundle, name, context, level, message, exception);
 		storeEntry(logEntry);
-		ArrayMap<LogListener, Object[]> listenersCopy;
-		listenersLock.readLock();
-		try {
-			listenersCopy = listeners;
-		} finally {
-			listenersLock.readUnlock();
-		}
+		ArrayMap<LogListener, Object[]> listenersCopy = listeners;
 		try {
 			if (incrementNestedCount() >= MAX_RECURSIONS)
 				return;
@@ -209,9 +202,9 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 				LogFilter filter = (LogFilter) listenerObjects[0];
 				if (safeIsLoggable(filter, bundle, name, level)) {
 					LogListener listener = listenersCopy.getKey(i);
-					SerializedTaskQueue taskQueue = (SerializedTaskQueue) listenerObjects[1];
-					if (taskQueue != null) {
-						taskQueue.put(new LogTask(logEntry, listener));
+					LogListenerQueue listenerQueue = (LogListenerQueue) listenerObjects[1];
+					if (listenerQueue != null) {
+						listenerQueue.put(logEntry);
 					} else {
 						// log synchronously
 						safeLogged(listener, logEntry);
@@ -225,24 +218,18 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 
 	private void storeEntry(LogEntry logEntry) {
 		if (history != null) {
-			synchronized (history) {
-				if (history.size() == maxHistory) {
-					history.removeFirst();
-				}
-				history.addLast(logEntry);
-			}
+			history.add(logEntry);
 		}
 	}
 
 	void addLogListener(LogListener listener, LogFilter filter) {
-		listenersLock.writeLock();
-		try {
+		synchronized (listenersLock) {
 			ArrayMap<LogListener, Object[]> listenersCopy = new ArrayMap<LogListener, Object[]>(listeners.getKeys(), listeners.getValues());
 			Object[] listenerObjects = listenersCopy.get(listener);
 			if (listenerObjects == null) {
-				// Only create a task queue for non-SynchronousLogListeners
-				SerializedTaskQueue taskQueue = (listener instanceof SynchronousLogListener) ? null : new SerializedTaskQueue(listener.toString());
-				listenerObjects = new Object[] {filter, taskQueue};
+				// Only create a listener queue for non-SynchronousLogListeners
+				LogListenerQueue listenerQueue = (listener instanceof SynchronousLogListener) ? null : new LogListenerQueue(listener, maxListenerQueue);
+				listenerObjects = new Object[] {filter, listenerQueue};
 			} else if (filter != listenerObjects[0]) {
 				// update the filter
 				listenerObjects[0] = filter;
@@ -250,11 +237,10 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 			listenersCopy.put(listener, listenerObjects);
 			recalculateFilters(listenersCopy);
 			listeners = listenersCopy;
-		} finally {
-			listenersLock.writeUnlock();
 		}
 	}
 
+	/* @GuardedBy("listenersLock") */
 	private void recalculateFilters(ArrayMap<LogListener, Object[]> listenersCopy) {
 		List<LogFilter> filtersList = new ArrayList<LogFilter>();
 		int size = listenersCopy.size();
@@ -275,14 +261,11 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 	}
 
 	void removeLogListener(LogListener listener) {
-		listenersLock.writeLock();
-		try {
+		synchronized (listenersLock) {
 			ArrayMap<LogListener, Object[]> listenersCopy = new ArrayMap<LogListener, Object[]>(listeners.getKeys(), listeners.getValues());
 			listenersCopy.remove(listener);
 			recalculateFilters(listenersCopy);
 			listeners = listenersCopy;
-		} finally {
-			listenersLock.writeUnlock();
 		}
 	}
 
@@ -290,8 +273,6 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory<ExtendedL
 		if (history == null) {
 			return EMPTY_ENUMERATION;
 		}
-		synchronized (history) {
-			return Collections.enumeration(new ArrayList<LogEntry>(history));
-		}
+		return Collections.enumeration(history.getEntries());
 	}
 }
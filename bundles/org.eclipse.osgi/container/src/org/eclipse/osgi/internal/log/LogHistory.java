@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.osgi.internal.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.osgi.service.log.LogEntry;
+
+/**
+ * A bounded history of the most recent log entries.  The history is a ring of
+ * slots indexed by a sequence number which is claimed atomically by each added
+ * entry, so adding an entry never blocks or waits for other logging threads.
+ * A slot records the sequence number of its entry which allows readers to skip
+ * slots that have not been written yet or have already been reused for a newer
+ * entry.
+ *
+ * @ThreadSafe
+ */
+final class LogHistory {
+	private static final class Slot {
+		final long sequence;
+		final LogEntry entry;
+
+		Slot(long sequence, LogEntry entry) {
+			this.sequence = sequence;
+			this.entry = entry;
+		}
+	}
+
+	private final AtomicReferenceArray<Slot> slots;
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	LogHistory(int maxHistory) {
+		this.slots = new AtomicReferenceArray<Slot>(maxHistory);
+	}
+
+	void add(LogEntry entry) {
+		long sequence = nextSequence.getAndIncrement();
+		slots.set((int) (sequence % slots.length()), new Slot(sequence, entry));
+	}
+
+	/**
+	 * Returns the entries currently in the history, oldest first.  Entries
+	 * which are concurrently being added or overwritten may be missing.
+	 * @return the entries in the history
+	 */
+	List<LogEntry> getEntries() {
+		long end = nextSequence.get();
+		long start = Math.max(0, end - slots.length());
+		List<LogEntry> entries = new ArrayList<LogEntry>((int) (end - start));
+		for (long sequence = start; sequence < end; sequence++) {
+			Slot slot = slots.get((int) (sequence % slots.length()));
+			if (slot != null && slot.sequence == sequence) {
+				entries.add(slot.entry);
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.osgi.internal.log;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.equinox.log.BatchLogListener;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+
+/**
+ * A bounded queue of log entries which are delivered asynchronously, and in
+ * order, to a single log listener.  Entries are delivered by a thread which
+ * is started when entries are queued and stops once the queue has been idle
+ * for a while.  Entries are delivered in batches of up to {@link #BATCH_SIZE}
+ * entries to a {@link BatchLogListener}.
+ * <p>
+ * Logging never waits for the listener.  If the queue is full the new entry is
+ * dropped and counted, and the number of dropped entries is reported once the
+ * listener catches up.
+ *
+ * @ThreadSafe
+ */
+final class LogListenerQueue {
+	static final int DEFAULT_MAX_SIZE = 1024;
+	static final int BATCH_SIZE = 64;
+	private static final long MAX_WAIT = 5000;
+
+	private final LogListener listener;
+	private final String name;
+	private final ArrayBlockingQueue<LogEntry> entries;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile Thread thread;
+
+	LogListenerQueue(LogListener listener, int maxSize) {
+		this.listener = listener;
+		this.name = listener.toString();
+		this.entries = new ArrayBlockingQueue<LogEntry>(maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE);
+	}
+
+	void put(LogEntry entry) {
+		if (!entries.offer(entry)) {
+			dropped.incrementAndGet();
+			return;
+		}
+		if (thread == null) {
+			startThread();
+		}
+	}
+
+	private synchronized void startThread() {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread(name) {
+			public void run() {
+				dispatch();
+			}
+		};
+		thread.start();
+	}
+
+	/*
+	 * Claims the dispatching of the queue for the current thread after it has
+	 * given up the queue but found entries which were queued in the meantime.
+	 */
+	private synchronized boolean claimThread() {
+		if (thread != null) {
+			return false;
+		}
+		thread = Thread.currentThread();
+		return true;
+	}
+
+	void dispatch() {
+		List<LogEntry> batch = new ArrayList<LogEntry>(BATCH_SIZE);
+		while (true) {
+			LogEntry first;
+			try {
+				first = entries.poll(MAX_WAIT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				// ignore -- we control the stack here and do not need to propagate it.
+				first = entries.poll();
+			}
+			if (first == null) {
+				thread = null;
+				// an entry may have been queued while giving up the queue
+				if (entries.isEmpty() || !claimThread()) {
+					return;
+				}
+				continue;
+			}
+			batch.add(first);
+			entries.drainTo(batch, BATCH_SIZE - 1);
+			if (listener instanceof BatchLogListener) {
+				ExtendedLogReaderServiceFactory.safeLogged((BatchLogListener) listener, Collections.unmodifiableList(new ArrayList<LogEntry>(batch)));
+			} else {
+				for (LogEntry entry : batch) {
+					ExtendedLogReaderServiceFactory.safeLogged(listener, entry);
+				}
+			}
+			batch.clear();
+			long droppedCount = dropped.getAndSet(0);
+			if (droppedCount > 0) {
+				ExtendedLogReaderServiceFactory.reportDropped(name, droppedCount);
+			}
+		}
+	}
+}
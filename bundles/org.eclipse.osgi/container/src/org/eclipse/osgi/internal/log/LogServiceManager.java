@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2014 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2006, 2016 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials are made
  * available under the terms of the Eclipse Public License v1.0 which
  * accompanies this distribution, and is available at
@@ -29,8 +29,8 @@ public class LogServiceManager implements BundleListener, FrameworkListener, Ser
 	private final ExtendedLogServiceImpl systemBundleLog;
 	private EventAdminAdapter eventAdminAdapter;
 
-	public LogServiceManager(int maxHistory, LogListener... systemListeners) {
-		logReaderServiceFactory = new ExtendedLogReaderServiceFactory(maxHistory);
+	public LogServiceManager(int maxHistory, int maxListenerQueue, LogListener... systemListeners) {
+		logReaderServiceFactory = new ExtendedLogReaderServiceFactory(maxHistory, maxListenerQueue);
 		logServiceFactory = new ExtendedLogServiceFactory(logReaderServiceFactory);
 		systemBundleLog = logServiceFactory.getLogService(new MockSystemBundle());
 		for (LogListener logListener : systemListeners) {
@@ -68,6 +68,16 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		this.allservices = (listener instanceof AllServiceListener);
 	}
 
+	/**
+	 * Returns the objectClass required by the filter of this listener.
+	 * 
+	 * @return The interned objectClass required by the filter or <code>null</code>
+	 * if the listener must receive events for services of any objectClass.
+	 */
+	String getObjectClass() {
+		return objectClass;
+	}
+
 	/**
 	 * Receives notification that a service has had a lifecycle change.
 	 * 
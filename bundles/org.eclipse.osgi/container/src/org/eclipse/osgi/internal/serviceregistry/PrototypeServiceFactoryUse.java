@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2013 IBM Corporation and others.
+ * Copyright (c) 2013, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,7 +11,8 @@
 
 package org.eclipse.osgi.internal.serviceregistry;
 
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
 import org.eclipse.osgi.internal.messages.Msg;
@@ -22,14 +23,36 @@ import org.osgi.framework.*;
  * service acquired by a bundle. 
  * 
  * <p>
- * This class manages a prototype service factory.
+ * This class manages a prototype service factory.  Service objects are gotten
+ * from and released to the prototype service factory without holding any monitor.
  * 
  * @ThreadSafe
  */
 public class PrototypeServiceFactoryUse<S> extends ServiceFactoryUse<S> {
 	/** Service objects returned by PrototypeServiceFactory.getService() */
-	/* @GuardedBy("this") */
-	private final Set<S> serviceObjects;
+	private final ConcurrentMap<ServiceObjectKey, S> serviceObjects;
+
+	/**
+	 * Identity key of a service object.  Service objects are distinct objects
+	 * even if they are equal.
+	 */
+	private static final class ServiceObjectKey {
+		private final Object service;
+
+		ServiceObjectKey(Object service) {
+			this.service = service;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(service);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof ServiceObjectKey) && ((ServiceObjectKey) obj).service == service;
+		}
+	}
 
 	/**
 	 * Constructs a service use encapsulating the service object.
@@ -39,7 +62,7 @@ public class PrototypeServiceFactoryUse<S> extends ServiceFactoryUse<S> {
 	 */
 	PrototypeServiceFactoryUse(BundleContextImpl context, ServiceRegistrationImpl<S> registration) {
 		super(context, registration);
-		this.serviceObjects = Collections.newSetFromMap(new IdentityHashMap<S, Boolean>());
+		this.serviceObjects = new ConcurrentHashMap<ServiceObjectKey, S>();
 	}
 
 	/**
@@ -47,12 +70,10 @@ public class PrototypeServiceFactoryUse<S> extends ServiceFactoryUse<S> {
 	 * 
 	 * <p>
 	 * 
-	 * @return The service object.
+	 * @return The service object or <code>null</code> if this service use has been discarded.
 	 */
-	/* @GuardedBy("this") */
 	@Override
 	S newServiceObject() {
-		assert Thread.holdsLock(this);
 		if (debug.DEBUG_SERVICES) {
 			Debug.println("getServiceObject[factory=" + registration.getBundle() + "](" + context.getBundleImpl() + "," + registration + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 		}
@@ -60,7 +81,14 @@ public class PrototypeServiceFactoryUse<S> extends ServiceFactoryUse<S> {
 		if (service == null) {
 			return null;
 		}
-		serviceObjects.add(service);
+		ServiceObjectKey key = new ServiceObjectKey(service);
+		serviceObjects.put(key, service);
+		/* if the service was released while the factory was called then
+		 * release the service object unless release already did */
+		if (isDiscarded() && (serviceObjects.remove(key) != null)) {
+			factoryUngetService(service);
+			return null;
+		}
 		return service;
 	}
 
@@ -72,11 +100,9 @@ public class PrototypeServiceFactoryUse<S> extends ServiceFactoryUse<S> {
 	 * @throws IllegalArgumentException If the specified service was not
 	 *         provided by this object.
 	 */
-	/* @GuardedBy("this") */
 	@Override
 	boolean releaseServiceObject(final S service) {
-		assert Thread.holdsLock(this);
-		if ((service == null) || !serviceObjects.remove(service)) {
+		if ((service == null) || (serviceObjects.remove(new ServiceObjectKey(service)) == null)) {
 			throw new IllegalArgumentException(Msg.SERVICE_OBJECTS_UNGET_ARGUMENT_EXCEPTION);
 		}
 		if (debug.DEBUG_SERVICES) {
@@ -95,27 +121,19 @@ public class PrototypeServiceFactoryUse<S> extends ServiceFactoryUse<S> {
 	 * is called to release the service object for the bundle.
 	 * </ol>
 	 */
-	/* @GuardedBy("this") */
 	@Override
 	void release() {
 		super.release();
-		for (S service : serviceObjects) {
+		for (ServiceObjectKey key : serviceObjects.keySet()) {
+			/* a service object is released by the thread which removes it */
+			S service = serviceObjects.remove(key);
+			if (service == null) {
+				continue;
+			}
 			if (debug.DEBUG_SERVICES) {
 				Debug.println("releaseService[factory=" + registration.getBundle() + "](" + context.getBundleImpl() + "," + registration + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 			}
 			factoryUngetService(service);
 		}
-		serviceObjects.clear();
-	}
-
-	/**
-	 * Is this service use using any services?
-	 * 
-	 * @return true if no services are being used and this service use can be discarded.
-	 */
-	/* @GuardedBy("this") */
-	@Override
-	boolean isEmpty() {
-		return super.isEmpty() && serviceObjects.isEmpty();
 	}
 }
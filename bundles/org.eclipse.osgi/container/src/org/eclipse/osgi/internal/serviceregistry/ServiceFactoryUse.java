@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2013 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -24,7 +24,8 @@ import org.osgi.framework.*;
  * service acquired by a bundle. 
  * 
  * <p>
- * This class manages a service factory.
+ * This class manages a service factory.  Calls to the service factory for
+ * the singleton service object are made while holding the monitor of the service use.
  * 
  * @ThreadSafe
  */
@@ -81,12 +82,14 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 	 * <li>The service object is returned.
 	 * </ol>
 	 *
-	 * @return The service object.
+	 * @return The service object or <code>null</code> if this service use has been discarded.
 	 */
-	/* @GuardedBy("this") */
 	@Override
-	S getService() {
-		assert Thread.holdsLock(this);
+	synchronized S getService() {
+		if (isDiscarded()) {
+			/* the service was released while this get was in progress */
+			return null;
+		}
 		if (inUse()) {
 			incrementUse();
 			return cachedService;
@@ -138,15 +141,11 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 	 * </ol>
 	 * @return true if the service was ungotten; otherwise false.
 	 */
-	/* @GuardedBy("this") */
 	@Override
-	boolean ungetService() {
-		assert Thread.holdsLock(this);
-		if (!inUse()) {
+	synchronized boolean ungetService() {
+		if (!decrementUse()) {
 			return false;
 		}
-
-		decrementUse();
 		if (inUse()) {
 			return true;
 		}
@@ -161,6 +160,19 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 		return true;
 	}
 
+	/**
+	 * Release a service object for the service.
+	 * 
+	 * @param service The service object to release.
+	 * @return true if the service was released; otherwise false.
+	 * @throws IllegalArgumentException If the specified service was not
+	 *         provided by this object.
+	 */
+	@Override
+	synchronized boolean releaseServiceObject(final S service) {
+		return super.releaseServiceObject(service);
+	}
+
 	/**
 	 * Release all uses of the service and reset the use count to zero.
 	 * 
@@ -170,9 +182,8 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 	 * is called to release the service object for the bundle.
 	 * </ol>
 	 */
-	/* @GuardedBy("this") */
 	@Override
-	void release() {
+	synchronized void release() {
 		super.release();
 
 		final S service = cachedService;
@@ -192,9 +203,8 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 	 *
 	 * @return The service object.
 	 */
-	/* @GuardedBy("this") */
 	@Override
-	S getCachedService() {
+	synchronized S getCachedService() {
 		return cachedService;
 	}
 
@@ -203,7 +213,6 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 	 *  
 	 * @return The service returned by the factory or null if there was an error.
 	 */
-	/* @GuardedBy("this") */
 	S factoryGetService() {
 		final S service;
 		try {
@@ -252,7 +261,6 @@ public class ServiceFactoryUse<S> extends ServiceUse<S> {
 	 *  
 	 *  @param service The service object to pass to the factory.
 	 */
-	/* @GuardedBy("this") */
 	void factoryUngetService(final S service) {
 		try {
 			AccessController.doPrivileged(new PrivilegedAction<Void>() {
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.serviceregistry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A secondary index of published services by the value of a single
+ * service property. The index is used to select the candidate registrations
+ * for a filter which requires an exact match on the indexed property,
+ * for example <code>(&amp;(objectClass=foo.Bar)(component.name=baz))</code>.
+ * <p>
+ * Only <code>String</code> values (including the elements of <code>String[]</code>
+ * and <code>Collection</code> values) are indexed since only those compare
+ * equal to a filter value by simple string equality. Registrations with a value
+ * of any other type are kept in a separate list which is always included in the
+ * candidates so that the result is identical to a linear scan of all
+ * registrations. Registrations which do not have the property at all are
+ * not part of the index since they can never match.
+ * <p>
+ * The lists of registrations are immutable snapshots sorted in the natural
+ * order of ServiceRegistrationImpl. Updates must be made while holding the
+ * registry lock; reads require no lock.
+ *
+ * @ThreadSafe
+ */
+class ServicePropertyIndex {
+	/** The property key which is indexed. */
+	private final String key;
+
+	/** Registrations by String value of the indexed property. */
+	/* @GuardedBy("registry") for updates */
+	private final ConcurrentMap<String, List<ServiceRegistrationImpl<?>>> byValue = new ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>>();
+
+	/** Registrations with a non-String value for the indexed property. */
+	/* @GuardedBy("registry") for updates */
+	private final AtomicReference<List<ServiceRegistrationImpl<?>>> unindexed = new AtomicReference<List<ServiceRegistrationImpl<?>>>(Collections.<ServiceRegistrationImpl<?>> emptyList());
+
+	ServicePropertyIndex(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Returns the property key which is indexed.
+	 * @return the property key which is indexed.
+	 */
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Adds the registration to the index using the specified properties.
+	 *
+	 * @param registration The registration to add.
+	 * @param properties The properties of the registration.
+	 */
+	void add(ServiceRegistrationImpl<?> registration, ServiceProperties properties) {
+		Collection<String> values = getIndexValues(properties);
+		if (values == null) {
+			unindexed.set(ServiceRegistry.insertRegistration(unindexed.get(), registration, true));
+			return;
+		}
+		for (String value : values) {
+			byValue.put(value, ServiceRegistry.insertRegistration(byValue.get(value), registration, true));
+		}
+	}
+
+	/**
+	 * Removes the registration from the index. The properties must be the
+	 * properties used when the registration was added.
+	 *
+	 * @param registration The registration to remove.
+	 * @param properties The properties the registration was added with.
+	 */
+	void remove(ServiceRegistrationImpl<?> registration, ServiceProperties properties) {
+		Collection<String> values = getIndexValues(properties);
+		if (values == null) {
+			unindexed.set(ServiceRegistry.removeRegistration(unindexed.get(), registration));
+			return;
+		}
+		for (String value : values) {
+			List<ServiceRegistrationImpl<?>> services = ServiceRegistry.removeRegistration(byValue.get(value), registration);
+			if (services.isEmpty()) {
+				byValue.remove(value);
+			} else {
+				byValue.put(value, services);
+			}
+		}
+	}
+
+	/**
+	 * Returns the registrations which may have the specified value for
+	 * the indexed property. The returned list is sorted in the natural order
+	 * of ServiceRegistrationImpl and must not be modified.
+	 *
+	 * @param value The required value of the indexed property.
+	 * @return The candidate registrations.
+	 */
+	List<ServiceRegistrationImpl<?>> getCandidates(String value) {
+		List<ServiceRegistrationImpl<?>> indexed = byValue.get(value);
+		List<ServiceRegistrationImpl<?>> others = unindexed.get();
+		if (others.isEmpty()) {
+			if (indexed == null) {
+				return Collections.<ServiceRegistrationImpl<?>> emptyList();
+			}
+			return indexed;
+		}
+		if (indexed == null) {
+			return others;
+		}
+		// merge the two sorted lists
+		List<ServiceRegistrationImpl<?>> result = new ArrayList<ServiceRegistrationImpl<?>>(indexed.size() + others.size());
+		int i = 0, j = 0;
+		while (i < indexed.size() && j < others.size()) {
+			if (indexed.get(i).compareTo(others.get(j)) <= 0) {
+				result.add(indexed.get(i++));
+			} else {
+				result.add(others.get(j++));
+			}
+		}
+		result.addAll(indexed.subList(i, indexed.size()));
+		result.addAll(others.subList(j, others.size()));
+		return result;
+	}
+
+	/**
+	 * Returns the String values of the indexed property.
+	 *
+	 * @param properties The properties of a registration.
+	 * @return The String values of the indexed property, an empty collection if
+	 * the property is not set or <code>null</code> if the property has a value
+	 * which cannot be indexed.
+	 */
+	private Collection<String> getIndexValues(ServiceProperties properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		if (value instanceof String) {
+			return Collections.singletonList((String) value);
+		}
+		Collection<?> elements;
+		if (value instanceof String[]) {
+			elements = Arrays.asList((String[]) value);
+		} else if (value instanceof Collection) {
+			elements = (Collection<?>) value;
+		} else {
+			return null;
+		}
+		Set<String> result = new HashSet<String>();
+		for (Object element : elements) {
+			if (!(element instanceof String)) {
+				return null;
+			}
+			result.add((String) element);
+		}
+		return result;
+	}
+}
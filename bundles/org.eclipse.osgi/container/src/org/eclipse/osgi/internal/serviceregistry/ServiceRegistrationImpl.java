@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2014 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.osgi.internal.serviceregistry;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
 import org.eclipse.osgi.internal.loader.sources.PackageSource;
@@ -74,9 +75,9 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	/* internal object to use for synchronization */
 	private final Object registrationLock = new Object();
 
-	/** The registration state */
+	/** The registration state; read without holding the registrationLock */
 	/* @GuardedBy("registrationLock") */
-	private int state;
+	private volatile int state;
 	private static final int REGISTERED = 0x00;
 	private static final int UNREGISTERING = 0x01;
 	private static final int UNREGISTERED = 0x02;
@@ -162,7 +163,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 				previousProperties = this.properties;
 				this.properties = createProperties(props);
 			}
-			registry.modifyServiceRegistration(context, this);
+			registry.modifyServiceRegistration(context, this, previousProperties);
 		}
 		/* must not hold the registrationLock when this event is published */
 		registry.publishServiceEvent(new ModifiedServiceEvent(ref, previousProperties));
@@ -257,9 +258,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return true if unregistered; otherwise false.
 	 */
 	boolean isUnregistered() {
-		synchronized (registrationLock) {
-			return state == UNREGISTERED;
-		}
+		return state == UNREGISTERED;
 	}
 
 	/**
@@ -450,7 +449,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		if (isUnregistered()) { /* service unregistered */
 			return null;
 		}
-		Map<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse = user.getServicesInUseMap();
+		ConcurrentMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse = user.getServicesInUseMap();
 		if (servicesInUse == null) { /* user is closed */
 			user.checkValid(); /* throw exception */
 		}
@@ -458,54 +457,73 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		if (registry.debug.DEBUG_SERVICES) {
 			Debug.println("getService[" + user.getBundleImpl() + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
-		/* Use a while loop to support retry if a call to a ServiceFactory fails */
+		/* Use a while loop to support retry if another thread discards the ServiceUse */
 		while (true) {
-			ServiceUse<S> use;
-			boolean added = false;
+			user.checkValid();
 			/* Obtain the ServiceUse object for this service by bundle user */
-			synchronized (servicesInUse) {
-				user.checkValid();
-				@SuppressWarnings("unchecked")
-				ServiceUse<S> u = (ServiceUse<S>) servicesInUse.get(this);
-				use = u;
-				if (use == null) {
-					/* if this is the first use of the service
-					 * optimistically record this service is being used. */
-					use = newServiceUse(user);
-					added = true;
-					synchronized (registrationLock) {
-						if (state == UNREGISTERED) { /* service unregistered */
-							return null;
-						}
-						servicesInUse.put(this, use);
+			@SuppressWarnings("unchecked")
+			ServiceUse<S> use = (ServiceUse<S>) servicesInUse.get(this);
+			if (use == null) {
+				/* if this is the first use of the service
+				 * optimistically record this service is being used. */
+				ServiceUse<S> newUse = newServiceUse(user);
+				synchronized (registrationLock) {
+					if (state == UNREGISTERED) { /* service unregistered */
+						return null;
+					}
+					@SuppressWarnings("unchecked")
+					ServiceUse<S> u = (ServiceUse<S>) servicesInUse.putIfAbsent(this, newUse);
+					use = u;
+					if (use == null) {
+						use = newUse;
 						contextsUsing.add(user);
 					}
 				}
+				if (use == newUse) {
+					try {
+						user.checkValid();
+					} catch (IllegalStateException e) {
+						/* the user was closed while the ServiceUse was added */
+						removeServiceUse(servicesInUse, user, use);
+						throw e;
+					}
+				}
+			}
+
+			/* if another thread discarded the ServiceUse, then
+			 * go back to the top and start again */
+			if (!use.acquire()) {
+				removeServiceUse(servicesInUse, user, use);
+				continue;
 			}
 
 			/* Obtain and return the service object */
-			synchronized (use) {
-				/* if another thread removed the ServiceUse, then
-				 * go back to the top and start again */
-				synchronized (servicesInUse) {
-					user.checkValid();
-					if (servicesInUse.get(this) != use) {
-						continue;
-					}
+			S serviceObject = null;
+			try {
+				serviceObject = consumer.getService(use);
+			} finally {
+				/* if the service factory failed to return an object then
+				 * release the acquired reference which discards the 
+				 * ServiceUse if it is not otherwise used. */
+				if ((serviceObject == null) && use.releaseReference()) {
+					removeServiceUse(servicesInUse, user, use);
 				}
-				S serviceObject = consumer.getService(use);
-				/* if the service factory failed to return an object and
-				 * we created the service use, then remove the 
-				 * optimistically added ServiceUse. */
-				if ((serviceObject == null) && added) {
-					synchronized (servicesInUse) {
-						synchronized (registrationLock) {
-							servicesInUse.remove(this);
-							contextsUsing.remove(user);
-						}
-					}
-				}
-				return serviceObject;
+			}
+			return serviceObject;
+		}
+	}
+
+	/**
+	 * Remove a discarded ServiceUse from the services in use by the user.
+	 * 
+	 * @param servicesInUse The services in use by the user.
+	 * @param user The bundle using this service.
+	 * @param use The discarded ServiceUse.
+	 */
+	private void removeServiceUse(ConcurrentMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse, BundleContextImpl user, ServiceUse<S> use) {
+		synchronized (registrationLock) {
+			if (servicesInUse.remove(this, use)) {
+				contextsUsing.remove(user);
 			}
 		}
 	}
@@ -557,7 +575,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		if (isUnregistered()) {
 			return false;
 		}
-		Map<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse = user.getServicesInUseMap();
+		ConcurrentMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse = user.getServicesInUseMap();
 		if (servicesInUse == null) {
 			return false;
 		}
@@ -566,27 +584,15 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 			Debug.println("ungetService[" + user.getBundleImpl() + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
 
-		ServiceUse<S> use;
-		synchronized (servicesInUse) {
-			@SuppressWarnings("unchecked")
-			ServiceUse<S> u = (ServiceUse<S>) servicesInUse.get(this);
-			use = u;
-			if (use == null) {
-				return false;
-			}
+		@SuppressWarnings("unchecked")
+		ServiceUse<S> use = (ServiceUse<S>) servicesInUse.get(this);
+		if (use == null) {
+			return false;
 		}
 
-		boolean result;
-		synchronized (use) {
-			result = consumer.ungetService(use, serviceObject);
-			if (use.isEmpty()) { /* service use can be discarded */
-				synchronized (servicesInUse) {
-					synchronized (registrationLock) {
-						servicesInUse.remove(this);
-						contextsUsing.remove(user);
-					}
-				}
-			}
+		boolean result = consumer.ungetService(use, serviceObject);
+		if (result && use.releaseReference()) { /* service use can be discarded */
+			removeServiceUse(servicesInUse, user, use);
 		}
 		return result;
 	}
@@ -607,25 +613,21 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 			Debug.println("releaseService[" + user.getBundleImpl() + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
 
-		Map<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse = user.getServicesInUseMap();
+		ConcurrentMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse = user.getServicesInUseMap();
 		if (servicesInUse == null) {
 			return;
 		}
 		ServiceUse<S> use;
-		synchronized (servicesInUse) {
-			synchronized (registrationLock) {
-				@SuppressWarnings("unchecked")
-				ServiceUse<S> u = (ServiceUse<S>) servicesInUse.remove(this);
-				use = u;
-				if (use == null) {
-					return;
-				}
-				contextsUsing.remove(user);
+		synchronized (registrationLock) {
+			@SuppressWarnings("unchecked")
+			ServiceUse<S> u = (ServiceUse<S>) servicesInUse.remove(this);
+			use = u;
+			if (use == null) {
+				return;
 			}
+			contextsUsing.remove(user);
 		}
-		synchronized (use) {
-			use.release();
-		}
+		use.release();
 	}
 
 	/**
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2014 IBM Corporation and others.
+ * Copyright (c) 2004, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,14 +13,17 @@ package org.eclipse.osgi.internal.serviceregistry;
 
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.internal.debug.Debug;
-import org.eclipse.osgi.internal.framework.BundleContextImpl;
-import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.framework.*;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 import org.osgi.framework.hooks.service.*;
@@ -45,24 +48,36 @@ public class ServiceRegistry {
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are both sorted 
 	 * in the natural order of ServiceRegistrationImpl and also are sets in that
 	 * there must be no two entries in a List which are equal.
+	 * The Lists are immutable snapshots which are replaced, never modified,
+	 * when a registration is added, modified or removed. This allows lookups
+	 * to be performed without holding the registry lock.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
+	/* @GuardedBy("this") for updates */
+	private final ConcurrentMap<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
 
 	/** All published services. 
 	 * The List is both sorted in the natural order of ServiceRegistrationImpl and also is a
 	 * set in that there must be no two entries in the List which are equal.
+	 * The List is an immutable snapshot which is replaced on each update.
 	 */
-	/* @GuardedBy("this") */
-	private final List<ServiceRegistrationImpl<?>> allPublishedServices;
+	/* @GuardedBy("this") for updates */
+	private final AtomicReference<List<ServiceRegistrationImpl<?>>> allPublishedServices;
 
 	/** Published services by BundleContextImpl.  
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are NOT sorted 
 	 * and also are sets in that
 	 * there must be no two entries in a List which are equal.
+	 * The Lists are immutable snapshots which are replaced on each update.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<BundleContextImpl, List<ServiceRegistrationImpl<?>>> publishedServicesByContext;
+	/* @GuardedBy("this") for updates */
+	private final ConcurrentMap<BundleContextImpl, List<ServiceRegistrationImpl<?>>> publishedServicesByContext;
+
+	/** Secondary indexes of published services by the value of frequently filtered properties.
+	 * The indexes are used to select candidates for filters which require an exact
+	 * match on an indexed property.
+	 */
+	/* @GuardedBy("this") for updates */
+	private final ServicePropertyIndex[] propertyIndexes;
 
 	/** next free service id. */
 	/* @GuardedBy("this") */
@@ -74,6 +89,20 @@ public class ServiceRegistry {
 	/* @GuardedBy("serviceEventListeners") */
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> serviceEventListeners;
 
+	/** Routing table of active Service Listeners by the objectClass required by their filter.
+	 * A service event is only routed to the listeners for the objectClasses of the
+	 * service and to the listeners which do not require an objectClass.
+	 * {@literal Map<String,Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>>}.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersByClass;
+
+	/** Active Service Listeners which do not require an objectClass.
+	 * {@literal Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>}.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> unroutedServiceEventListeners;
+
 	/** initial capacity of the main data structure */
 	private static final int initialCapacity = 50;
 	/** initial capacity of the nested data structure */
@@ -91,10 +120,17 @@ public class ServiceRegistry {
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		serviceid = 1;
-		publishedServicesByClass = new HashMap<String, List<ServiceRegistrationImpl<?>>>(initialCapacity);
-		publishedServicesByContext = new HashMap<BundleContextImpl, List<ServiceRegistrationImpl<?>>>(initialCapacity);
-		allPublishedServices = new ArrayList<ServiceRegistrationImpl<?>>(initialCapacity);
+		publishedServicesByClass = new ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>>(initialCapacity);
+		publishedServicesByContext = new ConcurrentHashMap<BundleContextImpl, List<ServiceRegistrationImpl<?>>>(initialCapacity);
+		allPublishedServices = new AtomicReference<List<ServiceRegistrationImpl<?>>>(Collections.<ServiceRegistrationImpl<?>> emptyList());
 		serviceEventListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialCapacity);
+		serviceEventListenersByClass = new HashMap<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>>(initialCapacity);
+		unroutedServiceEventListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialCapacity);
+		String[] indexKeys = ManifestElement.getArrayFromList(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_SERVICE_INDEX_KEYS, EquinoxConfiguration.DEFAULT_SERVICE_INDEX_KEYS), ","); //$NON-NLS-1$
+		propertyIndexes = new ServicePropertyIndex[indexKeys.length];
+		for (int i = 0; i < indexKeys.length; i++) {
+			propertyIndexes[i] = new ServicePropertyIndex(indexKeys[i]);
+		}
 		Module systemModule = container.getStorage().getModuleContainer().getModule(0);
 		systemBundleContext = (BundleContextImpl) systemModule.getBundle().getBundleContext();
 		systemBundleContext.provisionServicesInUseMap();
@@ -622,13 +658,10 @@ public class ServiceRegistry {
 			return null;
 		}
 
-		List<ServiceRegistrationImpl<?>> registrations;
-		synchronized (servicesInUse) {
-			if (servicesInUse.isEmpty()) {
-				return null;
-			}
-			registrations = new ArrayList<ServiceRegistrationImpl<?>>(servicesInUse.keySet());
+		if (servicesInUse.isEmpty()) {
+			return null;
 		}
+		List<ServiceRegistrationImpl<?>> registrations = new ArrayList<ServiceRegistrationImpl<?>>(servicesInUse.keySet());
 		List<ServiceReferenceImpl<?>> references = new ArrayList<ServiceReferenceImpl<?>>(registrations.size());
 		for (ServiceRegistrationImpl<?> registration : registrations) {
 			ServiceReferenceImpl<?> reference;
@@ -681,13 +714,10 @@ public class ServiceRegistry {
 		if (servicesInUse == null) {
 			return;
 		}
-		List<ServiceRegistrationImpl<?>> registrations;
-		synchronized (servicesInUse) {
-			if (servicesInUse.isEmpty()) {
-				return;
-			}
-			registrations = new ArrayList<ServiceRegistrationImpl<?>>(servicesInUse.keySet());
+		if (servicesInUse.isEmpty()) {
+			return;
 		}
+		List<ServiceRegistrationImpl<?>> registrations = new ArrayList<ServiceRegistrationImpl<?>>(servicesInUse.keySet());
 		if (debug.DEBUG_SERVICES) {
 			Debug.println("Releasing services"); //$NON-NLS-1$
 		}
@@ -719,6 +749,10 @@ public class ServiceRegistry {
 				serviceEventListeners.put(context, listeners);
 			}
 			oldFilteredListener = listeners.put(listener, filteredListener);
+			if (oldFilteredListener != null) {
+				removeServiceListenerRoute(context, listener, oldFilteredListener);
+			}
+			addServiceListenerRoute(context, listener, filteredListener);
 		}
 
 		if (oldFilteredListener != null) {
@@ -750,6 +784,9 @@ public class ServiceRegistry {
 				return; // this context has no listeners to begin with
 			}
 			oldFilteredListener = listeners.remove(listener);
+			if (oldFilteredListener != null) {
+				removeServiceListenerRoute(context, listener, oldFilteredListener);
+			}
 		}
 
 		if (oldFilteredListener == null) {
@@ -769,6 +806,11 @@ public class ServiceRegistry {
 		Map<ServiceListener, FilteredServiceListener> removedListenersMap;
 		synchronized (serviceEventListeners) {
 			removedListenersMap = serviceEventListeners.remove(context);
+			if (removedListenersMap != null) {
+				for (Map.Entry<ServiceListener, FilteredServiceListener> entry : removedListenersMap.entrySet()) {
+					removeServiceListenerRoute(context, entry.getKey(), entry.getValue());
+				}
+			}
 		}
 		if ((removedListenersMap == null) || removedListenersMap.isEmpty()) {
 			return;
@@ -780,6 +822,93 @@ public class ServiceRegistry {
 		notifyListenerHooks(asListenerInfos(removedListeners), false);
 	}
 
+	/**
+	 * Add a Service Listener to the routing table.
+	 * 
+	 * @param context Context of bundle adding listener.
+	 * @param listener Service Listener to be added.
+	 * @param filteredListener The filtered listener for the Service Listener.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void addServiceListenerRoute(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> routes;
+		String objectClass = filteredListener.getObjectClass();
+		if (objectClass == null) {
+			routes = unroutedServiceEventListeners;
+		} else {
+			routes = serviceEventListenersByClass.get(objectClass);
+			if (routes == null) {
+				routes = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialSubCapacity);
+				serviceEventListenersByClass.put(objectClass, routes);
+			}
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = routes.get(context);
+		if (listeners == null) {
+			listeners = new CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>();
+			routes.put(context, listeners);
+		}
+		listeners.put(listener, filteredListener);
+	}
+
+	/**
+	 * Remove a Service Listener from the routing table.
+	 * 
+	 * @param context Context of bundle removing listener.
+	 * @param listener Service Listener to be removed.
+	 * @param filteredListener The filtered listener which was added for the Service Listener.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void removeServiceListenerRoute(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> routes;
+		String objectClass = filteredListener.getObjectClass();
+		if (objectClass == null) {
+			routes = unroutedServiceEventListeners;
+		} else {
+			routes = serviceEventListenersByClass.get(objectClass);
+			if (routes == null) {
+				return;
+			}
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = routes.get(context);
+		if (listeners == null || listeners.get(listener) != filteredListener) {
+			return;
+		}
+		listeners.remove(listener);
+		if (listeners.isEmpty()) {
+			routes.remove(context);
+			if (routes.isEmpty() && objectClass != null) {
+				serviceEventListenersByClass.remove(objectClass);
+			}
+		}
+	}
+
+	/**
+	 * Add the routed listeners to the routing snapshot for a service event.
+	 * 
+	 * @param snapshot The routing snapshot by BundleContextImpl.
+	 * @param routes The listeners to add by BundleContextImpl.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private static void addServiceListenerRoutes(Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> snapshot, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> routes) {
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : routes.entrySet()) {
+			CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = entry.getValue();
+			if (listeners.isEmpty()) {
+				continue;
+			}
+			CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> existing = snapshot.get(entry.getKey());
+			if (existing == null) {
+				snapshot.put(entry.getKey(), listeners);
+			} else {
+				// the context has listeners for more than one route; merge them into a copy
+				CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> merged = new CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>(existing);
+				merged.putAll(listeners);
+				snapshot.put(entry.getKey(), merged);
+			}
+		}
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<FilteredServiceListener>
 	 * to Collection<ListenerInfo>
@@ -810,22 +939,29 @@ public class ServiceRegistry {
 	}
 
 	void publishServiceEventPrivileged(final ServiceEvent event) {
-		/* Build the listener snapshot */
+		/* Build the listener snapshot from the listeners routed to the objectClasses of the service */
 		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot;
 		Set<Map.Entry<ServiceListener, FilteredServiceListener>> systemServiceListenersOrig = null;
 		BundleContextImpl systemContext = null;
+		String[] classes = ((ServiceReferenceImpl<?>) event.getServiceReference()).getClasses();
 		synchronized (serviceEventListeners) {
-			listenerSnapshot = new HashMap<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>>(serviceEventListeners.size());
-			for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : serviceEventListeners.entrySet()) {
+			Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> routed = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>();
+			addServiceListenerRoutes(routed, unroutedServiceEventListeners);
+			for (String clazz : classes) {
+				Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> routes = serviceEventListenersByClass.get(clazz);
+				if (routes != null) {
+					addServiceListenerRoutes(routed, routes);
+				}
+			}
+			listenerSnapshot = new HashMap<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>>(routed.size());
+			for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : routed.entrySet()) {
 				Map<ServiceListener, FilteredServiceListener> listeners = entry.getValue();
-				if (!listeners.isEmpty()) {
-					if (entry.getKey().getBundleImpl().getBundleId() == 0) {
-						systemContext = entry.getKey();
-						// make a copy that we can use to discard hook removals later
-						systemServiceListenersOrig = listeners.entrySet();
-					}
-					listenerSnapshot.put(entry.getKey(), listeners.entrySet());
+				if (entry.getKey().getBundleImpl().getBundleId() == 0) {
+					systemContext = entry.getKey();
+					// make a copy that we can use to discard hook removals later
+					systemServiceListenersOrig = listeners.entrySet();
 				}
+				listenerSnapshot.put(entry.getKey(), listeners.entrySet());
 			}
 		}
 
@@ -894,33 +1030,22 @@ public class ServiceRegistry {
 	void addServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration) {
 		assert Thread.holdsLock(this);
 		// Add the ServiceRegistrationImpl to the list of Services published by BundleContextImpl.
-		List<ServiceRegistrationImpl<?>> contextServices = publishedServicesByContext.get(context);
-		if (contextServices == null) {
-			contextServices = new ArrayList<ServiceRegistrationImpl<?>>(initialSubCapacity);
-			publishedServicesByContext.put(context, contextServices);
-		}
 		// The list is NOT sorted, so we just add
-		contextServices.add(registration);
+		publishedServicesByContext.put(context, insertRegistration(publishedServicesByContext.get(context), registration, false));
 
 		// Add the ServiceRegistrationImpl to the list of Services published by Class Name.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-
-			if (services == null) {
-				services = new ArrayList<ServiceRegistrationImpl<?>>(initialSubCapacity);
-				publishedServicesByClass.put(clazz, services);
-			}
-
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, insertRegistration(publishedServicesByClass.get(clazz), registration, true));
 		}
 
 		// Add the ServiceRegistrationImpl to the list of all published Services.
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices.set(insertRegistration(allPublishedServices.get(), registration, true));
+
+		// Add the ServiceRegistrationImpl to the property indexes.
+		ServiceProperties properties = registration.getProperties();
+		for (ServicePropertyIndex index : propertyIndexes) {
+			index.add(registration, properties);
+		}
 	}
 
 	/**
@@ -928,30 +1053,31 @@ public class ServiceRegistry {
 	 * 
 	 * @param context The BundleContext of the bundle registering the service.
 	 * @param registration The modified ServiceRegistration.
+	 * @param previousProperties The properties of the registration before it was modified.
 	 */
 	/* @GuardedBy("this") */
-	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration) {
+	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration, ServiceProperties previousProperties) {
 		assert Thread.holdsLock(this);
 		// The list of Services published by BundleContextImpl is not sorted, so
 		// we do not need to modify it.
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name
 		// and then add at the correct index.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, insertRegistration(removeRegistration(publishedServicesByClass.get(clazz), registration), registration, true));
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services
 		// and then add at the correct index.
-		allPublishedServices.remove(registration);
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices.set(insertRegistration(removeRegistration(allPublishedServices.get(), registration), registration, true));
+
+		// Remove the ServiceRegistrationImpl from the property indexes using the previous
+		// properties and then add it back using the current properties.
+		ServiceProperties properties = registration.getProperties();
+		for (ServicePropertyIndex index : propertyIndexes) {
+			index.remove(registration, previousProperties);
+			index.add(registration, properties);
+		}
 	}
 
 	/**
@@ -966,24 +1092,95 @@ public class ServiceRegistry {
 		// Remove the ServiceRegistrationImpl from the list of Services published by BundleContextImpl.
 		List<ServiceRegistrationImpl<?>> contextServices = publishedServicesByContext.get(context);
 		if (contextServices != null) {
-			contextServices.remove(registration);
+			// keep the (possibly empty) list; removeServiceRegistrations removes it when the context closes
+			publishedServicesByContext.put(context, removeRegistration(contextServices, registration));
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name.
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
+			List<ServiceRegistrationImpl<?>> services = removeRegistration(publishedServicesByClass.get(clazz), registration);
 			if (services.isEmpty()) { // remove empty list
 				publishedServicesByClass.remove(clazz);
+			} else {
+				publishedServicesByClass.put(clazz, services);
 			}
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services.
-		allPublishedServices.remove(registration);
+		allPublishedServices.set(removeRegistration(allPublishedServices.get(), registration));
+
+		// Remove the ServiceRegistrationImpl from the property indexes.
+		ServiceProperties properties = registration.getProperties();
+		for (ServicePropertyIndex index : propertyIndexes) {
+			index.remove(registration, properties);
+		}
+	}
+
+	/**
+	 * Returns a new immutable snapshot containing the registrations of the specified
+	 * snapshot plus the specified registration.
+	 * 
+	 * @param snapshot The current snapshot or <code>null</code> if there is none.
+	 * @param registration The registration to add.
+	 * @param sorted <code>true</code> if the registration must be inserted in the natural
+	 *        order of ServiceRegistrationImpl; <code>false</code> to append it.
+	 * @return The new snapshot.
+	 */
+	static List<ServiceRegistrationImpl<?>> insertRegistration(List<ServiceRegistrationImpl<?>> snapshot, ServiceRegistrationImpl<?> registration, boolean sorted) {
+		int size = snapshot == null ? 0 : snapshot.size();
+		int insertIndex = size;
+		if (sorted && size > 0) {
+			// The list is sorted, so we must find the proper location to insert
+			insertIndex = -Collections.binarySearch(snapshot, registration) - 1;
+		}
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[size + 1];
+		for (int i = 0; i < insertIndex; i++) {
+			result[i] = snapshot.get(i);
+		}
+		result[insertIndex] = registration;
+		for (int i = insertIndex; i < size; i++) {
+			result[i + 1] = snapshot.get(i);
+		}
+		return Collections.unmodifiableList(Arrays.asList(result));
+	}
+
+	/**
+	 * Returns a new immutable snapshot containing the registrations of the specified
+	 * snapshot minus the specified registration. The registration is located by identity
+	 * since its ranking may have changed since it was inserted.
+	 * 
+	 * @param snapshot The current snapshot or <code>null</code> if there is none.
+	 * @param registration The registration to remove.
+	 * @return The new snapshot.
+	 */
+	static List<ServiceRegistrationImpl<?>> removeRegistration(List<ServiceRegistrationImpl<?>> snapshot, ServiceRegistrationImpl<?> registration) {
+		if (snapshot == null) {
+			return Collections.<ServiceRegistrationImpl<?>> emptyList();
+		}
+		int index = snapshot.indexOf(registration);
+		if (index < 0) {
+			return snapshot;
+		}
+		int size = snapshot.size();
+		if (size == 1) {
+			return Collections.<ServiceRegistrationImpl<?>> emptyList();
+		}
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[size - 1];
+		for (int i = 0, j = 0; i < size; i++) {
+			if (i != index) {
+				result[j++] = snapshot.get(i);
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(result));
 	}
 
 	/**
 	 * Lookup Service Registrations in the data structure by class name and filter.
+	 * <p>
+	 * This method does not hold the registry lock. It reads the current immutable
+	 * snapshot of registrations which must not be modified by the caller.
+	 * If the filter requires an exact value for an indexed property then only
+	 * the registrations from that property index are matched against the filter.
 	 * 
 	 * @param clazz The class name with which the service was registered or
 	 *        <code>null</code> for all services.
@@ -992,40 +1189,71 @@ public class ServiceRegistry {
 	 */
 	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(String clazz, Filter filter) {
 		List<ServiceRegistrationImpl<?>> result;
-		synchronized (this) {
-			if (clazz == null) { /* all services */
-				result = allPublishedServices;
-			} else {
-				/* services registered under the class name */
-				result = publishedServicesByClass.get(clazz);
-			}
-
-			if ((result == null) || result.isEmpty()) {
-				List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
-				return empty;
-			}
+		if (clazz == null) { /* all services */
+			result = allPublishedServices.get();
+		} else {
+			/* services registered under the class name */
+			result = publishedServicesByClass.get(clazz);
+		}
 
-			result = new LinkedList<ServiceRegistrationImpl<?>>(result); /* make a new list since we don't want to change the real list */
+		if ((result == null) || result.isEmpty()) {
+			List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
+			return empty;
 		}
 
 		if (filter == null) {
-			return result;
+			return result; /* the snapshot is immutable so it can be returned directly */
+		}
+
+		// use the smallest set of candidates from the property indexes
+		boolean checkClass = false;
+		if (filter instanceof FilterImpl) {
+			FilterImpl filterImpl = (FilterImpl) filter;
+			for (ServicePropertyIndex index : propertyIndexes) {
+				String value = filterImpl.getPrimaryKeyValue(index.getKey());
+				if (value != null) {
+					List<ServiceRegistrationImpl<?>> candidates = index.getCandidates(value);
+					if (candidates.size() < result.size()) {
+						result = candidates;
+						/* the index contains services registered under any class name */
+						checkClass = clazz != null;
+					}
+				}
+			}
 		}
 
-		for (Iterator<ServiceRegistrationImpl<?>> iter = result.iterator(); iter.hasNext();) {
-			ServiceRegistrationImpl<?> registration = iter.next();
+		List<ServiceRegistrationImpl<?>> matches = new ArrayList<ServiceRegistrationImpl<?>>();
+		for (ServiceRegistrationImpl<?> registration : result) {
+			if (checkClass && !isRegisteredUnder(registration, clazz)) {
+				continue;
+			}
 			ServiceReferenceImpl<?> reference;
 			try {
 				reference = registration.getReferenceImpl();
 			} catch (IllegalStateException e) {
-				iter.remove(); /* service was unregistered after we left the synchronized block above */
-				continue;
+				continue; /* service was unregistered after the snapshot was taken */
 			}
-			if (!filter.match(reference)) {
-				iter.remove();
+			if (filter.match(reference)) {
+				matches.add(registration);
 			}
 		}
-		return result;
+		return matches;
+	}
+
+	/**
+	 * Returns true if the registration was registered under the specified class name.
+	 * 
+	 * @param registration The registration.
+	 * @param clazz The class name.
+	 * @return true if the registration was registered under the specified class name.
+	 */
+	private static boolean isRegisteredUnder(ServiceRegistrationImpl<?> registration, String clazz) {
+		for (String registeredClass : registration.getClasses()) {
+			if (registeredClass.equals(clazz)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -1034,7 +1262,7 @@ public class ServiceRegistry {
 	 * @param context The BundleContext for which to return Service Registrations.
 	 * @return List<ServiceRegistrationImpl>
 	 */
-	private synchronized List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(BundleContextImpl context) {
+	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(BundleContextImpl context) {
 		List<ServiceRegistrationImpl<?>> result = publishedServicesByContext.get(context);
 
 		if ((result == null) || result.isEmpty()) {
@@ -1042,7 +1270,7 @@ public class ServiceRegistry {
 			return empty;
 		}
 
-		return new ArrayList<ServiceRegistrationImpl<?>>(result); /* make a new list since we don't want to change the real list */
+		return result; /* the snapshot is immutable so it can be returned directly */
 	}
 
 	/**
@@ -1276,6 +1504,8 @@ public class ServiceRegistry {
 		if (hook == null) { // if the hook is null
 			return;
 		}
+		EquinoxEventMetrics metrics = container.getEventMetrics();
+		long start = metrics == null ? 0 : System.nanoTime();
 		try {
 			hookContext.call(hook, registration);
 		} catch (Throwable t) {
@@ -1288,6 +1518,10 @@ public class ServiceRegistry {
 			ServiceException se = new ServiceException(NLS.bind(Msg.SERVICE_FACTORY_EXCEPTION, hook.getClass().getName(), hookContext.getHookMethodName()), t);
 			container.getEventPublisher().publishFrameworkEvent(FrameworkEvent.ERROR, registration.getBundle(), se);
 		} finally {
+			if (metrics != null) {
+				String hookClassName = hookContext.getHookClassName();
+				metrics.record(registration.getBundle(), hookClassName.substring(hookClassName.lastIndexOf('.') + 1), System.nanoTime() - start);
+			}
 			registration.ungetService(context, ServiceConsumer.singletonConsumer, null);
 		}
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2013 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,7 @@
 
 package org.eclipse.osgi.internal.serviceregistry;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.osgi.framework.ServiceException;
@@ -22,15 +23,27 @@ import org.osgi.framework.ServiceException;
  * <p>
  * This class manages a singleton service.
  * 
+ * <p>
+ * The use count and the reference count of a service use are atomic counters so
+ * a singleton service can be gotten and ungotten without holding a monitor.
+ * The reference count is the number of uses plus the number of gets in progress.
+ * Once the reference count drops to zero the service use is discarded and can no
+ * longer be acquired; a new service use must then be created for the bundle.
+ * 
  * @ThreadSafe
  */
 public class ServiceUse<S> {
+	/** reference count of a discarded service use */
+	private static final int DISCARDED = -1;
+
 	/** ServiceDescription of the registered service */
 	final ServiceRegistrationImpl<S> registration;
 
 	/** bundle's use count for this service */
-	/* @GuardedBy("this") */
-	private int useCount;
+	private final AtomicInteger useCount;
+
+	/** number of uses and gets in progress; DISCARDED once the service use is discarded */
+	private final AtomicInteger references;
 
 	/**
 	 * Constructs a service use encapsulating the service object.
@@ -39,18 +52,73 @@ public class ServiceUse<S> {
 	 * @param   registration ServiceRegistration of the service
 	 */
 	ServiceUse(BundleContextImpl context, ServiceRegistrationImpl<S> registration) {
-		this.useCount = 0;
+		this.useCount = new AtomicInteger();
+		this.references = new AtomicInteger();
 		this.registration = registration;
 	}
 
+	/**
+	 * Acquire a reference to this service use before getting a service object.
+	 * The reference is kept if a service object is returned; otherwise it must be
+	 * released with {@link #releaseReference()}.
+	 * 
+	 * @return true if a reference was acquired; false if this service use has been
+	 * discarded.
+	 */
+	boolean acquire() {
+		while (true) {
+			int current = references.get();
+			if (current == DISCARDED) {
+				return false;
+			}
+			if (current == Integer.MAX_VALUE) {
+				throw new ServiceException(Msg.SERVICE_USE_OVERFLOW);
+			}
+			if (references.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release a reference to this service use.  The service use is discarded
+	 * when the last reference is released.
+	 * 
+	 * @return true if this service use was discarded by this call.
+	 */
+	boolean releaseReference() {
+		while (true) {
+			int current = references.get();
+			if (current <= 0) {
+				/* already discarded or released */
+				return false;
+			}
+			int next = current == 1 ? DISCARDED : current - 1;
+			if (references.compareAndSet(current, next)) {
+				return next == DISCARDED;
+			}
+		}
+	}
+
+	/**
+	 * Has this service use been discarded?
+	 * 
+	 * @return true if this service use has been discarded or released.
+	 */
+	boolean isDiscarded() {
+		return references.get() == DISCARDED;
+	}
+
 	/**
 	 * Get a service's service object and increment the use count.
 	 *
-	 * @return The service object.
+	 * @return The service object or <code>null</code> if this service use has been discarded.
 	 */
-	/* @GuardedBy("this") */
 	S getService() {
-		assert Thread.holdsLock(this);
+		if (isDiscarded()) {
+			/* the service was released while this get was in progress */
+			return null;
+		}
 		incrementUse();
 		return registration.getServiceObject();
 	}
@@ -63,14 +131,8 @@ public class ServiceUse<S> {
 	 * 
 	 * @return true if the service was ungotten; otherwise false.
 	 */
-	/* @GuardedBy("this") */
 	boolean ungetService() {
-		assert Thread.holdsLock(this);
-		if (!inUse()) {
-			return false;
-		}
-		decrementUse();
-		return true;
+		return decrementUse();
 	}
 
 	/**
@@ -78,7 +140,6 @@ public class ServiceUse<S> {
 	 *
 	 * @return The service object.
 	 */
-	/* @GuardedBy("this") */
 	S getCachedService() {
 		return registration.getServiceObject();
 	}
@@ -91,7 +152,6 @@ public class ServiceUse<S> {
 	 * 
 	 * @return The service object.
 	 */
-	/* @GuardedBy("this") */
 	S newServiceObject() {
 		return getService();
 	}
@@ -107,7 +167,6 @@ public class ServiceUse<S> {
 	 * @throws IllegalArgumentException If the specified service was not
 	 *         provided by this object.
 	 */
-	/* @GuardedBy("this") */
 	boolean releaseServiceObject(final S service) {
 		if ((service == null) || (service != getCachedService())) {
 			throw new IllegalArgumentException(Msg.SERVICE_OBJECTS_UNGET_ARGUMENT_EXCEPTION);
@@ -116,60 +175,59 @@ public class ServiceUse<S> {
 	}
 
 	/**
-	 * Release all uses of the service and reset the use count to zero.
+	 * Release all uses of the service, reset the use count to zero and
+	 * discard this service use.
 	 */
-	/* @GuardedBy("this") */
 	void release() {
-		assert Thread.holdsLock(this);
+		references.set(DISCARDED);
 		resetUse();
 	}
 
-	/**
-	 * Is this service use using any services?
-	 * 
-	 * @return true if no services are being used and this service use can be discarded.
-	 */
-	/* @GuardedBy("this") */
-	boolean isEmpty() {
-		assert Thread.holdsLock(this);
-		return !inUse();
-	}
-
 	/**
 	 * Is the use count non zero?
 	 * 
 	 * @return true if the use count is greater than zero.
 	 */
-	/* @GuardedBy("this") */
 	boolean inUse() {
-		return useCount > 0;
+		return useCount.get() > 0;
 	}
 
 	/**
 	 * Incrementing the use count.
 	 */
-	/* @GuardedBy("this") */
 	void incrementUse() {
-		if (useCount == Integer.MAX_VALUE) {
-			throw new ServiceException(Msg.SERVICE_USE_OVERFLOW);
+		while (true) {
+			int current = useCount.get();
+			if (current == Integer.MAX_VALUE) {
+				throw new ServiceException(Msg.SERVICE_USE_OVERFLOW);
+			}
+			if (useCount.compareAndSet(current, current + 1)) {
+				return;
+			}
 		}
-		useCount++;
 	}
 
 	/**
-	 * Decrementing the use count.
+	 * Decrementing the use count if it is non zero.
+	 * 
+	 * @return true if the use count was decremented; otherwise false.
 	 */
-	/* @GuardedBy("this") */
-	void decrementUse() {
-		assert inUse();
-		useCount--;
+	boolean decrementUse() {
+		while (true) {
+			int current = useCount.get();
+			if (current <= 0) {
+				return false;
+			}
+			if (useCount.compareAndSet(current, current - 1)) {
+				return true;
+			}
+		}
 	}
 
 	/**
 	 * Reset the use count to zero.
 	 */
-	/* @GuardedBy("this") */
 	void resetUse() {
-		useCount = 0;
+		useCount.set(0);
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2012 IBM Corporation and others.
+ * Copyright (c) 2010, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -75,4 +75,8 @@ public class WeavingHookConfigurator extends ClassLoaderHook {
 		wovenClass.setWeavingCompleted(clazz);
 	}
 
+	@Override
+	public boolean canFindClassesAndResources() {
+		return false;
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2013 IBM Corporation and others.
+ * Copyright (c) 2012, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -417,6 +417,7 @@ public final class BundleInfo {
 	}
 
 	public void delete() {
+		getStorage().cancelDeferredSaves(this, null);
 		try {
 			getStorage().delete(getStorage().getFile(Long.toString(getBundleId()), false));
 		} catch (IOException e) {
@@ -425,6 +426,7 @@ public final class BundleInfo {
 	}
 
 	void delete(Generation generation) {
+		getStorage().cancelDeferredSaves(this, generation);
 		try {
 			getStorage().delete(getStorage().getFile(getBundleId() + "/" + generation.getGenerationId(), false)); //$NON-NLS-1$
 		} catch (IOException e) {
@@ -14,6 +14,8 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
 import org.eclipse.osgi.container.*;
@@ -54,6 +56,8 @@ public class Storage {
 	public static final String BUNDLE_DATA_DIR = "data"; //$NON-NLS-1$
 	public static final String BUNDLE_FILE_NAME = "bundleFile"; //$NON-NLS-1$
 	public static final String FRAMEWORK_INFO = "framework.info"; //$NON-NLS-1$
+	// must not start with FRAMEWORK_INFO or the storage manager deletes it as an old copy
+	public static final String FRAMEWORK_JOURNAL = "framework.journal"; //$NON-NLS-1$
 	public static final String ECLIPSE_SYSTEMBUNDLE = "Eclipse-SystemBundle"; //$NON-NLS-1$
 	public static final String DELETE_FLAG = ".delete"; //$NON-NLS-1$
 	public static final String LIB_TEMP = "libtemp"; //$NON-NLS-1$
@@ -77,11 +81,14 @@ public class Storage {
 	private final ModuleContainer moduleContainer;
 	private final Object saveMonitor = new Object();
 	private long lastSavedTimestamp = -1;
+	private final ConcurrentMap<Generation, Runnable> deferredSaves = new ConcurrentHashMap<Generation, Runnable>();
 	private final LockSet<Long> idLocks = new LockSet<Long>();
 	private final MRUBundleFileList mruList;
 	private final FrameworkExtensionInstaller extensionInstaller;
 	private final List<String> cachedHeaderKeys = Arrays.asList(Constants.BUNDLE_SYMBOLICNAME, Constants.BUNDLE_ACTIVATIONPOLICY, "Service-Component"); //$NON-NLS-1$
 	private final boolean allowRestrictedProvides;
+	private final boolean mappedBundleFiles;
+	private final long journalLimit;
 
 	public static Storage createStorage(EquinoxContainer container) throws IOException, BundleException {
 		Storage storage = new Storage(container);
@@ -99,6 +106,8 @@ public class Storage {
 		equinoxContainer = container;
 		extensionInstaller = new FrameworkExtensionInstaller(container.getConfiguration());
 		allowRestrictedProvides = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_ALLOW_RESTRICTED_PROVIDES));
+		mappedBundleFiles = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_FILE_MAPPED));
+		journalLimit = getJournalLimit(container.getConfiguration());
 
 		// we need to set the install path as soon as possible so we can determine
 		// the absolute location of install relative URLs
@@ -127,6 +136,7 @@ public class Storage {
 
 		InputStream info = getInfoInputStream();
 		DataInputStream data = info == null ? null : new DataInputStream(new BufferedInputStream(info));
+		DataInputStream journal = null;
 		try {
 			Map<Long, Generation> generations;
 			try {
@@ -144,7 +154,8 @@ public class Storage {
 			this.moduleContainer = new ModuleContainer(this.adaptor, this.moduleDatabase);
 			if (data != null) {
 				try {
-					moduleDatabase.load(data);
+					journal = getJournalInputStream();
+					moduleDatabase.load(data, journal);
 					lastSavedTimestamp = moduleDatabase.getTimestamp();
 				} catch (IllegalArgumentException e) {
 					equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Incompatible version.  Starting with empty framework.", e); //$NON-NLS-1$
@@ -163,6 +174,21 @@ public class Storage {
 					// just move on
 				}
 			}
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException e) {
+					// just move on
+				}
+			}
+		}
+	}
+
+	private long getJournalLimit(EquinoxConfiguration configuration) {
+		try {
+			return Long.parseLong(configuration.getConfiguration(EquinoxConfiguration.PROP_STORAGE_JOURNAL_LIMIT, EquinoxConfiguration.DEFAULT_STORAGE_JOURNAL_LIMIT));
+		} catch (NumberFormatException e) {
+			return Long.parseLong(EquinoxConfiguration.DEFAULT_STORAGE_JOURNAL_LIMIT);
 		}
 	}
 
@@ -314,7 +340,7 @@ public class Storage {
 
 	public void close() {
 		try {
-			save();
+			compactJournal();
 		} catch (IOException e) {
 			getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Error saving on shutdown", e); //$NON-NLS-1$
 		}
@@ -337,6 +363,7 @@ public class Storage {
 		}
 		mruList.shutdown();
 		adaptor.shutdownResolverExecutor();
+		adaptor.shutdownStartLevelExecutor();
 	}
 
 	private boolean needUpdate(ModuleRevision currentRevision, ModuleRevisionBuilder newBuilder) {
@@ -923,6 +950,8 @@ public class Storage {
 			if (isDirectory) {
 				boolean strictPath = Boolean.parseBoolean(equinoxContainer.getConfiguration().getConfiguration(EquinoxConfiguration.PROPERTY_STRICT_BUNDLE_ENTRY_PATH, Boolean.FALSE.toString()));
 				result = new DirBundleFile(content, strictPath);
+			} else if (mappedBundleFiles && content.length() <= Integer.MAX_VALUE) {
+				result = new MappedZipBundleFile(content, generation, getConfiguration().getDebug());
 			} else {
 				result = new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
 			}
@@ -1019,16 +1048,71 @@ public class Storage {
 	}
 
 	public void save() throws IOException {
+		save(false);
+	}
+
+	/**
+	 * Saves the framework data as a full snapshot, replacing the journal of
+	 * changes appended since the last snapshot.
+	 * @throws IOException if an error occurred saving the framework data
+	 */
+	public void compactJournal() throws IOException {
+		save(true);
+	}
+
+	/**
+	 * Returns true if the journal of changes appended since the last snapshot
+	 * has grown large enough that it should be {@link #compactJournal() compacted}.
+	 * @return true if the journal should be compacted
+	 */
+	public boolean isJournalCompactionNeeded() {
+		return journalLimit > 0 && getJournalFile().length() >= journalLimit;
+	}
+
+	/**
+	 * Defers a save of data cached for the specified generation until the next
+	 * time the framework data is saved.  Only the last save task deferred for a
+	 * generation is run.  Deferred save tasks are discarded if the generation is
+	 * deleted before they run.
+	 * @param generation the generation the cached data belongs to
+	 * @param saveTask the task that saves the cached data
+	 */
+	public void deferSave(Generation generation, Runnable saveTask) {
+		if (!isReadOnly()) {
+			deferredSaves.put(generation, saveTask);
+		}
+	}
+
+	void cancelDeferredSaves(BundleInfo bundleInfo, Generation generation) {
+		for (Iterator<Generation> iGenerations = deferredSaves.keySet().iterator(); iGenerations.hasNext();) {
+			Generation deferred = iGenerations.next();
+			if (deferred.getBundleInfo() == bundleInfo && (generation == null || deferred == generation)) {
+				iGenerations.remove();
+			}
+		}
+	}
+
+	void runDeferredSaves() {
+		for (Map.Entry<Generation, Runnable> deferred : deferredSaves.entrySet()) {
+			if (deferredSaves.remove(deferred.getKey(), deferred.getValue())) {
+				deferred.getValue().run();
+			}
+		}
+	}
+
+	private void save(final boolean compactJournal) throws IOException {
 		if (isReadOnly()) {
 			return;
 		}
 		if (System.getSecurityManager() == null) {
-			save0();
+			runDeferredSaves();
+			save0(compactJournal);
 		} else {
 			try {
 				AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
 					public Void run() throws IOException {
-						save0();
+						runDeferredSaves();
+						save0(compactJournal);
 						return null;
 					}
 				});
@@ -1040,7 +1124,7 @@ public class Storage {
 		}
 	}
 
-	void save0() throws IOException {
+	void save0(boolean compactJournal) throws IOException {
 		StorageManager childStorageManager = null;
 		ManagedOutputStream mos = null;
 		DataOutputStream out = null;
@@ -1048,16 +1132,27 @@ public class Storage {
 		moduleDatabase.readLock();
 		try {
 			synchronized (this.saveMonitor) {
-				if (lastSavedTimestamp == moduleDatabase.getTimestamp())
+				File journalFile = getJournalFile();
+				if (lastSavedTimestamp == moduleDatabase.getTimestamp()) {
+					if (!compactJournal || !journalFile.exists())
+						return;
+				} else if (!compactJournal && appendJournal(journalFile)) {
+					lastSavedTimestamp = moduleDatabase.getTimestamp();
 					return;
+				}
 				childStorageManager = getChildStorageManager();
 				mos = childStorageManager.getOutputStream(FRAMEWORK_INFO);
 				out = new DataOutputStream(new BufferedOutputStream(mos));
 				saveGenerations(out);
 				savePermissionData(out);
 				moduleDatabase.store(out, true);
+				// closing commits the new framework info
+				out.close();
+				out = null;
 				lastSavedTimestamp = moduleDatabase.getTimestamp();
 				success = true;
+				// the new framework info includes all the journaled changes
+				journalFile.delete();
 			}
 		} finally {
 			if (!success) {
@@ -1079,6 +1174,59 @@ public class Storage {
 		}
 	}
 
+	/**
+	 * Appends the changes to module settings and start levels to the journal.
+	 * Other changes require a full snapshot of the framework data.
+	 * @param journalFile the journal file
+	 * @return true if the changes were appended to the journal
+	 */
+	private boolean appendJournal(File journalFile) {
+		if (journalLimit <= 0 || permissionData.isDirty()) {
+			return false;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			if (!moduleDatabase.storeJournal(new DataOutputStream(bytes))) {
+				return false;
+			}
+			FileOutputStream out = new FileOutputStream(journalFile, true);
+			try {
+				out.write(bytes.toByteArray());
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			return true;
+		} catch (IOException e) {
+			// fall back to a full snapshot which includes the changes
+			if (getConfiguration().getDebug().DEBUG_STORAGE) {
+				Debug.println("Error appending to " + FRAMEWORK_JOURNAL + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				Debug.printStackTrace(e);
+			}
+			return false;
+		}
+	}
+
+	private File getJournalFile() {
+		return new File(childRoot, FRAMEWORK_JOURNAL);
+	}
+
+	private DataInputStream getJournalInputStream() {
+		File journalFile = getJournalFile();
+		if (!journalFile.isFile()) {
+			return null;
+		}
+		try {
+			return new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		} catch (IOException e) {
+			// changes after the last snapshot are lost
+			if (getConfiguration().getDebug().DEBUG_STORAGE) {
+				Debug.println("Error reading " + FRAMEWORK_JOURNAL + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			return null;
+		}
+	}
+
 	private void savePermissionData(DataOutputStream out) throws IOException {
 		permissionData.savePermissionData(out);
 	}
@@ -0,0 +1,538 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.*;
+import org.eclipse.osgi.container.ModuleContainerAdaptor.ContainerEvent;
+import org.eclipse.osgi.container.ModuleRevision;
+import org.eclipse.osgi.framework.log.FrameworkLogEntry;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.messages.Msg;
+import org.eclipse.osgi.storage.BundleInfo;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A BundleFile that memory maps a zip file and reads the central directory
+ * of the zip file itself.  No file descriptor is held open once the zip file
+ * has been mapped, so mapped bundle files do not take part in the
+ * {@link MRUBundleFileList}.  Stored entries are read directly from the mapped
+ * memory; deflated entries are inflated from the mapped memory.
+ * <p>
+ * The mapping is released when it is garbage collected after the bundle file
+ * is closed.  Until then the file may not be deleted on some operating systems.
+ * Zip files larger than 2GB or with a ZIP64 central directory are not supported.
+ *
+ * @ThreadSafe
+ */
+public class MappedZipBundleFile extends BundleFile {
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_HEADER_SIG = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_HEADER_SIZE = 22;
+
+	private final BundleInfo.Generation generation;
+
+	private final Debug debug;
+
+	/**
+	 * The mapped content or <code>null</code> if the bundle file is closed
+	 */
+	private volatile MappedContent content;
+
+	public MappedZipBundleFile(File basefile, BundleInfo.Generation generation, Debug debug) throws IOException {
+		super(basefile);
+		if (!BundleFile.secureAction.exists(basefile))
+			throw new IOException(NLS.bind(Msg.ADAPTER_FILEEXIST_EXCEPTION, basefile));
+		this.debug = debug;
+		this.generation = generation;
+	}
+
+	/**
+	 * Returns the mapped content, mapping the zip file if it is not open.
+	 * @return the mapped content or <code>null</code> if the zip file could not be mapped
+	 */
+	private MappedContent checkedOpen() {
+		MappedContent current = content;
+		if (current != null)
+			return current;
+		try {
+			return getContent();
+		} catch (IOException e) {
+			if (generation != null) {
+				ModuleRevision r = generation.getRevision();
+				if (r != null) {
+					generation.getBundleInfo().getStorage().getAdaptor().publishContainerEvent(ContainerEvent.ERROR, r.getRevisions().getModule(), e);
+				}
+			}
+			return null;
+		}
+	}
+
+	private synchronized MappedContent getContent() throws IOException {
+		if (content == null) {
+			content = new MappedContent(map());
+		}
+		return content;
+	}
+
+	private ByteBuffer map() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(basefile, "r"); //$NON-NLS-1$
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Zip file is too large to map: " + basefile); //$NON-NLS-1$
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			file.close();
+		}
+	}
+
+	public void open() throws IOException {
+		getContent();
+	}
+
+	public synchronized void close() throws IOException {
+		// entries still referencing the content keep the mapping alive until they are collected
+		content = null;
+	}
+
+	public BundleEntry getEntry(String path) {
+		MappedContent current = checkedOpen();
+		if (current == null)
+			return null;
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		int header = current.getHeader(path);
+		if (header < 0) {
+			// behave like ZipFile.getEntry and look for a directory entry
+			header = current.getHeader(path + '/');
+		} else if (current.getSize(header) == 0 && !path.endsWith("/")) { //$NON-NLS-1$
+			// work around the directory bug see bug 83542
+			int dirHeader = current.getHeader(path + '/');
+			if (dirHeader >= 0)
+				header = dirHeader;
+		}
+		if (header < 0) {
+			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+				// this is a directory request lets see if any entries exist in this directory
+				if (current.getDirectoryIndex().containsDir(path))
+					return new MappedZipBundleEntry(current, path, -1);
+			}
+			return null;
+		}
+		return new MappedZipBundleEntry(current, current.getName(header), header);
+	}
+
+	public boolean containsDir(String dir) {
+		if (dir == null)
+			return false;
+		MappedContent current = checkedOpen();
+		if (current == null)
+			return false;
+
+		if (dir.length() == 0)
+			return true;
+
+		if (dir.charAt(0) == '/') {
+			if (dir.length() == 1)
+				return true;
+			dir = dir.substring(1);
+		}
+
+		if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
+			dir = dir + '/';
+
+		return current.getDirectoryIndex().containsDir(dir);
+	}
+
+	@Override
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		if (path == null)
+			throw new NullPointerException();
+		MappedContent current = checkedOpen();
+		if (current == null)
+			return null;
+
+		// Strip any leading '/' off of path.
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		// Append a '/', if not already there, to path if not an empty string.
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuilder(path).append("/").toString(); //$NON-NLS-1$
+
+		LinkedHashSet<String> result = new LinkedHashSet<String>();
+		current.getDirectoryIndex().getEntryPaths(path, recurse, result);
+		return result.size() == 0 ? null : Collections.enumeration(result);
+	}
+
+	/**
+	 * Extracts a directory and all sub content to disk
+	 * @param dirName the directory name to extract
+	 * @return the File used to extract the content to.  A value
+	 * of <code>null</code> is returned if the directory to extract does
+	 * not exist or if content extraction is not supported.
+	 */
+	synchronized File extractDirectory(String dirName) {
+		MappedContent current = checkedOpen();
+		if (current == null)
+			return null;
+		for (String entryPath : current.getNames()) {
+			if (entryPath.startsWith(dirName) && !entryPath.endsWith("/")) //$NON-NLS-1$
+				getFile(entryPath, false);
+		}
+		return getExtractFile(dirName);
+	}
+
+	private File getExtractFile(String entryName) {
+		if (generation == null)
+			return null;
+		String path = ".cp"; /* put all these entries in this subdir *///$NON-NLS-1$
+		String name = entryName.replace('/', File.separatorChar);
+		if ((name.length() > 1) && (name.charAt(0) == File.separatorChar)) /* if name has a leading slash */
+			path = path.concat(name);
+		else
+			path = path + File.separator + name;
+		return generation.getExtractFile(path);
+	}
+
+	public synchronized File getFile(String entry, boolean nativeCode) {
+		BundleEntry bundleEntry = getEntry(entry);
+		if (!(bundleEntry instanceof MappedZipBundleEntry))
+			return null;
+		String name = bundleEntry.getName();
+		try {
+			File nested = getExtractFile(name);
+			if (nested != null) {
+				if (nested.exists()) {
+					/* the entry is already cached */
+					if (debug.DEBUG_GENERAL)
+						Debug.println("File already present: " + nested.getPath()); //$NON-NLS-1$
+					if (nested.isDirectory())
+						// must ensure the complete directory is extracted (bug 182585)
+						extractDirectory(name);
+				} else {
+					if (name.endsWith("/")) { //$NON-NLS-1$
+						nested.mkdirs();
+						if (!nested.isDirectory()) {
+							if (debug.DEBUG_GENERAL)
+								Debug.println("Unable to create directory: " + nested.getPath()); //$NON-NLS-1$
+							throw new IOException(NLS.bind(Msg.ADAPTOR_DIRECTORY_CREATE_EXCEPTION, nested.getAbsolutePath()));
+						}
+						extractDirectory(name);
+					} else {
+						generation.storeContent(nested, bundleEntry.getInputStream(), nativeCode);
+					}
+				}
+
+				return nested;
+			}
+		} catch (IOException e) {
+			if (debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+			generation.getBundleInfo().getStorage().getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Unable to extract content: " + generation.getRevision() + ": " + entry, e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return null;
+	}
+
+	/**
+	 * The mapped zip file and the offsets of the central directory headers
+	 * of its entries.  The content is immutable once constructed except for
+	 * the lazily built directory index.
+	 */
+	private static final class MappedContent {
+		private final ByteBuffer buffer;
+		private final int centralStart;
+		private final int centralEnd;
+		/* entry names to the offset of their central directory header */
+		private final Map<String, Integer> headers;
+		private volatile ZipDirectoryIndex directoryIndex;
+
+		MappedContent(ByteBuffer buffer) throws IOException {
+			this.buffer = buffer;
+			int end = findEndHeader(buffer);
+			long centralSize = getUnsignedInt(buffer, end + 12);
+			long centralOffset = getUnsignedInt(buffer, end + 16);
+			if (centralOffset + centralSize > end)
+				throw new ZipException("Unsupported or invalid zip central directory"); //$NON-NLS-1$
+			this.centralStart = (int) centralOffset;
+			this.centralEnd = (int) (centralOffset + centralSize);
+			Map<String, Integer> entries = new HashMap<String, Integer>();
+			for (int header = centralStart; header < centralEnd; header = nextHeader(header)) {
+				if (buffer.getInt(header) != CENTRAL_HEADER_SIG)
+					throw new ZipException("Invalid zip central directory header"); //$NON-NLS-1$
+				String name = getName(header);
+				if (!entries.containsKey(name))
+					entries.put(name, Integer.valueOf(header));
+			}
+			this.headers = entries;
+		}
+
+		private static int findEndHeader(ByteBuffer buffer) throws ZipException {
+			// the end header is followed by a comment of at most 0xFFFF bytes
+			int last = buffer.limit() - END_HEADER_SIZE;
+			int first = Math.max(0, last - 0xFFFF);
+			for (int i = last; i >= first; i--) {
+				if (buffer.getInt(i) == END_HEADER_SIG)
+					return i;
+			}
+			throw new ZipException("Zip end header not found"); //$NON-NLS-1$
+		}
+
+		private int nextHeader(int header) {
+			return header + CENTRAL_HEADER_SIZE + getUnsignedShort(buffer, header + 28) + getUnsignedShort(buffer, header + 30) + getUnsignedShort(buffer, header + 32);
+		}
+
+		int getHeader(String name) {
+			Integer header = headers.get(name);
+			return header == null ? -1 : header.intValue();
+		}
+
+		String getName(int header) {
+			byte[] name = new byte[getUnsignedShort(buffer, header + 28)];
+			ByteBuffer b = buffer.duplicate();
+			b.position(header + CENTRAL_HEADER_SIZE);
+			b.get(name);
+			return new String(name, UTF_8);
+		}
+
+		List<String> getNames() {
+			List<String> names = new ArrayList<String>(headers.size());
+			for (int header = centralStart; header < centralEnd; header = nextHeader(header)) {
+				names.add(getName(header));
+			}
+			return names;
+		}
+
+		ZipDirectoryIndex getDirectoryIndex() {
+			ZipDirectoryIndex current = directoryIndex;
+			if (current == null) {
+				// concurrent callers may build the index more than once; the results are equal
+				directoryIndex = current = ZipDirectoryIndex.build(getNames().iterator());
+			}
+			return current;
+		}
+
+		int getMethod(int header) {
+			return getUnsignedShort(buffer, header + 10);
+		}
+
+		long getTime(int header) {
+			return dosToJavaTime(getUnsignedShort(buffer, header + 14), getUnsignedShort(buffer, header + 12));
+		}
+
+		int getCompressedSize(int header) {
+			return (int) getUnsignedInt(buffer, header + 20);
+		}
+
+		int getSize(int header) {
+			return (int) getUnsignedInt(buffer, header + 24);
+		}
+
+		/**
+		 * Returns a buffer positioned at the data of the entry with the
+		 * limit set to the end of the compressed data.
+		 */
+		ByteBuffer getData(int header) throws ZipException {
+			int local = (int) getUnsignedInt(buffer, header + 42);
+			if (local + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt(local) != LOCAL_HEADER_SIG)
+				throw new ZipException("Invalid zip local header"); //$NON-NLS-1$
+			int start = local + LOCAL_HEADER_SIZE + getUnsignedShort(buffer, local + 26) + getUnsignedShort(buffer, local + 28);
+			long end = (long) start + getCompressedSize(header);
+			if (end > buffer.limit())
+				throw new ZipException("Invalid zip entry size"); //$NON-NLS-1$
+			ByteBuffer data = buffer.duplicate();
+			data.limit((int) end);
+			data.position(start);
+			return data;
+		}
+
+		private static int getUnsignedShort(ByteBuffer buffer, int index) {
+			return buffer.getShort(index) & 0xFFFF;
+		}
+
+		private static long getUnsignedInt(ByteBuffer buffer, int index) {
+			return buffer.getInt(index) & 0xFFFFFFFFL;
+		}
+
+		private static long dosToJavaTime(int date, int time) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.clear();
+			calendar.set(((date >> 9) & 0x7f) + 1980, ((date >> 5) & 0x0f) - 1, date & 0x1f, (time >> 11) & 0x1f, (time >> 5) & 0x3f, (time << 1) & 0x3e);
+			return calendar.getTimeInMillis();
+		}
+	}
+
+	/**
+	 * An entry of a mapped zip file.  Entries keep the mapped content they
+	 * were created from so they remain readable after the bundle file is closed.
+	 */
+	private final class MappedZipBundleEntry extends BundleEntry {
+		private final MappedContent entryContent;
+		private final String name;
+		/* the offset of the central directory header or -1 for an implied directory */
+		private final int header;
+
+		MappedZipBundleEntry(MappedContent entryContent, String name, int header) {
+			this.entryContent = entryContent;
+			this.name = name;
+			this.header = header;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			if (header < 0)
+				return new ByteArrayInputStream(new byte[0]);
+			InputStream in = new ByteBufferInputStream(entryContent.getData(header));
+			int method = entryContent.getMethod(header);
+			if (method == ZipEntry.STORED)
+				return in;
+			if (method != ZipEntry.DEFLATED)
+				throw new ZipException("Unsupported compression method: " + method); //$NON-NLS-1$
+			// a dummy byte is required at the end of the input when inflating without the zlib header
+			in = new SequenceInputStream(in, new ByteArrayInputStream(new byte[1]));
+			final Inflater inflater = new Inflater(true);
+			return new InflaterInputStream(in, inflater, BUF_SIZE) {
+				private boolean ended = false;
+
+				public void close() throws IOException {
+					super.close();
+					synchronized (this) {
+						if (ended)
+							return;
+						ended = true;
+					}
+					inflater.end();
+				}
+			};
+		}
+
+		public byte[] getBytes() throws IOException {
+			if (header < 0)
+				return new byte[0];
+			ByteBuffer data = entryContent.getData(header);
+			int size = entryContent.getSize(header);
+			byte[] result = new byte[size];
+			int method = entryContent.getMethod(header);
+			if (method == ZipEntry.STORED) {
+				if (data.remaining() != size)
+					throw new ZipException("Invalid zip entry size"); //$NON-NLS-1$
+				data.get(result);
+				return result;
+			}
+			if (method != ZipEntry.DEFLATED)
+				throw new ZipException("Unsupported compression method: " + method); //$NON-NLS-1$
+			// a dummy byte is required at the end of the input when inflating without the zlib header
+			byte[] input = new byte[data.remaining() + 1];
+			data.get(input, 0, input.length - 1);
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(input);
+				int read = 0;
+				while (read < size) {
+					int n = inflater.inflate(result, read, size - read);
+					if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					read += n;
+				}
+				if (read != size)
+					throw new ZipException("Invalid zip entry size"); //$NON-NLS-1$
+				return result;
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			} finally {
+				inflater.end();
+			}
+		}
+
+		public long getSize() {
+			return header < 0 ? 0 : entryContent.getSize(header);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getTime() {
+			return header < 0 ? 0 : entryContent.getTime(header);
+		}
+
+		@SuppressWarnings("deprecation")
+		public URL getLocalURL() {
+			try {
+				return new URL("jar:" + basefile.toURL() + "!/" + name); //$NON-NLS-1$//$NON-NLS-2$
+			} catch (MalformedURLException e) {
+				//This can not happen, unless the jar protocol is not supported.
+				return null;
+			}
+		}
+
+		@SuppressWarnings("deprecation")
+		public URL getFileURL() {
+			try {
+				File file = header < 0 ? extractDirectory(name) : getFile(name, false);
+				if (file != null)
+					return file.toURL();
+			} catch (MalformedURLException e) {
+				//This can not happen.
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * An input stream which reads the remaining content of a buffer.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public synchronized int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public synchronized int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public synchronized long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		public synchronized int available() {
+			return buffer.remaining();
+		}
+	}
+}
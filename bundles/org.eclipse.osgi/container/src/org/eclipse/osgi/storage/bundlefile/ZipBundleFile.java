@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2014 IBM Corporation and others.
+ * Copyright (c) 2005, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -27,6 +27,11 @@ import org.eclipse.osgi.util.NLS;
 
 /**
  * A BundleFile that uses a ZipFile as it base file.
+ * <p>
+ * Entries are looked up without synchronizing on the bundle file so that
+ * classes can be loaded from the same jar by multiple threads concurrently.
+ * Directory queries are answered by a {@link ZipDirectoryIndex} which is built
+ * the first time it is needed after the zip file is opened.
  */
 public class ZipBundleFile extends BundleFile {
 
@@ -43,6 +48,10 @@ public class ZipBundleFile extends BundleFile {
 	 * The closed flag
 	 */
 	protected volatile boolean closed = true;
+	/**
+	 * The directory index of the open zip file
+	 */
+	private volatile ZipDirectoryIndex directoryIndex;
 
 	private int referenceCount = 0;
 
@@ -102,6 +111,58 @@ public class ZipBundleFile extends BundleFile {
 		return zipFile;
 	}
 
+	/**
+	 * Returns the open ZipFile for this bundle file without synchronizing on
+	 * this object if it is already open, otherwise opens it.  The returned
+	 * ZipFile may be closed concurrently by the MRU list, callers must be
+	 * prepared to handle an {@link IllegalStateException} from the ZipFile.
+	 * @return an open ZipFile for this bundle file or <code>null</code> if it could not be opened
+	 */
+	private ZipFile getOpenZipFile() {
+		ZipFile current = zipFile;
+		if (!closed && current != null) {
+			mruListUse();
+			return current;
+		}
+		return checkedOpen() ? zipFile : null;
+	}
+
+	/**
+	 * Returns the directory index of the zip file, building it if needed.
+	 * @return the directory index or <code>null</code> if the zip file could not be opened
+	 */
+	private ZipDirectoryIndex getDirectoryIndex() {
+		ZipDirectoryIndex current = directoryIndex;
+		if (current != null && !closed) {
+			mruListUse();
+			return current;
+		}
+		synchronized (this) {
+			if (!checkedOpen())
+				return null;
+			if (directoryIndex == null) {
+				final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				directoryIndex = ZipDirectoryIndex.build(new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasMoreElements();
+					}
+
+					@Override
+					public String next() {
+						return entries.nextElement().getName();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				});
+			}
+			return directoryIndex;
+		}
+	}
+
 	/**
 	* Returns a ZipEntry for the bundle file. Must be called while synchronizing on this object.
 	* This method does not ensure that the ZipFile is opened. Callers may need to call getZipfile() prior to calling this 
@@ -110,12 +171,16 @@ public class ZipBundleFile extends BundleFile {
 	* @return a ZipEntry or null if the entry does not exist
 	*/
 	protected ZipEntry getZipEntry(String path) {
+		return getZipEntry(zipFile, path);
+	}
+
+	private static ZipEntry getZipEntry(ZipFile current, String path) {
 		if (path.length() > 0 && path.charAt(0) == '/')
 			path = path.substring(1);
-		ZipEntry entry = zipFile.getEntry(path);
+		ZipEntry entry = current.getEntry(path);
 		if (entry != null && entry.getSize() == 0 && !entry.isDirectory()) {
 			// work around the directory bug see bug 83542
-			ZipEntry dirEntry = zipFile.getEntry(path + '/');
+			ZipEntry dirEntry = current.getEntry(path + '/');
 			if (dirEntry != null)
 				entry = dirEntry;
 		}
@@ -197,11 +262,12 @@ public class ZipBundleFile extends BundleFile {
 		return null;
 	}
 
-	public synchronized boolean containsDir(String dir) {
-		if (!checkedOpen())
-			return false;
+	public boolean containsDir(String dir) {
 		if (dir == null)
 			return false;
+		ZipDirectoryIndex index = getDirectoryIndex();
+		if (index == null)
+			return false;
 
 		if (dir.length() == 0)
 			return true;
@@ -215,23 +281,22 @@ public class ZipBundleFile extends BundleFile {
 		if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
 			dir = dir + '/';
 
-		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		return index.containsDir(dir);
+	}
+
+	public BundleEntry getEntry(String path) {
 		ZipEntry zipEntry;
-		String entryPath;
-		while (entries.hasMoreElements()) {
-			zipEntry = entries.nextElement();
-			entryPath = zipEntry.getName();
-			if (entryPath.startsWith(dir)) {
-				return true;
+		while (true) {
+			ZipFile current = getOpenZipFile();
+			if (current == null)
+				return null;
+			try {
+				zipEntry = getZipEntry(current, path);
+				break;
+			} catch (IllegalStateException e) {
+				// the zip file was closed concurrently by the MRU list; reopen and try again
 			}
 		}
-		return false;
-	}
-
-	public synchronized BundleEntry getEntry(String path) {
-		if (!checkedOpen())
-			return null;
-		ZipEntry zipEntry = getZipEntry(path);
 		if (zipEntry == null) {
 			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
 				// this is a directory request lets see if any entries exist in this directory
@@ -246,11 +311,12 @@ public class ZipBundleFile extends BundleFile {
 	}
 
 	@Override
-	public synchronized Enumeration<String> getEntryPaths(String path, boolean recurse) {
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
 		if (path == null)
 			throw new NullPointerException();
 		// Is the zip file already open or, if not, can it be opened?
-		if (!checkedOpen())
+		ZipDirectoryIndex index = getDirectoryIndex();
+		if (index == null)
 			return null;
 
 		// Strip any leading '/' off of path.
@@ -261,39 +327,10 @@ public class ZipBundleFile extends BundleFile {
 			path = new StringBuilder(path).append("/").toString(); //$NON-NLS-1$
 
 		LinkedHashSet<String> result = new LinkedHashSet<String>();
-		// Get all zip file entries and add the ones of interest.
-		Enumeration<? extends ZipEntry> entries = zipFile.entries();
-		while (entries.hasMoreElements()) {
-			ZipEntry zipEntry = entries.nextElement();
-			String entryPath = zipEntry.getName();
-			// Is the entry of possible interest? Note that 
-			// string.startsWith("") == true.
-			if (entryPath.startsWith(path)) {
-				// If we get here, we know that the entry is either (1) equal to
-				// path, (2) a file under path, or (3) a subdirectory of path.
-				if (path.length() < entryPath.length()) {
-					// If we get here, we know that entry is not equal to path.
-					getEntryPaths(path, entryPath.substring(path.length()), recurse, result);
-				}
-			}
-		}
+		index.getEntryPaths(path, recurse, result);
 		return result.size() == 0 ? null : Collections.enumeration(result);
 	}
 
-	private void getEntryPaths(String path, String entry, boolean recurse, LinkedHashSet<String> entries) {
-		if (entry.length() == 0)
-			return;
-		int slash = entry.indexOf('/');
-		if (slash == -1)
-			entries.add(path + entry);
-		else {
-			path = path + entry.substring(0, slash + 1);
-			entries.add(path);
-			if (recurse)
-				getEntryPaths(path, entry.substring(slash + 1), true, entries);
-		}
-	}
-
 	public synchronized void close() throws IOException {
 		if (!closed) {
 			if (referenceCount > 0 && isMruListClosing()) {
@@ -312,6 +349,7 @@ public class ZipBundleFile extends BundleFile {
 
 			}
 			closed = true;
+			directoryIndex = null;
 			zipFile.close();
 			mruListRemove();
 		}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.util.*;
+
+/**
+ * An immutable index of the directory tree of a zip file.  The index maps
+ * each directory path to the names of its direct children.  Directories
+ * which are only implied by the path of an entry are included in the index.
+ * <p>
+ * Directory paths have no leading '/' and end with a '/', except the root
+ * directory which is the empty string.  The names of child directories end
+ * with a '/'.  Children are kept in the order they first appear in the zip file.
+ *
+ * @ThreadSafe
+ */
+final class ZipDirectoryIndex {
+	private static final String[] EMPTY = new String[0];
+
+	private final Map<String, String[]> children;
+
+	private ZipDirectoryIndex(Map<String, String[]> children) {
+		this.children = children;
+	}
+
+	/**
+	 * Builds an index from the names of the entries of a zip file.
+	 * @param entryNames the entry names in the order of the zip file
+	 * @return the directory index
+	 */
+	static ZipDirectoryIndex build(Iterator<String> entryNames) {
+		Map<String, Set<String>> building = new HashMap<String, Set<String>>();
+		building.put("", new LinkedHashSet<String>()); //$NON-NLS-1$
+		while (entryNames.hasNext()) {
+			String entryName = entryNames.next();
+			if (entryName.endsWith("/") && !building.containsKey(entryName)) { //$NON-NLS-1$
+				// explicit directory entries are directories even if they have no children
+				building.put(entryName, new LinkedHashSet<String>());
+			}
+			int start = 0;
+			int slash;
+			while (start < entryName.length()) {
+				slash = entryName.indexOf('/', start);
+				int end = slash == -1 ? entryName.length() : slash + 1;
+				String parent = entryName.substring(0, start);
+				Set<String> siblings = building.get(parent);
+				if (siblings == null) {
+					siblings = new LinkedHashSet<String>();
+					building.put(parent, siblings);
+				}
+				siblings.add(entryName.substring(start, end));
+				start = end;
+			}
+		}
+		Map<String, String[]> children = new HashMap<String, String[]>((int) (building.size() / 0.75f) + 1);
+		for (Map.Entry<String, Set<String>> entry : building.entrySet()) {
+			Set<String> names = entry.getValue();
+			children.put(entry.getKey(), names.isEmpty() ? EMPTY : names.toArray(new String[names.size()]));
+		}
+		return new ZipDirectoryIndex(children);
+	}
+
+	/**
+	 * Returns true if the specified directory exists in the zip file.
+	 * @param dir the directory path with no leading '/' and ending with a '/'
+	 * @return true if the directory exists
+	 */
+	boolean containsDir(String dir) {
+		return children.containsKey(dir);
+	}
+
+	/**
+	 * Adds the paths of the entries under the specified directory to the result.
+	 * @param dir the directory path with no leading '/' and ending with a '/', or
+	 * the empty string for the root directory
+	 * @param recurse true if the entries of sub directories should be added
+	 * @param result the set to add the entry paths to
+	 */
+	void getEntryPaths(String dir, boolean recurse, Set<String> result) {
+		String[] names = children.get(dir);
+		if (names == null) {
+			return;
+		}
+		for (String name : names) {
+			String path = dir.concat(name);
+			result.add(path);
+			if (recurse && name.endsWith("/")) { //$NON-NLS-1$
+				getEntryPaths(path, true, result);
+			}
+		}
+	}
+}
@@ -80,6 +80,11 @@ class Candidates
 
     private final OpenHashMapSet<Requirement, Capability> m_delta;
 
+    // Holds the requirements whose candidate list and delta set are private to
+    // this object. Permutation copies share all the other lists and sets, so they
+    // must be copied before being modified; null until the first copy is made.
+    private Set<Requirement> m_ownedRequirements;
+
     /**
      * Private copy constructor used by the copy() method.
      */
@@ -101,6 +106,7 @@ class Candidates
         m_validOnDemandResources = onDemandResources;
         m_subtitutableMap = substitutableMap;
         m_delta = delta;
+        m_ownedRequirements = new HashSet<Requirement>();
     }
 
     /**
@@ -383,10 +389,10 @@ class Candidates
                     List<Capability> candidates = m_candidateMap.get(dependent);
                     if (candidates != null)
                     {
+                        int substituted = 0;
                         candidates:
-                        for (Iterator<Capability> iCandidates = candidates.iterator(); iCandidates.hasNext();)
+                        for (Capability candidate : candidates)
                         {
-                            Capability candidate = iCandidates.next();
                             Integer candidateStatus = substituteStatuses.get(candidate);
                             if (candidateStatus == null)
                             {
@@ -400,11 +406,20 @@ class Candidates
                                 case SUBSTITUTED:
                                 default:
                                     // Need to remove any substituted that comes before an exported candidate
-                                    iCandidates.remove();
+                                    substituted++;
                                     // continue to next candidate
                                     break;
                             }
                         }
+                        if (substituted == 0)
+                        {
+                            continue;
+                        }
+                        candidates = getMutableCandidates(dependent);
+                        for (int i = 0; i < substituted; i++)
+                        {
+                            candidates.remove(0);
+                        }
                         if (candidates.isEmpty())
                         {
                             if (Util.isOptional(dependent))
@@ -741,7 +756,7 @@ class Candidates
 
     public void removeFirstCandidate(Requirement req)
     {
-        List<Capability> candidates = m_candidateMap.get(req);
+        List<Capability> candidates = getMutableCandidates(req);
         // Remove the conflicting candidate.
         Capability cap = candidates.remove(0);
         if (candidates.isEmpty())
@@ -755,7 +770,7 @@ class Candidates
 
     public List<Capability> clearCandidates(Requirement req, Collection<Capability> caps)
     {
-        List<Capability> l = m_candidateMap.get(req);
+        List<Capability> l = getMutableCandidates(req);
         l.removeAll(caps);
         // Update candidates delta with the removed capabilities.
         CopyOnWriteSet<Capability> capPath = m_delta.getOrCompute(req);
@@ -763,6 +778,33 @@ class Candidates
         return l;
     }
 
+    /**
+     * Gets the candidates associated with a given requirement so that they
+     * can be modified. Candidate lists and delta sets are shared between
+     * permutation copies, so they are copied the first time this object
+     * modifies them after a copy was made.
+     *
+     * @param req the requirement whose candidates are modified.
+     * @return the modifiable candidates or null.
+     */
+    private CopyOnWriteList<Capability> getMutableCandidates(Requirement req)
+    {
+        if (m_ownedRequirements != null && m_ownedRequirements.add(req))
+        {
+            CopyOnWriteList<Capability> candidates = m_candidateMap.get(req);
+            if (candidates != null)
+            {
+                m_candidateMap.put(req, new CopyOnWriteList<Capability>(candidates));
+            }
+            CopyOnWriteSet<Capability> capPath = m_delta.get(req);
+            if (capPath != null)
+            {
+                m_delta.put(req, new CopyOnWriteSet<Capability>(capPath));
+            }
+        }
+        return m_candidateMap.get(req);
+    }
+
     /**
      * Merges fragments into their hosts. It does this by wrapping all host
      * modules and attaching their selected fragments, removing all unselected
@@ -1148,20 +1190,27 @@ class Candidates
     /**
      * Creates a copy of the Candidates object. This is used for creating
      * permutations when package space conflicts are discovered.
+     * <p>
+     * The copy shares the candidate lists and delta sets with this object;
+     * each side copies a list or set before modifying it. The dependent map
+     * is shared as is, since it is no longer modified once the candidates
+     * have been prepared.
      *
      * @return copy of this Candidates object.
      */
     public Candidates copy()
     {
+        // All the lists and sets are shared from now on.
+        m_ownedRequirements = new HashSet<Requirement>();
         return new Candidates(
                 m_mandatoryResources,
-                m_dependentMap.deepClone(),
-                m_candidateMap.deepClone(),
+                m_dependentMap,
+                (OpenHashMapList<Requirement, Capability>) m_candidateMap.clone(),
                 m_allWrappedHosts,
                 m_populateResultCache,
                 m_validOnDemandResources,
                 m_subtitutableMap,
-                m_delta.deepClone());
+                (OpenHashMapSet<Requirement, Capability>) m_delta.clone());
     }
 
     public void dump(ResolveContext rc)
@@ -133,4 +133,9 @@ public class Logger
     {
         // do nothing by default
     }
+
+    public void logPermutationsChecked(int permutations)
+    {
+        // do nothing by default
+    }
 }
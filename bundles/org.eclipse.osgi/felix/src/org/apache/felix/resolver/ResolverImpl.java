@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -69,6 +70,14 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    /**
+     * The default maximum number of resources for which package spaces are
+     * kept between candidate permutations.
+     */
+    public static final int DEFAULT_PACKAGE_SPACE_CACHE_SIZE = 5000;
+
+    private final int m_packageSpaceCacheSize;
+
     // Note this class is not thread safe.
     // Only use in the context of a single thread.
     class ResolveSession
@@ -88,6 +97,10 @@ public class ResolverImpl implements Resolver
         private Candidates m_multipleCardCandidates = null;
 
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        // Holds the package spaces calculated for the last candidate permutation
+        // and the wire candidates they were calculated from.
+        private Map<Resource, List<WireCandidate>> m_lastWireCandidates = null;
+        private Map<Resource, Packages> m_lastPackages = null;
 
         ResolveSession(ResolveContext resolveContext)
         {
@@ -112,6 +125,117 @@ public class ResolverImpl implements Resolver
         public ConcurrentMap<String, List<String>> getUsesCache() {
             return m_usesCache;
         }
+
+        /**
+         * Puts the package spaces of the last candidate permutation into the
+         * specified map for all resources which have the same wire candidates
+         * as in the last permutation and only depend on such resources. The
+         * package space of a resource is calculated from the wire candidates of
+         * the resources it depends on only, so it can be reused as is.
+         *
+         * @param allWireCandidates the wire candidates of the current permutation.
+         * @param allPackages the map to put the reused package spaces into.
+         * @return the resources whose package spaces must be calculated.
+         */
+        Set<Resource> reusePackageSpaces(
+            Map<Resource, List<WireCandidate>> allWireCandidates,
+            Map<Resource, Packages> allPackages)
+        {
+            if (m_lastPackages == null)
+            {
+                return new HashSet<Resource>(allWireCandidates.keySet());
+            }
+            Set<Resource> changed = new HashSet<Resource>();
+            LinkedList<Resource> toProcess = new LinkedList<Resource>();
+            Map<Resource, List<Resource>> dependents = new HashMap<Resource, List<Resource>>();
+            for (Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+            {
+                Resource resource = entry.getKey();
+                List<WireCandidate> wireCandidates = entry.getValue();
+                if (!equalWireCandidates(m_lastWireCandidates.get(resource), wireCandidates))
+                {
+                    changed.add(resource);
+                    toProcess.add(resource);
+                }
+                for (WireCandidate w : wireCandidates)
+                {
+                    Resource provider = w.capability.getResource();
+                    if (!resource.equals(provider))
+                    {
+                        List<Resource> providerDependents = dependents.get(provider);
+                        if (providerDependents == null)
+                        {
+                            providerDependents = new ArrayList<Resource>();
+                            dependents.put(provider, providerDependents);
+                        }
+                        providerDependents.add(resource);
+                    }
+                }
+            }
+            // Any resource depending on a changed resource has changed too.
+            while (!toProcess.isEmpty())
+            {
+                List<Resource> providerDependents = dependents.get(toProcess.removeFirst());
+                if (providerDependents != null)
+                {
+                    for (Resource dependent : providerDependents)
+                    {
+                        if (changed.add(dependent))
+                        {
+                            toProcess.add(dependent);
+                        }
+                    }
+                }
+            }
+            for (Resource resource : allWireCandidates.keySet())
+            {
+                if (!changed.contains(resource))
+                {
+                    allPackages.put(resource, m_lastPackages.get(resource));
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Keeps the package spaces of the current candidate permutation for the
+         * next one, unless there are more resources than the package space cache
+         * size; in that case all package spaces of the next permutation are
+         * calculated again.
+         */
+        void setLastPackageSpaces(
+            Map<Resource, List<WireCandidate>> allWireCandidates,
+            Map<Resource, Packages> allPackages)
+        {
+            if (allPackages.size() <= m_packageSpaceCacheSize)
+            {
+                m_lastWireCandidates = allWireCandidates;
+                m_lastPackages = allPackages;
+            }
+            else
+            {
+                m_lastWireCandidates = null;
+                m_lastPackages = null;
+            }
+        }
+    }
+
+    private static boolean equalWireCandidates(List<WireCandidate> l1, List<WireCandidate> l2)
+    {
+        if (l1 == null || l1.size() != l2.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < l1.size(); i++)
+        {
+            WireCandidate w1 = l1.get(i);
+            WireCandidate w2 = l2.get(i);
+            if (!w1.requirement.equals(w2.requirement) || !w1.capability.equals(w2.capability))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     public ResolverImpl(Logger logger)
@@ -124,13 +248,27 @@ public class ResolverImpl implements Resolver
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_packageSpaceCacheSize = DEFAULT_PACKAGE_SPACE_CACHE_SIZE;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, DEFAULT_PACKAGE_SPACE_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a resolver which keeps the package spaces of a candidate
+     * permutation for up to the specified number of resources, and only
+     * calculates the package spaces affected by the candidate changes of the
+     * next permutation. A size of 0 calculates all package spaces for each
+     * permutation.
+     */
+    public ResolverImpl(Logger logger, Executor executor, int packageSpaceCacheSize)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_packageSpaceCacheSize = packageSpaceCacheSize;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -197,6 +335,7 @@ public class ResolverImpl implements Resolver
         do
         {
             retry = false;
+            int permutations = 0;
             try
             {
                 // Create object to hold all candidates.
@@ -303,6 +442,7 @@ public class ResolverImpl implements Resolver
                         // Don't try it again
                         continue;
                     }
+                    permutations++;
 
                     // Null out each time a new permutation is attempted.
                     // We only use this to store a valid permutation which is a
@@ -449,6 +589,7 @@ public class ResolverImpl implements Resolver
             {
                 // Always clear the state.
                 session.setMultipleCardCandidates(null);
+                m_logger.logPermutationsChecked(permutations);
             }
         }
         while (retry);
@@ -470,11 +611,20 @@ public class ResolverImpl implements Resolver
         Map<Resource, Packages> resourcePkgMap =
             calculatePackageSpaces(executor, session, allCandidates, hosts.values());
         ResolutionError error = null;
+        // Find the resources which do not have or depend on any conflict,
+        // checking them does not create any permutation
+        Set<Resource> consistentResources = dynamic
+            ? Collections.<Resource>emptySet()
+            : getConsistentResources(executor, session, allCandidates, resourcePkgMap);
         // Check package consistency
         Map<Resource, Object> resultCache =
                 new OpenHashMap<Resource, Object>(resourcePkgMap.size());
         for (Entry<Resource, Resource> entry : hosts.entrySet())
         {
+            if (consistentResources.contains(entry.getValue()))
+            {
+                continue;
+            }
             ResolutionError rethrow = checkPackageSpaceConsistency(
                     session, usesPermutations, importPermutations, entry.getValue(),
                     allCandidates, dynamic, resourcePkgMap, resultCache);
@@ -1160,9 +1310,13 @@ public class ResolverImpl implements Resolver
             executor.await();
         }
 
-        // Parallel get all exported packages
+        // Reuse the package spaces not affected by the candidate changes
+        // since the last permutation
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
-        for (final Resource resource : allWireCandidates.keySet())
+        final Set<Resource> changed = session.reusePackageSpaces(allWireCandidates, allPackages);
+
+        // Parallel get all exported packages
+        for (final Resource resource : changed)
         {
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
@@ -1177,7 +1331,7 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute package lists
-        for (final Resource resource : allWireCandidates.keySet())
+        for (final Resource resource : changed)
         {
             executor.execute(new Runnable()
             {
@@ -1193,10 +1347,9 @@ public class ResolverImpl implements Resolver
         // First, sequentially compute packages for resources
         // that have required packages, so that all recursive
         // calls can be done without threading problems
-        for (Map.Entry<Resource, Packages> entry : allPackages.fast())
+        for (final Resource resource : changed)
         {
-            final Resource resource = entry.getKey();
-            final Packages packages = entry.getValue();
+            final Packages packages = allPackages.get(resource);
             if (!packages.m_requiredPkgs.isEmpty())
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
@@ -1204,10 +1357,9 @@ public class ResolverImpl implements Resolver
         }
         // Next, for all remaining resources, we can compute them
         // in parallel, as they won't refer to other resource packages
-        for (Map.Entry<Resource, Packages> entry : allPackages.fast())
+        for (final Resource resource : changed)
         {
-            final Resource resource = entry.getKey();
-            final Packages packages = entry.getValue();
+            final Packages packages = allPackages.get(resource);
             if (packages.m_sources.isEmpty())
             {
                 executor.execute(new Runnable()
@@ -1222,7 +1374,7 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute uses
-        for (final Resource resource : allWireCandidates.keySet())
+        for (final Resource resource : changed)
         {
             executor.execute(new Runnable()
             {
@@ -1234,6 +1386,7 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        session.setLastPackageSpaces(allWireCandidates, allPackages);
         return allPackages;
     }
 
@@ -1598,6 +1751,160 @@ public class ResolverImpl implements Resolver
         return null;
     }
 
+    /**
+     * Returns the resources whose package spaces, and the package spaces of
+     * all the resources they depend on, have no conflicts. The package spaces
+     * are checked in parallel; this only reads the package spaces, so the
+     * consistency check which creates the permutations for the conflicts is
+     * still done in order for the remaining resources.
+     */
+    private static Set<Resource> getConsistentResources(
+            Executor innerExecutor,
+            ResolveSession session,
+            Candidates allCandidates,
+            final Map<Resource, Packages> resourcePkgMap)
+    {
+        final EnhancedExecutor executor = new EnhancedExecutor(innerExecutor);
+        final Map<Resource, Boolean> conflicts = new ConcurrentHashMap<Resource, Boolean>();
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        for (final Entry<Resource, Packages> entry : resourcePkgMap.entrySet())
+        {
+            if (wirings.containsKey(entry.getKey()))
+            {
+                continue;
+            }
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    if (hasConflicts(entry.getValue(), resourcePkgMap))
+                    {
+                        conflicts.put(entry.getKey(), Boolean.TRUE);
+                    }
+                }
+            });
+        }
+        executor.await();
+
+        // Any resource depending on a resource with conflicts is not
+        // consistent either.
+        Map<Resource, List<Resource>> dependents = new HashMap<Resource, List<Resource>>();
+        for (Resource resource : resourcePkgMap.keySet())
+        {
+            if (wirings.containsKey(resource))
+            {
+                continue;
+            }
+            for (Requirement req : resource.getRequirements(null))
+            {
+                Capability cap = allCandidates.getFirstCandidate(req);
+                if (cap != null && !resource.equals(cap.getResource()))
+                {
+                    List<Resource> providerDependents = dependents.get(cap.getResource());
+                    if (providerDependents == null)
+                    {
+                        providerDependents = new ArrayList<Resource>();
+                        dependents.put(cap.getResource(), providerDependents);
+                    }
+                    providerDependents.add(resource);
+                }
+            }
+        }
+        Set<Resource> inconsistent = new HashSet<Resource>(conflicts.keySet());
+        LinkedList<Resource> toProcess = new LinkedList<Resource>(inconsistent);
+        while (!toProcess.isEmpty())
+        {
+            List<Resource> providerDependents = dependents.get(toProcess.removeFirst());
+            if (providerDependents != null)
+            {
+                for (Resource dependent : providerDependents)
+                {
+                    if (inconsistent.add(dependent))
+                    {
+                        toProcess.add(dependent);
+                    }
+                }
+            }
+        }
+        Set<Resource> consistent = new HashSet<Resource>(resourcePkgMap.keySet());
+        consistent.removeAll(inconsistent);
+        return consistent;
+    }
+
+    /**
+     * Returns true if checkPackageSpaceConsistency finds a conflict in the
+     * specified package space, not considering the resources it depends on.
+     */
+    private static boolean hasConflicts(Packages pkgs, Map<Resource, Packages> resourcePkgMap)
+    {
+        // Check for conflicting imports from fragments.
+        for (List<Blame> blames : pkgs.m_importedPkgs.values())
+        {
+            if (blames.size() > 1)
+            {
+                Resource sourceResource = blames.get(0).m_cap.getResource();
+                for (Blame blame : blames)
+                {
+                    if (!sourceResource.equals(blame.m_cap.getResource()))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        // Check for uses conflicts with exported packages.
+        for (Entry<String, Blame> entry : pkgs.m_exportedPkgs.fast())
+        {
+            ArrayMap<Capability, UsedBlames> pkgBlames = pkgs.m_usedPkgs.get(entry.getKey());
+            if (pkgBlames != null)
+            {
+                for (UsedBlames usedBlames : pkgBlames.values())
+                {
+                    if (!isCompatible(entry.getValue(), usedBlames.m_cap, resourcePkgMap))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        // Check for uses conflicts with imported and required packages;
+        // imported packages shadow the packages from required bundles.
+        for (Entry<String, List<Blame>> entry : pkgs.m_requiredPkgs.fast())
+        {
+            if (!pkgs.m_importedPkgs.containsKey(entry.getKey())
+                && hasConflicts(pkgs, entry.getKey(), entry.getValue(), resourcePkgMap))
+            {
+                return true;
+            }
+        }
+        for (Entry<String, List<Blame>> entry : pkgs.m_importedPkgs.fast())
+        {
+            if (hasConflicts(pkgs, entry.getKey(), entry.getValue(), resourcePkgMap))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasConflicts(
+        Packages pkgs, String pkgName, List<Blame> requirementBlames,
+        Map<Resource, Packages> resourcePkgMap)
+    {
+        ArrayMap<Capability, UsedBlames> pkgBlames = pkgs.m_usedPkgs.get(pkgName);
+        if (pkgBlames != null)
+        {
+            for (UsedBlames usedBlames : pkgBlames.values())
+            {
+                if (!isCompatible(requirementBlames, usedBlames.m_cap, resourcePkgMap))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private boolean checkMultiple(
         ResolveSession session,
         UsedBlames usedBlames,
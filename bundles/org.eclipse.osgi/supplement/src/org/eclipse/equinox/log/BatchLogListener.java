@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.log;
+
+import java.util.List;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+
+/**
+ * A log listener which receives log entries in batches.  Log entries are
+ * delivered asynchronously and a batch contains the entries logged since the
+ * previous batch was delivered, up to an implementation specific size, in the
+ * order they were logged.  The {@link #logged(LogEntry)} method is not called
+ * for log entries delivered in a batch.
+ * <p>
+ * A batch log listener is never called on the logging thread, so it must not
+ * also be a {@link SynchronousLogListener}.
+ * @see LogListener
+ * @since 3.11
+ */
+public interface BatchLogListener extends LogListener {
+	/**
+	 * Listener method called for a batch of <code>LogEntry</code> objects.
+	 * @param entries an unmodifiable list of log entries in the order they were logged
+	 */
+	void logged(List<LogEntry> entries);
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,10 +11,13 @@
 
 package org.eclipse.osgi.framework.eventmgr;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the central class for the Event Manager. Each
@@ -94,6 +97,14 @@ import java.util.Set;
  * 
  * <p> The highly dynamic nature of the OSGi framework had necessitated these features for 
  * proper and efficient event delivery.  
+ * 
+ * <p>By default all events are asynchronously delivered by a single event thread.
+ * An EventManager may be constructed with more than one event thread, in which case
+ * each listener is assigned to one of the event threads.  Events delivered to a listener
+ * are still delivered in order, but a slow listener only delays the other listeners
+ * assigned to the same event thread.  An EventManager may also be constructed to record
+ * the time taken to asynchronously deliver events to each listener, which is then
+ * available from {@link #getDispatchLatencies()}.
  * @since 3.1
  * @noextend This class is not intended to be subclassed by clients.
  */
@@ -102,10 +113,138 @@ public class EventManager {
 	static final boolean DEBUG = false;
 
 	/**
-	 * EventThread for asynchronous dispatch of events.
+	 * EventDispatcher used to signal that the events queued before a flush have been delivered.
+	 */
+	static final EventDispatcher<Object, Object, CountDownLatch> FLUSH_DISPATCHER = new EventDispatcher<Object, Object, CountDownLatch>() {
+		public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, CountDownLatch flushedSignal) {
+			flushedSignal.countDown();
+		}
+	};
+
+	/**
+	 * The time taken to asynchronously deliver events to a listener.
+	 * @since 3.11
+	 */
+	public static final class DispatchLatency {
+		long count;
+		long totalTime;
+		long maxTime;
+
+		DispatchLatency() {
+			// package private
+		}
+
+		DispatchLatency(DispatchLatency latency) {
+			this.count = latency.count;
+			this.totalTime = latency.totalTime;
+			this.maxTime = latency.maxTime;
+		}
+
+		void record(long time) {
+			count++;
+			totalTime += time;
+			if (time > maxTime) {
+				maxTime = time;
+			}
+		}
+
+		/**
+		 * Returns the number of events delivered to the listener.
+		 * @return the number of events delivered to the listener
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the total time in nanoseconds taken to deliver events to the listener.
+		 * @return the total time in nanoseconds
+		 */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		/**
+		 * Returns the longest time in nanoseconds taken to deliver an event to the listener.
+		 * @return the longest time in nanoseconds
+		 */
+		public long getMaxTime() {
+			return maxTime;
+		}
+
+		public String toString() {
+			return "count=" + count + ", total=" + TimeUnit.NANOSECONDS.toMillis(totalTime) + "ms, max=" + TimeUnit.NANOSECONDS.toMillis(maxTime) + "ms"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+	}
+
+	/**
+	 * Records the dispatch latency of listeners.  Listeners are compared by identity
+	 * and are weakly referenced so the recorded latency does not pin them.
+	 */
+	static final class LatencyRecorder {
+		/**
+		 * Weak reference to a listener which compares the listener by identity.
+		 */
+		private static final class ListenerKey extends WeakReference<Object> {
+			private final int hash;
+
+			ListenerKey(Object listener, ReferenceQueue<Object> queue) {
+				super(listener, queue);
+				this.hash = System.identityHashCode(listener);
+			}
+
+			public int hashCode() {
+				return hash;
+			}
+
+			public boolean equals(Object obj) {
+				if (this == obj) {
+					return true;
+				}
+				if (!(obj instanceof ListenerKey)) {
+					return false;
+				}
+				Object listener = get();
+				return listener != null && listener == ((ListenerKey) obj).get();
+			}
+		}
+
+		private final Map<ListenerKey, DispatchLatency> latencies = new HashMap<ListenerKey, DispatchLatency>();
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+		synchronized void record(Object listener, long time) {
+			for (Object collected = queue.poll(); collected != null; collected = queue.poll()) {
+				latencies.remove(collected);
+			}
+			DispatchLatency latency = latencies.get(new ListenerKey(listener, null));
+			if (latency == null) {
+				latency = new DispatchLatency();
+				latencies.put(new ListenerKey(listener, queue), latency);
+			}
+			latency.record(time);
+		}
+
+		synchronized void copyTo(Map<Object, DispatchLatency> result) {
+			for (Map.Entry<ListenerKey, DispatchLatency> latency : latencies.entrySet()) {
+				Object listener = latency.getKey().get();
+				if (listener != null) {
+					result.put(listener, new DispatchLatency(latency.getValue()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * EventThreads for asynchronous dispatch of events.
 	 * Access to this field must be protected by a synchronized region.
 	 */
-	private EventThread<?, ?, ?> thread;
+	private final EventThread<?, ?, ?>[] threads;
+
+	/**
+	 * Lock held while posting an event to more than one EventThread so that
+	 * events are posted to all the EventThreads in the same order.
+	 */
+	final Object postLock = new Object();
 
 	/** 
 	 * Once closed, an attempt to create a new EventThread will result in an 
@@ -113,6 +252,11 @@ public class EventManager {
 	 */
 	private boolean closed;
 
+	/**
+	 * True if the dispatch latency of the listeners is recorded
+	 */
+	private final boolean recordLatencies;
+
 	/**
 	 * Thread name used for asynchronous event delivery
 	 */
@@ -154,8 +298,52 @@ public class EventManager {
 	 * @since 3.4
 	 */
 	public EventManager(String threadName, ThreadGroup threadGroup) {
-		thread = null;
+		this(threadName, threadGroup, 1);
+	}
+
+	/**
+	 * EventManager constructor. An EventManager object is responsible for
+	 * the delivery of events to listeners via an EventDispatcher.
+	 * <p>
+	 * Events are asynchronously delivered by up to the specified number of threads.
+	 * Each listener is assigned to one of the threads so events are delivered to
+	 * a listener in order while different listeners may be called concurrently.
+	 *
+	 * @param threadName The name to give the event threads associated with
+	 * this EventManager.  A <code>null</code> value is allowed.
+	 * @param threadGroup The thread group to use for the asynchronous event
+	 * threads associated with this EventManager. A <code>null</code> value is allowed.
+	 * @param threadCount The maximum number of threads used to asynchronously
+	 * deliver events.  Values less than 1 are treated as 1.
+	 * @since 3.11
+	 */
+	public EventManager(String threadName, ThreadGroup threadGroup, int threadCount) {
+		this(threadName, threadGroup, threadCount, false);
+	}
+
+	/**
+	 * EventManager constructor. An EventManager object is responsible for
+	 * the delivery of events to listeners via an EventDispatcher.
+	 * <p>
+	 * Events are asynchronously delivered by up to the specified number of threads.
+	 * Each listener is assigned to one of the threads so events are delivered to
+	 * a listener in order while different listeners may be called concurrently.
+	 *
+	 * @param threadName The name to give the event threads associated with
+	 * this EventManager.  A <code>null</code> value is allowed.
+	 * @param threadGroup The thread group to use for the asynchronous event
+	 * threads associated with this EventManager. A <code>null</code> value is allowed.
+	 * @param threadCount The maximum number of threads used to asynchronously
+	 * deliver events.  Values less than 1 are treated as 1.
+	 * @param recordLatencies <code>true</code> if the time taken to asynchronously
+	 * deliver events to each listener is recorded.
+	 * @see #getDispatchLatencies()
+	 * @since 3.11
+	 */
+	public EventManager(String threadName, ThreadGroup threadGroup, int threadCount, boolean recordLatencies) {
+		threads = new EventThread<?, ?, ?>[threadCount < 1 ? 1 : threadCount];
 		closed = false;
+		this.recordLatencies = recordLatencies;
 		this.threadName = threadName;
 		this.threadGroup = threadGroup;
 	}
@@ -172,13 +360,131 @@ public class EventManager {
 		if (closed) {
 			return;
 		}
-		if (thread != null) {
-			thread.close();
-			thread = null;
+		for (int i = 0; i < threads.length; i++) {
+			if (threads[i] != null) {
+				threads[i].close();
+				threads[i] = null;
+			}
 		}
 		closed = true;
 	}
 
+	/**
+	 * Waits until the events which were queued for asynchronous delivery before
+	 * this method was called have been delivered.
+	 *
+	 * @param timeout The maximum time to wait in milliseconds.
+	 * @return <code>true</code> if the events have been delivered and <code>false</code>
+	 * if the timeout elapsed first.
+	 * @throws InterruptedException If the current thread is interrupted while waiting.
+	 * @throws IllegalStateException If this EventManager has been closed.
+	 * @since 3.11
+	 */
+	public boolean flush(long timeout) throws InterruptedException {
+		Set<Map.Entry<Object, Object>> listeners = Collections.<Object, Object> singletonMap(FLUSH_DISPATCHER, FLUSH_DISPATCHER).entrySet();
+		CountDownLatch flushedSignal;
+		synchronized (postLock) {
+			List<EventThread<Object, Object, CountDownLatch>> started = new ArrayList<EventThread<Object, Object, CountDownLatch>>(threads.length);
+			synchronized (this) {
+				if (closed) {
+					throw new IllegalStateException();
+				}
+				for (EventThread<?, ?, ?> thread : threads) {
+					if (thread != null) {
+						@SuppressWarnings("unchecked")
+						EventThread<Object, Object, CountDownLatch> flushThread = (EventThread<Object, Object, CountDownLatch>) thread;
+						started.add(flushThread);
+					}
+				}
+			}
+			flushedSignal = new CountDownLatch(started.size());
+			for (EventThread<Object, Object, CountDownLatch> thread : started) {
+				thread.postEvent(listeners, FLUSH_DISPATCHER, 0, flushedSignal);
+			}
+		}
+		return flushedSignal.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the time taken to asynchronously deliver events to each listener
+	 * of this EventManager.  The returned map is a snapshot keyed by the listener
+	 * objects, which are the keys of the listener entries passed to the
+	 * ListenerQueue.  Only listeners which are currently reachable are included.
+	 * The returned map is empty unless this EventManager was constructed to
+	 * record the dispatch latencies.
+	 *
+	 * @return A map of the recorded dispatch latency for each listener.
+	 * @since 3.11
+	 */
+	public Map<Object, DispatchLatency> getDispatchLatencies() {
+		Map<Object, DispatchLatency> result = new IdentityHashMap<Object, DispatchLatency>();
+		for (EventThread<?, ?, ?> thread : getStartedThreads()) {
+			if (thread.latencies != null) {
+				thread.latencies.copyTo(result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of events currently queued for asynchronous delivery.
+	 * An event delivered to listeners assigned to different threads is counted
+	 * once for each of the threads.
+	 *
+	 * @return The number of queued events.
+	 * @since 3.11
+	 */
+	public int getQueueSize() {
+		int size = 0;
+		for (EventThread<?, ?, ?> thread : getStartedThreads()) {
+			size += thread.getQueueSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the largest number of events which were queued at the same time
+	 * for asynchronous delivery by one of the threads of this EventManager.
+	 *
+	 * @return The largest number of queued events.
+	 * @since 3.11
+	 */
+	public int getMaxQueueSize() {
+		int maxSize = 0;
+		for (EventThread<?, ?, ?> thread : getStartedThreads()) {
+			maxSize = Math.max(maxSize, thread.getMaxQueueSize());
+		}
+		return maxSize;
+	}
+
+	private synchronized List<EventThread<?, ?, ?>> getStartedThreads() {
+		List<EventThread<?, ?, ?>> started = new ArrayList<EventThread<?, ?, ?>>(threads.length);
+		for (EventThread<?, ?, ?> thread : threads) {
+			if (thread != null) {
+				started.add(thread);
+			}
+		}
+		return started;
+	}
+
+	/**
+	 * Returns the maximum number of EventThreads used by this EventManager.
+	 * @return the maximum number of EventThreads
+	 */
+	int getThreadCount() {
+		return threads.length;
+	}
+
+	/**
+	 * Returns the index of the EventThread used to asynchronously
+	 * deliver events to the specified listener.
+	 * @param eventListener the listener
+	 * @return the index of the EventThread for the listener
+	 */
+	int getThreadIndex(Object eventListener) {
+		return (System.identityHashCode(eventListener) & 0x7FFFFFFF) % threads.length;
+	}
+
 	/**
 	 * Returns the EventThread to use for dispatching events asynchronously for
 	 * this EventManager.
@@ -186,24 +492,38 @@ public class EventManager {
 	 * @return EventThread to use for dispatching events asynchronously for
 	 * this EventManager.
 	 */
-	synchronized <K, V, E> EventThread<K, V, E> getEventThread() {
+	<K, V, E> EventThread<K, V, E> getEventThread() {
+		return getEventThread(0);
+	}
+
+	/**
+	 * Returns the EventThread with the specified index to use for dispatching
+	 * events asynchronously for this EventManager.
+	 *
+	 * @param index the index of the EventThread
+	 * @return EventThread to use for dispatching events asynchronously for
+	 * this EventManager.
+	 */
+	synchronized <K, V, E> EventThread<K, V, E> getEventThread(int index) {
 		if (closed) {
 			throw new IllegalStateException();
 		}
-		if (thread == null) {
+		if (threads[index] == null) {
 			/* if there is no thread, then create a new one */
-			thread = AccessController.doPrivileged(new PrivilegedAction<EventThread<K, V, E>>() {
+			final String name = (threads.length == 1 || threadName == null) ? threadName : threadName + " [" + index + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+			EventThread<K, V, E> thread = AccessController.doPrivileged(new PrivilegedAction<EventThread<K, V, E>>() {
 				public EventThread<K, V, E> run() {
-					EventThread<K, V, E> t = new EventThread<K, V, E>(threadGroup, threadName);
+					EventThread<K, V, E> t = new EventThread<K, V, E>(threadGroup, name, recordLatencies);
 					return t;
 				}
 			});
 			/* start the new thread */
 			thread.start();
+			threads[index] = thread;
 		}
 
 		@SuppressWarnings("unchecked")
-		EventThread<K, V, E> result = (EventThread<K, V, E>) thread;
+		EventThread<K, V, E> result = (EventThread<K, V, E>) threads[index];
 		return result;
 	}
 
@@ -213,18 +533,21 @@ public class EventManager {
 	 * on the next item on the list.
 	 * This method is package private.
 	 *
-	 * @param listeners A Set of entries from a CopyOnWriteIdentityMap map.
+	 * @param listeners A Collection of entries from a CopyOnWriteIdentityMap map.
 	 * @param dispatcher Call back object which is called to complete the delivery of
 	 * the event.
 	 * @param eventAction This value was passed by the event source and
 	 * is passed to this method. This is passed on to the call back object.
 	 * @param eventObject This object was created by the event source and
 	 * is passed to this method. This is passed on to the call back object.
+	 * @param latencies The recorder of the dispatch latency of each listener
+	 * or <code>null</code> if the latency is not recorded.
 	 */
-	static <K, V, E> void dispatchEvent(Set<Map.Entry<K, V>> listeners, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
+	static <K, V, E> void dispatchEvent(Collection<Map.Entry<K, V>> listeners, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject, LatencyRecorder latencies) {
 		for (Map.Entry<K, V> listener : listeners) { /* iterate over the list of listeners */
 			final K eventListener = listener.getKey();
 			final V listenerObject = listener.getValue();
+			long start = latencies == null ? 0 : System.nanoTime();
 			try {
 				/* Call the EventDispatcher to complete the delivery of the event. */
 				dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
@@ -235,6 +558,9 @@ public class EventManager {
 					t.printStackTrace();
 				}
 			}
+			if (latencies != null) {
+				latencies.record(eventListener, System.nanoTime() - start);
+			}
 		}
 	}
 
@@ -252,7 +578,7 @@ public class EventManager {
 		 */
 		private static class Queued<K, V, E> {
 			/** listener list for this event */
-			final Set<Map.Entry<K, V>> listeners;
+			final Collection<Map.Entry<K, V>> listeners;
 			/** dispatcher of this event */
 			final EventDispatcher<K, V, E> dispatcher;
 			/** action for this event */
@@ -270,7 +596,7 @@ public class EventManager {
 			 * @param a Action for this event
 			 * @param o Object for this event
 			 */
-			Queued(Set<Map.Entry<K, V>> l, EventDispatcher<K, V, E> d, int a, E o) {
+			Queued(Collection<Map.Entry<K, V>> l, EventDispatcher<K, V, E> d, int a, E o) {
 				listeners = l;
 				dispatcher = d;
 				action = a;
@@ -283,15 +609,23 @@ public class EventManager {
 		private Queued<K, V, E> head;
 		/** item at the tail of the event queue */
 		private Queued<K, V, E> tail;
+		/** number of items in the event queue */
+		private int size;
+		/** largest number of items in the event queue */
+		private int maxSize;
 		/** if false the thread must terminate */
 		private volatile boolean running;
+		/** dispatch latency of the listeners called by this thread or null if not recorded */
+		final LatencyRecorder latencies;
 
 		/**
 		 * Constructor for the event thread. 
 		 * @param threadName Name of the EventThread 
+		 * @param recordLatencies true if the dispatch latency of the listeners is recorded
 		 */
-		EventThread(ThreadGroup threadGroup, String threadName) {
+		EventThread(ThreadGroup threadGroup, String threadName, boolean recordLatencies) {
 			super(threadGroup, threadName == null ? getNextName() : threadName);
+			latencies = recordLatencies ? new LatencyRecorder() : null;
 			running = true;
 			head = null;
 			tail = null;
@@ -303,6 +637,14 @@ public class EventManager {
 			return "EventManagerThread-" + nextThreadNumber++; //$NON-NLS-1$
 		}
 
+		/**
+		 * Constructor for the event thread. 
+		 * @param threadName Name of the EventThread 
+		 */
+		EventThread(ThreadGroup threadGroup, String threadName) {
+			this(threadGroup, threadName, false);
+		}
+
 		/**
 		 * Constructor for the event thread. 
 		 * @param threadName Name of the EventThread 
@@ -337,7 +679,7 @@ public class EventManager {
 					if (item == null) {
 						return;
 					}
-					EventManager.dispatchEvent(item.listeners, item.dispatcher, item.action, item.object);
+					EventManager.dispatchEvent(item.listeners, item.dispatcher, item.action, item.object, item.dispatcher == FLUSH_DISPATCHER ? null : latencies);
 					// Bug 299589: since the call to getNextEvent() will eventually block for a long time, we need to make sure that the 'item'
 					// variable is cleared of the previous value before the call to getNextEvent(). See VM SPec 2.5.7 for why the compiler 
 					// will not automatically clear this variable for each loop iteration.
@@ -366,7 +708,7 @@ public class EventManager {
 		 * @param a Action for this event
 		 * @param o Object for this event
 		 */
-		synchronized void postEvent(Set<Map.Entry<K, V>> l, EventDispatcher<K, V, E> d, int a, E o) {
+		synchronized void postEvent(Collection<Map.Entry<K, V>> l, EventDispatcher<K, V, E> d, int a, E o) {
 			if (!isAlive()) { /* If the thread is not alive, throw an exception */
 				throw new IllegalStateException();
 			}
@@ -382,10 +724,21 @@ public class EventManager {
 				tail.next = item;
 				tail = item;
 			}
+			if (++size > maxSize) {
+				maxSize = size;
+			}
 
 			notify();
 		}
 
+		synchronized int getQueueSize() {
+			return size;
+		}
+
+		synchronized int getMaxQueueSize() {
+			return maxSize;
+		}
+
 		/**
 		 * This method is called by the thread to remove
 		 * items from the queue so that they can be dispatched to their listeners.
@@ -412,6 +765,7 @@ public class EventManager {
 			if (head == null) {
 				tail = null;
 			}
+			size--;
 
 			return item;
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2016 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,8 +11,7 @@
 
 package org.eclipse.osgi.framework.eventmgr;
 
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import org.eclipse.osgi.framework.eventmgr.EventManager.EventThread;
 
 /**
@@ -22,7 +21,9 @@ import org.eclipse.osgi.framework.eventmgr.EventManager.EventThread;
  * specific EventManager object. ListenerQueue objects constructed with the same
  * EventManager object will get in-order delivery of events when
  * using asynchronous delivery. No delivery order is guaranteed for synchronous
- * delivery to avoid any potential deadly embraces.
+ * delivery to avoid any potential deadly embraces.  If the EventManager uses more
+ * than one thread for asynchronous delivery, in-order delivery is only guaranteed
+ * for the events delivered to the same listener.
  *
  * <p>ListenerQueue objects are created as necessary to build a list of listeners
  * that should receive a specific event or events. Once the list is created, the event
@@ -120,6 +121,11 @@ public class ListenerQueue<K, V, E> {
 		synchronized (this) {
 			readOnly = true;
 		}
+		int threadCount = manager.getThreadCount();
+		if (threadCount > 1) {
+			dispatchEventAsynchronous(threadCount, eventAction, eventObject);
+			return;
+		}
 		EventThread<K, V, E> eventThread = manager.getEventThread();
 		synchronized (eventThread) { /* synchronize on the EventThread to ensure no interleaving of posting to the event thread */
 			for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
@@ -128,6 +134,42 @@ public class ListenerQueue<K, V, E> {
 		}
 	}
 
+	/**
+	 * Asynchronously dispatch an event to the snapshot list using more than one
+	 * event dispatch thread. Each listener list is split by the event dispatch
+	 * thread assigned to each listener.
+	 */
+	private void dispatchEventAsynchronous(int threadCount, int eventAction, E eventObject) {
+		List<Integer> indexes = new ArrayList<Integer>();
+		List<Collection<Map.Entry<K, V>>> listenerLists = new ArrayList<Collection<Map.Entry<K, V>>>();
+		List<EventDispatcher<K, V, E>> dispatchers = new ArrayList<EventDispatcher<K, V, E>>();
+		for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
+			List<List<Map.Entry<K, V>>> split = new ArrayList<List<Map.Entry<K, V>>>(Collections.<List<Map.Entry<K, V>>> nCopies(threadCount, null));
+			for (Map.Entry<K, V> listener : entry.getKey()) {
+				int index = manager.getThreadIndex(listener.getKey());
+				List<Map.Entry<K, V>> listeners = split.get(index);
+				if (listeners == null) {
+					listeners = new ArrayList<Map.Entry<K, V>>();
+					split.set(index, listeners);
+				}
+				listeners.add(listener);
+			}
+			for (int i = 0; i < threadCount; i++) {
+				if (split.get(i) != null) {
+					indexes.add(Integer.valueOf(i));
+					listenerLists.add(split.get(i));
+					dispatchers.add(entry.getValue());
+				}
+			}
+		}
+		synchronized (manager.postLock) { /* ensure no interleaving of posting to the event threads */
+			for (int i = 0; i < indexes.size(); i++) {
+				EventThread<K, V, E> eventThread = manager.getEventThread(indexes.get(i).intValue());
+				eventThread.postEvent(listenerLists.get(i), dispatchers.get(i), eventAction, eventObject);
+			}
+		}
+	}
+
 	/**
 	 * Synchronously dispatch an event to the snapshot list. The event may
 	 * be dispatched on the current thread or an event dispatch thread
@@ -145,7 +187,7 @@ public class ListenerQueue<K, V, E> {
 		// We can't guarantee any delivery order for synchronous events.
 		// Attempts to do so result in deadly embraces.
 		for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
-			EventManager.dispatchEvent(entry.getKey(), entry.getValue(), eventAction, eventObject);
+			EventManager.dispatchEvent(entry.getKey(), entry.getValue(), eventAction, eventObject, null);
 		}
 	}
 }
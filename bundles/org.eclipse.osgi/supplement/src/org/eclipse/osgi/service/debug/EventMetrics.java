@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.service.debug;
+
+import java.util.Collection;
+import org.osgi.framework.Bundle;
+
+/**
+ * An EventMetrics service provides the time the framework spends delivering
+ * events to listeners and calling hook services.  The times are grouped by the
+ * bundle which registered the listener or hook service and by the type of the
+ * listener or hook service.
+ * <p>
+ * The framework only records event metrics, and registers this service, if the
+ * <code>equinox.event.metrics</code> configuration property is <code>true</code>.
+ * The <code>toString()</code> method of the service returns a description of the
+ * recorded metrics suitable for display on a console.
+ * </p>
+ * 
+ * @since 3.11
+ * @noimplement This interface is not intended to be implemented by clients.
+ * @noextend This interface is not intended to be extended by clients.
+ */
+public interface EventMetrics {
+	/**
+	 * The times recorded for one type of listener or hook service registered by a bundle.
+	 * 
+	 * @noimplement This interface is not intended to be implemented by clients.
+	 * @noextend This interface is not intended to be extended by clients.
+	 */
+	public interface DispatchTimes {
+		/**
+		 * Returns the bundle which registered the listeners or hook services.
+		 * @return the bundle which registered the listeners or hook services
+		 */
+		public Bundle getBundle();
+
+		/**
+		 * Returns the simple name of the listener or hook service interface,
+		 * for example <code>ServiceListener</code> or <code>FindHook</code>.
+		 * @return the type of the listeners or hook services
+		 */
+		public String getType();
+
+		/**
+		 * Returns the number of times a listener or hook service was called.
+		 * @return the number of calls
+		 */
+		public long getCount();
+
+		/**
+		 * Returns the total time in nanoseconds spent calling the listeners or hook services.
+		 * @return the total time in nanoseconds
+		 */
+		public long getTotalTime();
+
+		/**
+		 * Returns the longest time in nanoseconds spent in a single call.
+		 * @return the longest time in nanoseconds
+		 */
+		public long getMaxTime();
+
+		/**
+		 * Returns the number of calls which took less than each of the
+		 * {@link EventMetrics#getHistogramLimits() histogram limits}.  The
+		 * last element of the returned array is the number of calls which took
+		 * at least as long as the largest limit.
+		 * @return the number of calls for each histogram bucket
+		 */
+		public long[] getHistogram();
+	}
+
+	/**
+	 * Returns the exclusive upper limits in nanoseconds of the histogram buckets
+	 * in ascending order.
+	 * @return the upper limits of the histogram buckets
+	 */
+	public long[] getHistogramLimits();
+
+	/**
+	 * Returns a snapshot of the times recorded since the framework was started
+	 * or the metrics were last {@link #reset() reset}.
+	 * @return the recorded times
+	 */
+	public Collection<DispatchTimes> getDispatchTimes();
+
+	/**
+	 * Returns the number of events currently queued for asynchronous delivery.
+	 * @return the number of queued events
+	 */
+	public int getQueuedEventCount();
+
+	/**
+	 * Returns the largest number of events which were queued for
+	 * asynchronous delivery at the same time.
+	 * @return the largest number of queued events
+	 */
+	public int getMaxQueuedEventCount();
+
+	/**
+	 * Discards the recorded times.
+	 */
+	public void reset();
+}